@@ -0,0 +1,101 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.view.common.util.Compression;
+import dk.dma.ais.view.rest.json.VesselList;
+import dk.dma.ais.view.rest.json.VesselListJsonResponse;
+
+/**
+ * Benchmarks of the gzip compression of responses at the levels used per route, against the time it takes to compress
+ * a response. The size of each payload before and after compression is printed when a trial starts, so the bandwidth
+ * saved can be weighed against the CPU time measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmarks {
+
+    /** The levels of {@link Compression#FAST}, {@link Compression#DEFAULT} and {@link Compression#STRONG}. */
+    @Param({ "1", "6", "9" })
+    public int level;
+
+    /** The vessel_list response of every target, or the NMEA of every packet in the tracker as sent by /stream. */
+    @Param({ "vessel_list", "nmea" })
+    public String payload;
+
+    private byte[] data;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp(TrackerState s) throws IOException {
+        if (payload.equals("vessel_list")) {
+            VesselList list = new VesselList();
+            for (TargetInfo ti : s.infos) {
+                list.addTarget(ti, ti.getMmsi());
+            }
+            list.setInWorldCount(s.infos.length);
+            data = new ObjectMapper().writeValueAsBytes(new VesselListJsonResponse(1, list));
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (TargetInfo ti : s.infos) {
+                for (AisPacket p : ti.getPackets()) {
+                    sb.append(p.getStringMessage()).append("\r\n");
+                }
+            }
+            data = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        int compressed = compress();
+        System.out.printf("%n%s, level %d: %d bytes compressed to %d bytes (%.1f%%)%n", payload, level, data.length,
+                compressed, 100.0 * compressed / data.length);
+    }
+
+    /** Gzips the payload, returning the compressed size. */
+    @Benchmark
+    public int compress() throws IOException {
+        out.reset();
+        try (GZIPOutputStream os = Compression.gzip(out, level)) {
+            os.write(data);
+        }
+        return out.size();
+    }
+}
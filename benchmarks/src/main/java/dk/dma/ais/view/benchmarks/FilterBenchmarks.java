@@ -0,0 +1,99 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.view.common.util.TargetInfoFilters;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.CoordinateSystem;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Benchmarks of the {@link TargetInfoFilters} predicates, each applied to every target of the tracker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmarks {
+
+    /** A box covering roughly a quarter of the area the vessels are placed in. */
+    private static final BoundingBox BBOX = BoundingBox.create(Position.create(56.0, 9.0),
+            Position.create(57.5, 13.5), CoordinateSystem.CARTESIAN);
+
+    private static final Predicate<TargetInfo> BOUNDING_BOX = TargetInfoFilters.filterOnBoundingBox(BBOX);
+
+    private static final Predicate<TargetInfo> TTL = TargetInfoFilters.filterOnTTL(1200);
+
+    private static final Predicate<TargetInfo> HAS_STATIC = TargetInfoFilters.filterOnHasStatic();
+
+    private static final Predicate<? super TargetInfo> HAS_POSITION = TargetInfoFilters.filterOnHasPosition();
+
+    /** The predicates in the combination used by vessel_list. */
+    private static final Predicate<TargetInfo> COMBINED = BOUNDING_BOX.and(TTL).and(HAS_POSITION);
+
+    @Benchmark
+    public int boundingBox(TrackerState s) {
+        return count(s, BOUNDING_BOX);
+    }
+
+    @Benchmark
+    public int ttl(TrackerState s) {
+        return count(s, TTL);
+    }
+
+    @Benchmark
+    public int hasStatic(TrackerState s) {
+        return count(s, HAS_STATIC);
+    }
+
+    @Benchmark
+    public int hasPosition(TrackerState s) {
+        return count(s, HAS_POSITION);
+    }
+
+    @Benchmark
+    public int combined(TrackerState s) {
+        return count(s, COMBINED);
+    }
+
+    /** Streams the tracker through the combined predicates, as the resources do. */
+    @Benchmark
+    public long trackerStream(TrackerState s) {
+        return s.tracker.stream(e -> true, COMBINED).count();
+    }
+
+    private static int count(TrackerState s, Predicate<? super TargetInfo> p) {
+        int matches = 0;
+        for (TargetInfo ti : s.infos) {
+            if (p.test(ti)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dk.dma.ais.data.PastTrackPoint;
+import dk.dma.ais.view.common.grid.Grid;
+import dk.dma.ais.view.common.grid.GridEqualArea;
+import dk.dma.ais.view.common.grid.GridFactory;
+import dk.dma.ais.view.common.util.PastTrackPointExtractor;
+import dk.dma.ais.view.common.util.SimplifyRhumbline;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Benchmarks of the grids used for clustering and of past track simplification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeometryBenchmarks {
+
+    /** The number of positions looked up per grid benchmark invocation. */
+    private static final int POSITIONS = 10000;
+
+    /** The number of points in the past track to simplify. */
+    @Param({ "1000", "8640" })
+    public int trackPoints;
+
+    /** The tolerance in meters, as passed by vessel_target_details. */
+    @Param({ "50" })
+    public double tolerance;
+
+    private Position[] positions;
+
+    private Grid grid;
+
+    private GridEqualArea equalArea;
+
+    private PastTrackPoint[] track;
+
+    private SimplifyRhumbline simplifier;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        positions = SyntheticData.positions(POSITIONS, 42);
+        grid = GridFactory.getInstance().getGrid(4.0);
+        equalArea = new GridEqualArea();
+        equalArea.initGrid(SyntheticData.LON_MIN, SyntheticData.LAT_MIN, SyntheticData.LON_MAX, SyntheticData.LAT_MAX,
+                10000);
+        track = SyntheticData.track(trackPoints, 42);
+        simplifier = new SimplifyRhumbline(new PastTrackPoint[0], new PastTrackPointExtractor());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public void gridCellId(Blackhole bh) {
+        for (Position p : positions) {
+            bh.consume(grid.getCellId(p.getLatitude(), p.getLongitude()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public void gridEqualAreaCellId(Blackhole bh) {
+        for (Position p : positions) {
+            bh.consume(equalArea.getCellId(p.getLongitude(), p.getLatitude()));
+        }
+    }
+
+    /** Simplifies the track as PastTrackSimplifier does. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public PastTrackPoint[] simplify() {
+        return simplifier.simplify(track, tolerance, false);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public PastTrackPoint[] simplifyHighestQuality() {
+        return simplifier.simplify(track, tolerance, true);
+    }
+}
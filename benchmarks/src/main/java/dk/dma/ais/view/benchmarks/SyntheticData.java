@@ -0,0 +1,128 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.data.AisVesselTarget;
+import dk.dma.ais.data.PastTrackPoint;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.simulation.NmeaEncoder;
+import dk.dma.ais.view.simulation.NmeaEncoder.Payload;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Generates reproducible AIS data for the benchmarks. Vessels are spread uniformly over the inner Danish waters and
+ * received from a handful of sources.
+ */
+final class SyntheticData {
+
+    static final double LAT_MIN = 54.0;
+
+    static final double LAT_MAX = 58.0;
+
+    static final double LON_MIN = 7.0;
+
+    static final double LON_MAX = 16.0;
+
+    /** The number of distinct source ids the packets are spread over. */
+    static final int SOURCES = 4;
+
+    private static final String[] NAMES = { "NORDIC", "BALTIC", "STAR", "SPIRIT", "MAERSK", "ARROW", "PRINCESS",
+            "AURORA" };
+
+    private SyntheticData() {}
+
+    /**
+     * Returns a position report and a static report for each of the specified number of vessels, timestamped now.
+     */
+    static List<AisPacket> vessels(int count, long seed) {
+        Random r = new Random(seed);
+        long now = System.currentTimeMillis();
+        List<AisPacket> packets = new ArrayList<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int mmsi = 219000000 + i;
+            String source = "SRC" + (i % SOURCES);
+            double lat = LAT_MIN + r.nextDouble() * (LAT_MAX - LAT_MIN);
+            double lon = LON_MIN + r.nextDouble() * (LON_MAX - LON_MIN);
+            double cog = r.nextDouble() * 360;
+            packets.add(packet(NmeaEncoder.positionReport(1, mmsi, r.nextInt(9), lat, lon, r.nextDouble() * 20, cog,
+                    (int) cog, 60), source, now, i));
+            String name = NAMES[r.nextInt(NAMES.length)] + " " + NAMES[r.nextInt(NAMES.length)] + " " + i % 100;
+            packets.add(packet(NmeaEncoder.staticReport(mmsi, 9000000 + i, "OX" + i % 100000, name,
+                    60 + r.nextInt(30), 20 + r.nextInt(300), 5 + r.nextInt(50), r.nextDouble() * 15, "AARHUS"), source,
+                    now, i));
+        }
+        return packets;
+    }
+
+    /** Returns a tracker holding the specified number of vessels. */
+    static TargetTracker tracker(int count, long seed) {
+        TargetTracker tracker = new TargetTracker();
+        for (AisPacket p : vessels(count, seed)) {
+            tracker.update(p);
+        }
+        return tracker;
+    }
+
+    /** Returns random positions within the area the vessels are placed in. */
+    static Position[] positions(int count, long seed) {
+        Random r = new Random(seed);
+        Position[] positions = new Position[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = Position.create(LAT_MIN + r.nextDouble() * (LAT_MAX - LAT_MIN),
+                    LON_MIN + r.nextDouble() * (LON_MAX - LON_MIN));
+        }
+        return positions;
+    }
+
+    /** Returns a past track of a single vessel wandering about with one report every 10 seconds. */
+    static PastTrackPoint[] track(int points, long seed) {
+        Random r = new Random(seed);
+        long time = System.currentTimeMillis() - points * 10000L;
+        double lat = 55.5;
+        double lon = 11.0;
+        double cog = r.nextDouble() * 360;
+        AisVesselTarget target = null;
+        PastTrackPoint[] track = new PastTrackPoint[points];
+        for (int i = 0; i < points; i++) {
+            cog = (cog + r.nextGaussian() * 5 + 360) % 360;
+            double sog = 10 + r.nextGaussian();
+            // 10 seconds at sog knots, in degrees of latitude
+            double distance = sog * 10 / 3600 / 60;
+            lat += distance * Math.cos(Math.toRadians(cog));
+            lon += distance * Math.sin(Math.toRadians(cog)) / Math.cos(Math.toRadians(lat));
+            AisPacket p = packet(NmeaEncoder.positionReport(1, 219000000, 0, lat, lon, sog, cog, (int) cog, 60),
+                    "SRC0", time + i * 10000L, i);
+            AisMessage m = p.tryGetAisMessage();
+            if (target == null) {
+                target = (AisVesselTarget) AisTarget.createTarget(m);
+            }
+            target.update(m);
+            track[i] = new PastTrackPoint(target.getVesselPosition());
+        }
+        return track;
+    }
+
+    private static AisPacket packet(Payload payload, String source, long timestamp, int sequence) {
+        return AisPacket.readFromString(NmeaEncoder.sentences(payload, NmeaEncoder.tags(timestamp, source, null,
+                false), sequence));
+    }
+}
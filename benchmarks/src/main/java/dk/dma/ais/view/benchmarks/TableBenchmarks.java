@@ -0,0 +1,113 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.SourceAttribute;
+import dk.dma.ais.view.table.TableFilter;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.CoordinateSystem;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Benchmarks of scans of the {@link LiveTargetTable}, the counterparts of the predicates in {@link FilterBenchmarks}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmarks {
+
+    /** The same box as in {@link FilterBenchmarks}. */
+    private static final BoundingBox BBOX = BoundingBox.create(Position.create(56.0, 9.0),
+            Position.create(57.5, 13.5), CoordinateSystem.CARTESIAN);
+
+    /** One of the {@link SyntheticData#SOURCES} source ids. */
+    private static final List<String> SOURCE_IDS = Collections.singletonList("SRC0");
+
+    @State(Scope.Benchmark)
+    public static class TableState {
+
+        LiveTargetTable table;
+
+        TargetTracker tracker;
+
+        @Setup(Level.Trial)
+        public void setUp(TrackerState s) {
+            tracker = s.tracker;
+            table = new LiveTargetTable(s.tracker);
+            table.refresh();
+        }
+    }
+
+    @Benchmark
+    public int boundingBox(TableState s) {
+        return s.table.count(new TableFilter().within(BBOX));
+    }
+
+    @Benchmark
+    public int hasStatic(TableState s) {
+        return s.table.count(new TableFilter().withStatic());
+    }
+
+    /** A box and a time to live, like vessel_clusters. */
+    @Benchmark
+    public int combined(TableState s) {
+        return s.table.count(new TableFilter().within(BBOX).seenWithin(1200));
+    }
+
+    /** The targets received from a single source id, from the source index. */
+    @Benchmark
+    public int sourceId(TableState s) {
+        return s.table.count(new TableFilter().source(SourceAttribute.ID, SOURCE_IDS));
+    }
+
+    /** The same as {@link #sourceId(TableState)}, testing the sources of every target in the tracker. */
+    @Benchmark
+    public long sourceIdTracker(TableState s) {
+        return s.tracker.stream(src -> SOURCE_IDS.contains(src.getSourceId()), t -> true).count();
+    }
+
+    /** The distinct source ids, as listed by /tracker/source/ids. */
+    @Benchmark
+    public int distinctSourceIds(TableState s) {
+        return s.table.values(SourceAttribute.ID).size();
+    }
+
+    @Benchmark
+    public long forEach(TableState s) {
+        long[] sum = new long[1];
+        s.table.forEach(new TableFilter().within(BBOX), (mmsi, latE7, lonE7) -> sum[0] += mmsi);
+        return sum[0];
+    }
+}
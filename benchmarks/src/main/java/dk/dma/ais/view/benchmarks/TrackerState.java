@@ -0,0 +1,56 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+
+/**
+ * A tracker populated with synthetic vessels. The number of vessels is set with -p targets=...
+ */
+@State(Scope.Benchmark)
+public class TrackerState {
+
+    @Param({ "1000", "10000", "100000" })
+    public int targets;
+
+    TargetTracker tracker;
+
+    /** The current targets of the tracker, in no particular order. */
+    TargetInfo[] infos;
+
+    /** The AisTarget view of each of the targets, as used by the search. */
+    AisTarget[] aisTargets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tracker = SyntheticData.tracker(targets, 42);
+        infos = tracker.stream().toArray(TargetInfo[]::new);
+        aisTargets = new AisTarget[infos.length];
+        for (int i = 0; i < infos.length; i++) {
+            aisTargets[i] = infos[i].getAisTarget();
+        }
+        if (infos.length != targets) {
+            throw new IllegalStateException("Expected " + targets + " targets in the tracker, was " + infos.length);
+        }
+    }
+}
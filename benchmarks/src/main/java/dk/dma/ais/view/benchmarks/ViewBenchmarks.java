@@ -0,0 +1,162 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.view.configuration.AisViewConfiguration;
+import dk.dma.ais.view.handler.AisViewHelper;
+import dk.dma.ais.view.rest.binary.BinaryTargetList;
+import dk.dma.ais.view.rest.json.VesselClusterJsonRepsonse;
+import dk.dma.ais.view.rest.json.VesselList;
+import dk.dma.ais.view.rest.json.VesselTargetDetails;
+import dk.dma.ais.view.table.ViewTargetCache;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Benchmarks of the code building the responses of the legacy map client: vessel_list, vessel_clusters, vessel_search
+ * and vessel_target_details, and of /view/vessels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewBenchmarks {
+
+    /** The number of targets a details benchmark invocation builds. */
+    private static final int DETAILS = 1000;
+
+    private static final Position TOP_LEFT = Position.create(SyntheticData.LAT_MAX, SyntheticData.LON_MIN);
+
+    private static final Position BOTTOM_RIGHT = Position.create(SyntheticData.LAT_MIN, SyntheticData.LON_MAX);
+
+    private final AisViewHelper helper = new AisViewHelper(new AisViewConfiguration());
+
+    /** Adds every target to a new vessel list, as vessel_list does after filtering. */
+    @Benchmark
+    public VesselList vesselList(TrackerState s) {
+        VesselList list = new VesselList();
+        for (TargetInfo ti : s.infos) {
+            list.addTarget(ti, ti.getMmsi());
+        }
+        return list;
+    }
+
+    /** Encodes every target as a vessel list in the binary format, as vessel_list does for format=binary. */
+    @Benchmark
+    public byte[] vesselListBinary(TrackerState s) {
+        List<BinaryTargetList.Vessel> vessels = new ArrayList<>(s.infos.length);
+        for (TargetInfo ti : s.infos) {
+            vessels.add(BinaryTargetList.Vessel.of(ti, null));
+        }
+        BinaryTargetList list = new BinaryTargetList(BinaryTargetList.VESSEL_LIST, 1, s.infos.length, null);
+        list.vessels(vessels);
+        return list.toByteArray();
+    }
+
+    /** Clusters every target with the default limit and cluster size of vessel_clusters. */
+    @Benchmark
+    public VesselClusterJsonRepsonse cluster(TrackerState s) {
+        return helper.getClusterResponse(Arrays.stream(s.infos), 1, 10, 4.0, TOP_LEFT, BOTTOM_RIGHT, s.infos.length);
+    }
+
+    /** Matches every target against the start of an MMSI. */
+    @Benchmark
+    public int searchMmsi(TrackerState s) {
+        return search(s, "2190001");
+    }
+
+    /** Matches every target against the start of a word in the name. */
+    @Benchmark
+    public int searchName(TrackerState s) {
+        return search(s, "spi");
+    }
+
+    private int search(TrackerState s, String argument) {
+        int matches = 0;
+        for (AisTarget t : s.aisTargets) {
+            if (!helper.rejectedBySearchCriteria(t, argument)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /** Builds the details of a single target, without a past track. */
+    @Benchmark
+    @OperationsPerInvocation(DETAILS)
+    public void details(TrackerState s, Blackhole bh) {
+        TargetInfo[] infos = s.infos;
+        for (int i = 0; i < DETAILS; i++) {
+            TargetInfo ti = infos[i % infos.length];
+            bh.consume(new VesselTargetDetails(ti, ti.getPacketSource(), ti.getMmsi(), null));
+        }
+    }
+
+    /** A view target cache filled from the tracker, with the packets read from the tracker. */
+    @State(Scope.Benchmark)
+    public static class ViewState {
+
+        ViewTargetCache cache;
+
+        @Setup(Level.Trial)
+        public void setUp(TrackerState s) {
+            cache = new ViewTargetCache(s.tracker, 1000);
+            cache.refresh();
+        }
+    }
+
+    /** Replays the packets of every target into a view target, as /view/vessels did for every request. */
+    @Benchmark
+    public void viewVesselsReplay(TrackerState s, Blackhole bh) {
+        for (TargetInfo ti : s.infos) {
+            bh.consume(ViewTargetCache.create(ti.getPackets()));
+        }
+    }
+
+    /** Writes the cached JSON of every target, as /view/vessels does now. */
+    @Benchmark
+    public int viewVesselsCached(ViewState s) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write('[');
+        for (ViewTargetCache.Entry e : s.cache.entries()) {
+            os.write(e.getJson(), 0, e.getJson().length);
+            os.write(',');
+        }
+        os.write(']');
+        return os.size();
+    }
+}
@@ -23,8 +23,32 @@ import dk.dma.ais.store.cli.baseclients.AisStoreDaemon;
 import dk.dma.ais.store.job.JobManager;
 import dk.dma.ais.tracker.targetTracker.TargetTracker;
 import dk.dma.ais.tracker.targetTracker.TargetTrackerFileBackupService;
+import dk.dma.ais.view.backup.TrackerJournal;
+import dk.dma.ais.view.backup.TrackerSnapshotService;
 import dk.dma.ais.view.common.util.CacheManager;
+import dk.dma.ais.view.ingest.DuplicateFilter;
+import dk.dma.ais.view.ingest.IngestPipeline;
+import dk.dma.ais.view.live.LiveSubscriptions;
+import dk.dma.ais.view.live.LiveTargetEndpoint;
+import dk.dma.ais.view.live.PacketReplayBuffer;
+import dk.dma.ais.view.live.TargetUpdateHub;
+import dk.dma.ais.view.metrics.AccessLog;
+import dk.dma.ais.view.metrics.IngestMetrics;
+import dk.dma.ais.view.metrics.JvmMetrics;
+import dk.dma.ais.view.metrics.LatencyHistograms;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+import dk.dma.ais.view.metrics.MetricsRegistry.Counter;
+import dk.dma.ais.view.metrics.StoreQueryMetrics;
+import dk.dma.ais.view.metrics.TrackerMetrics;
+import dk.dma.ais.view.rest.RequestExecutors;
 import dk.dma.ais.view.rest.WebServer;
+import dk.dma.ais.view.simulation.FleetSimulator;
+import dk.dma.ais.view.simulation.NmeaFileReplay;
+import dk.dma.ais.view.simulation.NmeaServer;
+import dk.dma.ais.view.simulation.SyntheticFleet;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.TrackerSnapshots;
+import dk.dma.ais.view.table.ViewTargetCache;
 import dk.dma.commons.web.rest.AbstractResource;
 import dk.dma.db.cassandra.CassandraConnection;
 import org.slf4j.Logger;
@@ -33,10 +57,15 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
-import java.util.Collections;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * AIS viewer daemon
@@ -51,6 +80,78 @@ public class AisViewDaemon extends AisStoreDaemon {
     @Parameter(names = "-backup", description = "The backup directory")
     File backup = new File("aisview-backup");
 
+    @Parameter(names = "-backupFormat", description = "The format of tracker backups, binary or legacy")
+    String backupFormat = "binary";
+
+    @Parameter(names = "-snapshotInterval", description = "How often, in seconds, a binary snapshot of the tracker is written to the backup directory")
+    long snapshotInterval = 600;
+
+    @Parameter(names = "-nojournal", description = "Do not journal packets between binary tracker snapshots")
+    boolean noJournal;
+
+    @Parameter(names = "-journalSync", description = "How often, in milliseconds, the tracker journal is forced to disk")
+    long journalSync = 1000;
+
+    @Parameter(names = "-restoreThreads", description = "The number of threads loading the binary tracker snapshot at startup")
+    int restoreThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "-liveTick", description = "How often, in milliseconds, target updates are pushed to WebSocket clients")
+    long liveTick = 500;
+
+    @Parameter(names = "-replayBuffer", description = "The number of recent packets retained for resuming Server-Sent Events clients")
+    int replayBuffer = 50000;
+
+    @Parameter(names = "-ingestThreads", description = "The number of threads decoding packets and updating the tracker")
+    int ingestThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "-ingestQueue", description = "The number of packets that can be queued for each ingest thread")
+    int ingestQueue = 10000;
+
+    @Parameter(names = "-dedupWindow", description = "For how many seconds a message received from several sources is only applied once, 0 to disable")
+    int dedupWindow = 60;
+
+    @Parameter(names = "-dedupCapacity", description = "The number of messages remembered per half window by the duplicate filter")
+    int dedupCapacity = 1 << 20;
+
+    @Parameter(names = "-interactiveThreads", description = "The maximum number of concurrent tracker requests, such as vessel_list")
+    int interactiveThreads = 32;
+
+    @Parameter(names = "-streamingThreads", description = "The maximum number of concurrent AisStore queries and exports")
+    int streamingThreads = 32;
+
+    @Parameter(names = "-liveThreads", description = "The maximum number of concurrent live streams")
+    int liveThreads = 256;
+
+    @Parameter(names = "-virtualThreads", description = "Experimental, not yet benchmarked: run AisStore queries and live streams on virtual threads (Java 21)")
+    boolean virtualThreads = false;
+
+    @Parameter(names = "-simulate", description = "Add a simulated fleet of this many vessels as a source, for load testing")
+    int simulate;
+
+    @Parameter(names = "-simulatePort", description = "The local port simulated NMEA is served on, 0 to pick a free port")
+    int simulatePort;
+
+    @Parameter(names = "-simulateSpeed", description = "How much faster than real time the simulated fleet sails")
+    double simulateSpeed = 1;
+
+    @Parameter(names = "-simulateClassB", description = "The share of simulated vessels with class B equipment")
+    double simulateClassB = 0.2;
+
+    @Parameter(names = "-simulateSatellite", description = "The share of simulated messages tagged as received by satellite")
+    double simulateSatellite = 0.05;
+
+    @Parameter(names = "-simulateRegions", description = "The regions simulated messages are tagged with, from west to east, for example NO,DK,SE,FI")
+    String simulateRegions;
+
+    @Parameter(names = "-replayFile", description = "Add an NMEA file, optionally gzipped, as a source replayed by packet timestamps. Can be repeated")
+    List<String> replayFiles;
+
+    @Parameter(names = "-replaySpeed", description = "How much faster than recorded files are replayed, 0 for as fast as possible")
+    double replaySpeed = 1;
+
+    @Parameter(names = "-replayMmap", description = "Memory map uncompressed replay files instead of reading them through a stream")
+    boolean replayMmap = false;
+
     @Parameter(names = "-nodatabase", description = "Do not attempt to connect to any cassandra cluster")
     boolean noCassandra = false;
 
@@ -65,14 +166,43 @@ public class AisViewDaemon extends AisStoreDaemon {
         // A cache manager where caches can be held and retrieved
         final CacheManager cacheManager = new CacheManager();
 
+        // Metrics exposed at /metrics
+        final MetricsRegistry metrics = new MetricsRegistry();
+        cacheManager.registerMetrics(metrics);
+
+        // Simulated and replayed traffic is read back over a local socket, like any other source
+        List<String> readerSources = sources == null ? new ArrayList<>() : new ArrayList<>(sources);
+        if (simulate > 0) {
+            NmeaServer nmeaServer = localSource(readerSources, "simulator", simulatePort);
+            long now = System.currentTimeMillis();
+            SyntheticFleet fleet = new SyntheticFleet(simulate, SyntheticFleet.DEFAULT_AREA, simulateClassB, 1, now);
+            fleet.setSatelliteShare(simulateSatellite);
+            if (simulateRegions != null) {
+                fleet.setRegions(Arrays.asList(simulateRegions.split(",")));
+            }
+            start(new FleetSimulator(fleet, now, simulateSpeed, nmeaServer));
+        }
+        if (replayFiles != null && !replayFiles.isEmpty()) {
+            List<Path> files = replayFiles.stream().map(f -> Paths.get(f)).collect(Collectors.toList());
+            start(new NmeaFileReplay(files, replaySpeed, replayMmap, localSource(readerSources, "replay", 0)));
+        }
+
         // Setup the readers
-        AisReaderGroup g = AisReaders.createGroup("AisView",
-                sources == null ? Collections.<String> emptyList() : sources);
+        AisReaderGroup g = AisReaders.createGroup("AisView", readerSources);
         AisReaders.manageGroup(g);
 
         // A job manager that takes care of tracking ongoing jobs
         final JobManager jobManager = new JobManager();
 
+        // Keeps track of clients connected to the live stream
+        final LiveSubscriptions liveSubscriptions = new LiveSubscriptions();
+        liveSubscriptions.registerMetrics(metrics);
+
+        // packets are decoded and applied to the tracker on several threads
+        final IngestPipeline ingestPipeline = new IngestPipeline(targetTracker, ingestThreads, ingestQueue);
+        ingestPipeline.registerMetrics(metrics);
+        ingestPipeline.subscribe(new IngestMetrics(metrics));
+
         // Setup the backup process
         // Files.createDirectories(backup);
         backup.mkdirs();
@@ -80,11 +210,89 @@ public class AisViewDaemon extends AisStoreDaemon {
             throw new IOException("Unable to create directories for " + backup);
         }
 
-        start(new TargetTrackerFileBackupService(targetTracker, backup.toPath()));
+        switch (backupFormat) {
+        case "binary":
+            // restore before any live packet reaches the tracker
+            TrackerJournal journal = null;
+            if (!noJournal) {
+                journal = new TrackerJournal(backup.toPath(), journalSync, 64 * 1024 * 1024, 100000);
+                journal.registerMetrics(metrics);
+            }
+            TrackerSnapshotService snapshots = new TrackerSnapshotService(targetTracker, backup.toPath(),
+                    snapshotInterval, restoreThreads, journal);
+            if (!Files.exists(snapshots.getFile())) {
+                // upgraded from the legacy format, restore its backup once, the first snapshot then takes over
+                LOG.info("No tracker snapshot, restoring the legacy backup in " + backup);
+                TargetTrackerFileBackupService legacy = new TargetTrackerFileBackupService(targetTracker,
+                        backup.toPath());
+                legacy.startAsync().awaitRunning();
+                legacy.stopAsync().awaitTerminated();
+            }
+            snapshots.restore();
+            snapshots.registerMetrics(metrics);
+            if (journal != null) {
+                start(journal);
+                ingestPipeline.subscribe(journal);
+            }
+            start(snapshots);
+            break;
+        case "legacy":
+            start(new TargetTrackerFileBackupService(targetTracker, backup.toPath()));
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown backup format " + backupFormat + ", must be binary or legacy");
+        }
 
         // start tracking
-        targetTracker.subscribeToPacketStream(g.stream());
+        TrackerMetrics.register(metrics, targetTracker);
+
+        // the latest state of each vessel in columns, for scans over the whole fleet
+        final LiveTargetTable liveTargetTable = new LiveTargetTable(targetTracker);
+        liveTargetTable.registerMetrics(metrics);
+        ingestPipeline.subscribe(liveTargetTable);
+        start(liveTargetTable);
+
+        // the view target of each vessel, rebuilt once a second for vessels that have been updated
+        final ViewTargetCache viewTargetCache = new ViewTargetCache(targetTracker, TimeUnit.SECONDS.toMillis(1));
+        viewTargetCache.registerMetrics(metrics);
+        ingestPipeline.subscribe(viewTargetCache);
+        start(viewTargetCache);
+
+        // snapshots of the tracker shared by the read endpoints, at most one per second
+        final TrackerSnapshots trackerSnapshots = new TrackerSnapshots(targetTracker, TimeUnit.SECONDS.toMillis(1));
+        trackerSnapshots.registerMetrics(metrics);
+        start(trackerSnapshots);
+
+        // push target updates to WebSocket clients, once the tracker has been updated
+        final TargetUpdateHub targetUpdateHub = new TargetUpdateHub(targetTracker, liveTick);
+        ingestPipeline.subscribe(targetUpdateHub::packetTracked);
+        start(targetUpdateHub);
+        start(ingestPipeline);
+        if (dedupWindow > 0) {
+            // drop copies of the same message received from other sources, before they are decoded
+            final DuplicateFilter duplicateFilter = new DuplicateFilter(TimeUnit.SECONDS.toMillis(dedupWindow),
+                    dedupCapacity);
+            duplicateFilter.registerMetrics(metrics);
+            g.stream().subscribe(p -> {
+                if (!duplicateFilter.isDuplicate(p)) {
+                    ingestPipeline.accept(p);
+                }
+            });
+        } else {
+            ingestPipeline.subscribeTo(g.stream());
+        }
+        metrics.gauge("aisview_live_websocket_sessions", "The number of connected WebSocket clients",
+                () -> targetUpdateHub.getSessionCount());
+
+        // sequence packets for Server-Sent Events clients
+        final PacketReplayBuffer packetReplayBuffer = new PacketReplayBuffer(replayBuffer);
+        packetReplayBuffer.subscribeTo(g.stream());
         
+        final Counter evictedStale = metrics.counter("aisview_tracker_evictions_total",
+                "The number of target reports removed from the tracker", "reason", "stale_position");
+        final Counter evictedNoStatic = metrics.counter("aisview_tracker_evictions_total",
+                "The number of target reports removed from the tracker", "reason", "missing_static");
+
         //target tracking cleanup service
         start(new AbstractScheduledService() {
             
@@ -99,12 +307,18 @@ public class AisViewDaemon extends AisStoreDaemon {
                 final Date live = new Date(new Date().getTime()-(1000*60*60*12));
                 
                 targetTracker.removeAll((t, u) -> {
+                    boolean remove;
                     switch(t.getSourceType()) {
                     case SATELLITE:
-                        return !u.hasPositionInfo() || new Date(u.getPositionTimestamp()).before(satellite);
+                        remove = !u.hasPositionInfo() || new Date(u.getPositionTimestamp()).before(satellite);
+                        break;
                     default:
-                        return !u.hasPositionInfo() || new Date(u.getPositionTimestamp()).before(live);
+                        remove = !u.hasPositionInfo() || new Date(u.getPositionTimestamp()).before(live);
+                    }
+                    if (remove) {
+                        evictedStale.inc();
                     }
+                    return remove;
                 });
             }
         });
@@ -118,7 +332,13 @@ public class AisViewDaemon extends AisStoreDaemon {
             
             @Override
             protected void runOneIteration() throws Exception {
-                targetTracker.removeAll(u -> !u.hasStaticInfo());
+                targetTracker.removeAll(u -> {
+                    if (!u.hasStaticInfo()) {
+                        evictedNoStatic.inc();
+                        return true;
+                    }
+                    return false;
+                });
             }
         });
         
@@ -127,16 +347,44 @@ public class AisViewDaemon extends AisStoreDaemon {
         // Start Ais Store Connection
         final CassandraConnection con = connect();
 
+        // Separate pools for the different kinds of requests
+        final RequestExecutors requestExecutors = new RequestExecutors(interactiveThreads, streamingThreads,
+                liveThreads, virtualThreads);
+        requestExecutors.registerMetrics(metrics);
+        JvmMetrics.register(metrics);
+
+        // Request logging and latencies, the access log is written by a background thread
+        final AccessLog accessLog = new AccessLog(16 * 1024);
+        start(accessLog);
+        final LatencyHistograms latencyHistograms = new LatencyHistograms();
+        latencyHistograms.registerMetrics(metrics);
+        metrics.collector("aisview_access_log_dropped_total", "The number of access log entries dropped",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", accessLog.getDropped()));
+        final StoreQueryMetrics storeQueryMetrics = new StoreQueryMetrics(metrics);
+
         WebServer ws = new WebServer(port);
+        ws.setAccessLog(accessLog);
+        ws.setLatencyHistograms(latencyHistograms);
         ws.getContext().setAttribute(
                 AbstractResource.CONFIG,
-                AbstractResource.create(g, con, targetTracker, cacheManager, jobManager));
+                AbstractResource.create(g, con, targetTracker, cacheManager, jobManager, liveSubscriptions,
+                        packetReplayBuffer, requestExecutors, latencyHistograms, metrics, storeQueryMetrics,
+                        liveTargetTable, viewTargetCache, trackerSnapshots));
+        ws.addEndpoint(LiveTargetEndpoint.config(targetUpdateHub));
 
         ws.start();
         LOG.info("AisView started");
         ws.join();
     }
 
+    /** Starts a server for NMEA produced in this process, and adds it to the sources read. */
+    private NmeaServer localSource(List<String> readerSources, String name, int port) throws IOException {
+        NmeaServer server = new NmeaServer(port);
+        start(server);
+        readerSources.add(name + "=localhost:" + server.getPort());
+        return server;
+    }
+
     @Override
     public void shutdown() {
         super.shutdown();
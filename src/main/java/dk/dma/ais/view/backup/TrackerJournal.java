@@ -0,0 +1,321 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.backup;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * An append-only journal of the packets applied to the tracker since the latest {@link TrackerSnapshot}. Packets are
+ * handed over by the ingest threads and written sequentially by a single thread, in the same length-prefixed form as
+ * in a snapshot, to segment files named journal-&lt;sequence&gt;.log. Data is forced to disk in batches, at most every
+ * sync interval.
+ * <p>
+ * A snapshot starts by rolling the journal over to a new segment. Every packet in the older segments was applied to
+ * the tracker before the snapshot started, so they can be deleted once the snapshot is complete. A restore loads the
+ * snapshot and then replays the remaining segments in order.
+ */
+public class TrackerJournal extends AbstractExecutionThreadService implements Consumer<AisPacket> {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(TrackerJournal.class);
+
+    /** The maximum number of packets written in one go. */
+    private static final int BATCH_SIZE = 1024;
+
+    /** The maximum length of a record, anything larger can only be the remains of a torn write. */
+    static final int MAX_RECORD = 64 * 1024;
+
+    private static final String PREFIX = "journal-";
+
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+
+    private final long syncMillis;
+
+    private final long segmentBytes;
+
+    private final BlockingQueue<AisPacket> queue;
+
+    /** The current segment, guarded by this. */
+    private FileChannel channel;
+
+    /** The sequence number of the current segment, guarded by this. */
+    private long segment;
+
+    /** The number of bytes written to the current segment, guarded by this. */
+    private long segmentSize;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder syncs = new LongAdder();
+
+    private final LongAdder stalls = new LongAdder();
+
+    /**
+     * @param directory
+     *            the backup directory
+     * @param syncMillis
+     *            the maximum time written packets are kept before they are forced to disk
+     * @param segmentBytes
+     *            the size at which a new segment is started
+     * @param capacity
+     *            the number of packets that can wait to be written
+     */
+    public TrackerJournal(Path directory, long syncMillis, long segmentBytes, int capacity) {
+        this.directory = requireNonNull(directory);
+        this.syncMillis = syncMillis;
+        this.segmentBytes = segmentBytes;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    /** Queues a packet that has been applied to the tracker, waiting if the queue is full. */
+    @Override
+    public void accept(AisPacket packet) {
+        if (!queue.offer(packet)) {
+            stalls.increment();
+            try {
+                queue.put(packet);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Passes every packet in the existing segments, oldest first, to the specified consumer. A record cut short by a
+     * crash, or with a length that cannot be valid, ends the segment it is in. Must be invoked before the journal is
+     * started.
+     *
+     * @return the number of packets replayed
+     */
+    public long replay(Consumer<AisPacket> consumer) throws IOException {
+        long count = 0;
+        for (Path p : segments().values()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p), 1 << 16))) {
+                byte[] bytes = new byte[256];
+                for (;;) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                        if (length < 0 || length > MAX_RECORD) {
+                            LOG.warn("Invalid record length " + length + " in " + p + ", skipping rest of segment");
+                            break;
+                        }
+                        if (bytes.length < length) {
+                            bytes = new byte[length];
+                        }
+                        in.readFully(bytes, 0, length);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    AisPacket packet = AisPacket.readFromString(new String(bytes, 0, length,
+                            StandardCharsets.US_ASCII));
+                    if (packet != null) {
+                        consumer.accept(packet);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forces the current segment to disk and starts a new one.
+     *
+     * @return the sequence number of the new segment, every packet in older segments was applied to the tracker
+     *         before this method was invoked
+     */
+    public synchronized long roll() throws IOException {
+        if (channel == null) {
+            // not running, every packet written so far is in the existing segments
+            return segment + 1;
+        }
+        openSegment(segment + 1);
+        return segment;
+    }
+
+    /** Deletes the segments older than the specified one. */
+    public void compact(long before) throws IOException {
+        for (Path p : segments().headMap(before).values()) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /** Returns the existing segments by sequence number. */
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())),
+                            p);
+                } catch (NumberFormatException ignore) {}
+            }
+        }
+        return segments;
+    }
+
+    /** Guarded by this. */
+    private void openSegment(long sequence) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            syncs.increment();
+        }
+        segment = sequence;
+        segmentSize = 0;
+        channel = FileChannel.open(directory.resolve(String.format("%s%016d%s", PREFIX, sequence, SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** Guarded by this. */
+    private void write(List<AisPacket> packets) throws IOException {
+        for (AisPacket p : packets) {
+            String raw = p.getStringMessage();
+            if (raw == null) {
+                continue;
+            }
+            byte[] bytes = TrackerSnapshot.withTimestamp(raw, p.getBestTimestamp()).getBytes(
+                    StandardCharsets.US_ASCII);
+            if (bytes.length > MAX_RECORD) {
+                continue; // would end the segment on replay, not a valid packet
+            }
+            if (buffer.remaining() < bytes.length + 4) {
+                drainBuffer();
+            }
+            if (buffer.remaining() < bytes.length + 4) {
+                continue; // larger than the buffer, not a valid packet
+            }
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        drainBuffer();
+        if (segmentSize >= segmentBytes) {
+            openSegment(segment + 1);
+        }
+    }
+
+    /** Guarded by this. */
+    private void drainBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            int n = channel.write(buffer);
+            segmentSize += n;
+            bytesWritten.add(n);
+        }
+        buffer.clear();
+    }
+
+    /** Exposes the amount of data written and the backlog of the journal in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.collector("aisview_journal_written_bytes_total", "The number of bytes written to the tracker journal",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", bytesWritten.sum()));
+        registry.collector("aisview_journal_syncs_total", "The number of times the tracker journal was forced to disk",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", syncs.sum()));
+        registry.collector("aisview_journal_stalls_total",
+                "The number of times an ingest thread had to wait because the journal queue was full",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", stalls.sum()));
+        registry.gauge("aisview_journal_queue_depth", "The number of packets waiting to be written to the journal",
+                () -> queue.size());
+        registry.gauge("aisview_journal_segment", "The sequence number of the current journal segment", () -> {
+            synchronized (this) {
+                return segment;
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void startUp() throws Exception {
+        TreeMap<Long, Path> existing = segments();
+        synchronized (this) {
+            openSegment(existing.isEmpty() ? 1 : existing.lastKey() + 1);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void run() throws Exception {
+        List<AisPacket> batch = new ArrayList<>(BATCH_SIZE);
+        long lastSync = System.nanoTime();
+        boolean dirty = false;
+        while (isRunning() || !queue.isEmpty()) {
+            AisPacket first = queue.poll(syncMillis, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                synchronized (this) {
+                    write(batch);
+                }
+                batch.clear();
+                dirty = true;
+            }
+            if (dirty && System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(syncMillis)) {
+                synchronized (this) {
+                    channel.force(false);
+                }
+                syncs.increment();
+                lastSync = System.nanoTime();
+                dirty = false;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void shutDown() throws Exception {
+        synchronized (this) {
+            List<AisPacket> pending = new ArrayList<>();
+            queue.drainTo(pending);
+            write(pending);
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+        syncs.increment();
+    }
+}
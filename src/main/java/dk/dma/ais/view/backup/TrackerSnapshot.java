@@ -0,0 +1,289 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+
+/**
+ * A binary snapshot of the targets of a {@link TargetTracker}, holding the raw packets of every target rather than
+ * decoded state.
+ * <p>
+ * The file starts with a fixed size header, followed by one record per target and an index of the records:
+ * 
+ * <pre>
+ * header:  long magic, int version, int targets, long created, long indexOffset
+ * record:  int mmsi, int packets, packets * (int length, length bytes of ASCII)
+ * index:   targets * long record offset
+ * </pre>
+ * 
+ * The file is written sequentially. It is loaded by memory mapping ranges of records and applying them to a tracker on
+ * several threads. A target is always loaded by a single thread, and its packets are applied oldest first. Packets are
+ * not decoded until the tracker needs them.
+ */
+public final class TrackerSnapshot {
+
+    /** "AISVSNAP" */
+    static final long MAGIC = 0x41495356534e4150L;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    /** The maximum number of bytes mapped by a single load task. */
+    private static final long MAX_TASK_BYTES = 1L << 30;
+
+    private TrackerSnapshot() {}
+
+    /**
+     * Writes the current targets of the specified tracker to the specified file. The snapshot is written to a
+     * temporary file first, which replaces the file once complete.
+     *
+     * @return the number of targets written
+     */
+    public static int write(TargetTracker tracker, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long created = System.currentTimeMillis();
+        long[] offsets = new long[1024];
+        int targets = 0;
+        long indexOffset;
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp), 1 << 16)); DataOutputStream out = new DataOutputStream(counter)) {
+            out.write(new byte[HEADER_SIZE]); // patched once the counts are known
+            for (TargetInfo ti : (Iterable<TargetInfo>) tracker.stream()::iterator) {
+                AisPacket[] packets = packetsOf(ti);
+                if (packets.length == 0) {
+                    continue;
+                }
+                if (targets == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, targets * 2);
+                }
+                offsets[targets++] = counter.count;
+                out.writeInt(ti.getMmsi());
+                out.writeInt(packets.length);
+                for (AisPacket p : packets) {
+                    byte[] bytes = withTimestamp(p.getStringMessage(), p.getBestTimestamp()).getBytes(
+                            StandardCharsets.US_ASCII);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            indexOffset = counter.count;
+            for (int i = 0; i < targets; i++) {
+                out.writeLong(offsets[i]);
+            }
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putInt(VERSION).putInt(targets).putLong(created).putLong(indexOffset).flip();
+            while (header.hasRemaining()) {
+                ch.write(header, header.position());
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return targets;
+    }
+
+    /**
+     * Loads the specified snapshot, passing every packet to the specified consumer, typically
+     * {@link TargetTracker#update(AisPacket)}. The consumer is invoked concurrently from the specified number of
+     * threads, but never concurrently for the same target.
+     *
+     * @return the number of packets loaded
+     */
+    public static long load(Path file, int threads, Consumer<AisPacket> consumer) throws Exception {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && ch.read(header) >= 0) {}
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+                throw new IOException(file + " is not a tracker snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tracker snapshot version " + version + " in " + file);
+            }
+            int targets = header.getInt();
+            header.getLong(); // created
+            long indexOffset = header.getLong();
+            if (targets < 0 || indexOffset < HEADER_SIZE || indexOffset + targets * 8L > ch.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            if (targets == 0) {
+                return 0;
+            }
+            long[] offsets = new long[targets + 1];
+            MappedByteBuffer index = ch.map(MapMode.READ_ONLY, indexOffset, targets * 8L);
+            index.asLongBuffer().get(offsets, 0, targets);
+            offsets[targets] = indexOffset;
+            // Check the index before loading anything, so a broken snapshot leaves the tracker untouched
+            for (int i = 0; i < targets; i++) {
+                if (offsets[i] < HEADER_SIZE || offsets[i] + 8 > offsets[i + 1]) {
+                    throw new IOException("Invalid record offset " + offsets[i] + " in the index of " + file);
+                }
+            }
+
+            // Split the records in ranges of whole targets, at least one per thread
+            List<int[]> ranges = new ArrayList<>();
+            int perTask = Math.max(1, targets / (threads * 4));
+            for (int from = 0; from < targets;) {
+                int to = Math.min(targets, from + perTask);
+                while (to > from + 1 && offsets[to] - offsets[from] > MAX_TASK_BYTES) {
+                    to = from + (to - from) / 2;
+                }
+                ranges.add(new int[] { from, to });
+                from = to;
+            }
+
+            AtomicLong packets = new AtomicLong();
+            ExecutorService e = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat(
+                    "snapshot-load-%d").setDaemon(true).build());
+            try {
+                List<Future<?>> futures = new ArrayList<>(ranges.size());
+                for (int[] r : ranges) {
+                    futures.add(e.submit(() -> {
+                        long start = offsets[r[0]];
+                        MappedByteBuffer b = ch.map(MapMode.READ_ONLY, start, offsets[r[1]] - start);
+                        packets.addAndGet(loadRecords(b, r[1] - r[0], consumer));
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } finally {
+                e.shutdownNow();
+            }
+            return packets.get();
+        }
+    }
+
+    private static long loadRecords(ByteBuffer b, int records, Consumer<AisPacket> consumer) {
+        long count = 0;
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < records; i++) {
+            b.getInt(); // mmsi
+            int packets = b.getInt();
+            for (int j = 0; j < packets; j++) {
+                int length = b.getInt();
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                b.get(bytes, 0, length);
+                AisPacket p = AisPacket.readFromString(new String(bytes, 0, length, StandardCharsets.US_ASCII));
+                if (p != null) {
+                    consumer.accept(p);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Returns the packets of a target, oldest first. */
+    private static AisPacket[] packetsOf(TargetInfo ti) {
+        AisPacket[] packets = ti.getPackets();
+        if (packets == null) {
+            return new AisPacket[0];
+        }
+        packets = Arrays.stream(packets).filter(p -> p != null && p.getStringMessage() != null)
+                .toArray(AisPacket[]::new);
+        Arrays.sort(packets, Comparator.comparingLong(AisPacket::getBestTimestamp));
+        return packets;
+    }
+
+    /**
+     * Makes sure the time a packet was received survives a round trip through its string representation, by adding
+     * it to the tag block of the packet if it does not already have a timestamp there.
+     */
+    static String withTimestamp(String raw, long timestamp) {
+        int sentence = raw.indexOf('!');
+        if (timestamp <= 0 || sentence < 0 || raw.lastIndexOf("c:", sentence) >= 0) {
+            return raw;
+        }
+        String c = "c:" + timestamp / 1000;
+        if (sentence > 0 && raw.charAt(sentence - 1) == '\\') {
+            // add it to the existing tag block
+            int start = raw.lastIndexOf('\\', sentence - 2);
+            int star = raw.lastIndexOf('*', sentence - 1);
+            if (start >= 0 && star > start) {
+                String tags = c + "," + raw.substring(start + 1, star);
+                return raw.substring(0, start) + "\\" + tags + "*" + checksum(tags) + raw.substring(sentence - 1);
+            }
+            return raw;
+        }
+        return raw.substring(0, sentence) + "\\" + c + "*" + checksum(c) + "\\" + raw.substring(sentence);
+    }
+
+    private static String checksum(String s) {
+        int c = 0;
+        for (int i = 0; i < s.length(); i++) {
+            c ^= s.charAt(i);
+        }
+        return String.format("%02X", c);
+    }
+
+    /** Keeps track of the number of bytes written, which is the offset of the next record. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
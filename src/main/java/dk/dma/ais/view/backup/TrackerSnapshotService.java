@@ -0,0 +1,165 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.backup;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * Periodically writes a {@link TrackerSnapshot} of a tracker to a backup directory, and once more when stopped. The
+ * latest snapshot is loaded back into the tracker by {@link #restore()}, which must be invoked before the tracker
+ * starts receiving live packets.
+ */
+public class TrackerSnapshotService extends AbstractScheduledService {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(TrackerSnapshotService.class);
+
+    /** The name of the snapshot file in the backup directory. */
+    public static final String FILE_NAME = "tracker.snapshot";
+
+    private final TargetTracker tracker;
+
+    private final Path file;
+
+    private final long intervalSeconds;
+
+    private final int restoreThreads;
+
+    /** The journal of packets applied since the latest snapshot, or null. */
+    private final TrackerJournal journal;
+
+    private volatile int lastTargets;
+
+    private volatile long lastBytes;
+
+    private volatile double lastSeconds;
+
+    private volatile long lastCompleted;
+
+    /**
+     * @param tracker
+     *            the tracker to snapshot
+     * @param directory
+     *            the backup directory
+     * @param intervalSeconds
+     *            how often a snapshot is written
+     * @param restoreThreads
+     *            the number of threads applying the snapshot to the tracker when restoring
+     * @param journal
+     *            the journal replayed after the snapshot and compacted once a new snapshot is written, or null
+     */
+    public TrackerSnapshotService(TargetTracker tracker, Path directory, long intervalSeconds, int restoreThreads,
+            TrackerJournal journal) {
+        this.tracker = requireNonNull(tracker);
+        this.file = directory.resolve(FILE_NAME);
+        this.intervalSeconds = intervalSeconds;
+        this.restoreThreads = Math.max(1, restoreThreads);
+        this.journal = journal;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Loads the latest snapshot, if any, into the tracker and replays the journal on top of it. A snapshot or journal
+     * that cannot be read is logged and ignored.
+     */
+    public void restore() {
+        long start = System.nanoTime();
+        if (!Files.exists(file)) {
+            LOG.info("No tracker snapshot at " + file);
+        } else {
+            try {
+                long packets = TrackerSnapshot.load(file, restoreThreads, tracker::update);
+                LOG.info("Restored " + packets + " packets of " + tracker.size() + " targets from " + file + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            } catch (Exception e) {
+                LOG.error("Could not restore the tracker from " + file, e);
+            }
+        }
+        if (journal != null) {
+            start = System.nanoTime();
+            try {
+                long packets = journal.replay(tracker::update);
+                LOG.info("Replayed " + packets + " packets from the tracker journal in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            } catch (Exception e) {
+                LOG.error("Could not replay the tracker journal", e);
+            }
+        }
+    }
+
+    /** Writes a snapshot now. */
+    public synchronized void snapshot() throws Exception {
+        long start = System.nanoTime();
+        long segment = journal == null ? 0 : journal.roll();
+        int targets = TrackerSnapshot.write(tracker, file);
+        if (journal != null) {
+            journal.compact(segment);
+        }
+        lastSeconds = (System.nanoTime() - start) / 1e9;
+        lastTargets = targets;
+        lastBytes = Files.size(file);
+        lastCompleted = System.currentTimeMillis();
+        LOG.debug("Wrote snapshot of " + targets + " targets to " + file + " in " + lastSeconds + " s");
+    }
+
+    /** Exposes the outcome of the latest snapshot in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("aisview_snapshot_targets", "The number of targets in the latest tracker snapshot",
+                () -> lastTargets);
+        registry.gauge("aisview_snapshot_bytes", "The size of the latest tracker snapshot", () -> lastBytes);
+        registry.gauge("aisview_snapshot_duration_seconds", "The time it took to write the latest tracker snapshot",
+                () -> lastSeconds);
+        registry.gauge("aisview_snapshot_last_completed_seconds",
+                "When the latest tracker snapshot was completed, in seconds since the epoch",
+                () -> lastCompleted / 1000d);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void runOneIteration() throws Exception {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            LOG.error("Could not write tracker snapshot to " + file, e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void shutDown() throws Exception {
+        snapshot();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
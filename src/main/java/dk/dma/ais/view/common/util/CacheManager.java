@@ -20,13 +20,43 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 import dk.dma.ais.data.IPastTrack;
+import dk.dma.ais.view.metrics.MetricsRegistry;
 
 public class CacheManager {    
     private final Cache<Integer, IPastTrack> pastTrackCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(30, TimeUnit.MINUTES).maximumSize(100).build();
+            .expireAfterWrite(30, TimeUnit.MINUTES).maximumSize(100).recordStats().build();
+
+    /**
+     * Serialized responses of map polls by their normalized parameters. Entries live for one tick of the tracker
+     * snapshots, concurrent requests for a missing entry wait for the first one to compute it.
+     */
+    private final Cache<String, CachedResponse> responseCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.SECONDS).maximumWeight(64 * 1024 * 1024)
+            .weigher((String key, CachedResponse value) -> value.getSize()).recordStats().build();
 
     public Cache<Integer, IPastTrack> getPastTrackCache() {
         return pastTrackCache;
     }
 
+    public Cache<String, CachedResponse> getResponseCache() {
+        return responseCache;
+    }
+
+    /** Exposes the statistics of the caches in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registerMetrics(registry, "past_track", pastTrackCache);
+        registerMetrics(registry, "response", responseCache);
+    }
+
+    private static void registerMetrics(MetricsRegistry registry, String name, Cache<?, ?> cache) {
+        registry.collector("aisview_cache_hits_total", "The number of cache hits", MetricsRegistry.Type.COUNTER,
+                s -> s.sample("", cache.stats().hitCount(), "cache", name));
+        registry.collector("aisview_cache_misses_total", "The number of cache misses", MetricsRegistry.Type.COUNTER,
+                s -> s.sample("", cache.stats().missCount(), "cache", name));
+        registry.collector("aisview_cache_evictions_total", "The number of entries evicted from the cache",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", cache.stats().evictionCount(), "cache", name));
+        registry.gauge("aisview_cache_hit_ratio", "The ratio of cache lookups that were hits",
+                () -> cache.stats().hitRate(), "cache", name);
+    }
+
 }
@@ -0,0 +1,84 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A response serialized once and shared by every request asking for it, both as is and gzipped, so neither
+ * serialization nor compression is repeated per request. As the response is only compressed once, the strongest
+ * compression is used.
+ */
+public final class CachedResponse {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String mediaType;
+
+    private final String etag;
+
+    private final byte[] bytes;
+
+    private final byte[] gzip;
+
+    private CachedResponse(String mediaType, String etag, byte[] bytes, byte[] gzip) {
+        this.mediaType = mediaType;
+        this.etag = etag;
+        this.bytes = bytes;
+        this.gzip = gzip;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /** Returns the value of the entity tag of the response, or null if it has none. */
+    public String getETag() {
+        return etag;
+    }
+
+    /** Returns the response, must not be modified. */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /** Returns the response gzipped, must not be modified. */
+    public byte[] getGzip() {
+        return gzip;
+    }
+
+    /** Returns the number of bytes held by the response. */
+    public int getSize() {
+        return bytes.length + gzip.length;
+    }
+
+    /** Serializes an entity as JSON. */
+    public static CachedResponse create(Object entity, String etag) throws IOException {
+        return create("application/json", MAPPER.writeValueAsBytes(entity), etag);
+    }
+
+    /** Creates a response of an entity already serialized. */
+    public static CachedResponse create(String mediaType, byte[] bytes, String etag) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream os = Compression.gzip(bos, Compression.STRONG)) {
+            os.write(bytes);
+        }
+        return new CachedResponse(mediaType, etag, bytes, bos.toByteArray());
+    }
+}
@@ -0,0 +1,68 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.common.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of responses. The level is chosen per kind of response, trading CPU time for bandwidth.
+ */
+public final class Compression {
+
+    /** For live streams and exports, which must keep up with the data they write. */
+    public static final int FAST = Deflater.BEST_SPEED;
+
+    /** For ordinary responses. */
+    public static final int DEFAULT = 6;
+
+    /** For cached responses, which are compressed once and sent many times. */
+    public static final int STRONG = Deflater.BEST_COMPRESSION;
+
+    private Compression() {}
+
+    /**
+     * Returns a stream gzipping to the specified stream. Flushing the returned stream flushes all data written so far,
+     * so a client of a live stream receives every batch when it is flushed.
+     */
+    public static GZIPOutputStream gzip(OutputStream os, int level) throws IOException {
+        return new GZIPOutputStream(os, 8192, true) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * Returns whether gzip is accepted by the values of the Accept-Encoding headers of a request, that is whether it
+     * is listed without a quality of zero. The values may be null.
+     */
+    public static boolean acceptsGzip(List<String> acceptEncoding) {
+        if (acceptEncoding != null) {
+            for (String value : acceptEncoding) {
+                for (String coding : value.split(",")) {
+                    String[] p = coding.trim().split(";");
+                    if (p[0].trim().equalsIgnoreCase("gzip")) {
+                        return p.length == 1 || !p[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -35,6 +35,8 @@ import dk.dma.ais.view.rest.VesselListFilter;
 import dk.dma.ais.view.rest.json.VesselCluster;
 import dk.dma.ais.view.rest.json.VesselClusterJsonRepsonse;
 import dk.dma.ais.view.rest.json.VesselList;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.TableFilter;
 import dk.dma.db.cassandra.CassandraConnection;
 import dk.dma.enav.model.Country;
 import dk.dma.enav.model.geometry.BoundingBox;
@@ -43,6 +45,8 @@ import dk.dma.enav.model.geometry.Position;
 import org.apache.log4j.Logger;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -50,8 +54,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
 
 /**
@@ -271,19 +275,9 @@ public class AisViewHelper {
                 long cellId = grid.getCellId(pos.getLatitude(),
                         pos.getLongitude());
 
-                // Only create vessel cluster if new
-                if (map.containsKey(cellId)) {
-
-                    map.get(cellId).incrementCount();
-
-                    if (map.get(cellId).getCount() < limit) {
-                        map.get(cellId).getVessels()
-                                .addTarget(target, target.getMmsi());
-                    }
-
-                } else {
-
-                    Position from = grid.getGeoPosOfCellId(cellId);
+                // Only create vessel cluster if new, atomically as targets are visited in parallel
+                VesselCluster cluster = map.computeIfAbsent(cellId, id -> {
+                    Position from = grid.getGeoPosOfCellId(id);
 
                     double toLon = from.getLongitude()
                             + grid.getCellSizeInDegrees();
@@ -291,43 +285,72 @@ public class AisViewHelper {
                             + grid.getCellSizeInDegrees();
                     Position to = Position.create(toLat, toLon);
 
-                    VesselCluster cluster = new VesselCluster(from, to, 1,
-                            new VesselList());
-                    map.put(cellId, cluster);
-                    map.get(cellId).getVessels()
-                            .addTarget(target, target.getMmsi());
-                    
+                    return new VesselCluster(from, to, 0, new VesselList());
+                });
+                int n = cluster.incrementCount();
+
+                if (n == 1 || n < limit) {
+                    cluster.getVessels().addTarget(target, target.getMmsi());
                 }
 
             }
         });
         
         
-        // Calculate density
-        map.forEach(new BiConsumer<Long,VesselCluster>() {
-            @Override
-            public void accept(Long t, VesselCluster c) {
-                Position from = Position.create(c.getFrom().getLatitude(), c
-                        .getFrom().getLongitude());
-                Position to = Position.create(c.getTo().getLatitude(), c.getTo()
-                        .getLongitude());
-                Position topRight = Position.create(from.getLatitude(),
-                        to.getLongitude());
-                Position botLeft = Position.create(to.getLatitude(),
-                        from.getLongitude());
-                double width = from.geodesicDistanceTo(topRight) / 1000;
-                double height = from.geodesicDistanceTo(botLeft) / 1000;
-                double areaSize = width * height;
-                double density = (double) c.getCount() / areaSize;
-                c.setDensity(density);
-            }
-        });
+        setDensities(map.values());
         
         return new VesselClusterJsonRepsonse(requestId, map.values(), inWorld);
         
         
     }
 
+    /**
+     * Returns a list of vessel clusters of the targets of a {@link LiveTargetTable} accepted by a filter. Clusters are
+     * counted from the table alone, only the listed vessels of each cluster are looked up with targets, which returns
+     * null for vessels to leave out.
+     */
+    public VesselClusterJsonRepsonse getClusterResponse(LiveTargetTable table, TableFilter filter,
+            IntFunction<TargetInfo> targets, int requestId, int limit, double size, Integer inWorld) {
+        Grid grid = GridFactory.getInstance().getGrid(size);
+        Map<Long, VesselCluster> map = new HashMap<>();
+        table.forEach(filter, (mmsi, latE7, lonE7) -> {
+            long cellId = grid.getCellId(latE7 / 1e7, lonE7 / 1e7);
+            VesselCluster cluster = map.get(cellId);
+            if (cluster == null) {
+                Position from = grid.getGeoPosOfCellId(cellId);
+                Position to = Position.create(from.getLatitude() + grid.getCellSizeInDegrees(), from.getLongitude()
+                        + grid.getCellSizeInDegrees());
+                cluster = new VesselCluster(from, to, 1, new VesselList());
+                map.put(cellId, cluster);
+            } else {
+                if (cluster.incrementCount() >= limit) {
+                    return;
+                }
+            }
+            TargetInfo target = targets.apply(mmsi);
+            if (target != null) {
+                cluster.getVessels().addTarget(target, mmsi);
+            }
+        });
+        setDensities(map.values());
+        return new VesselClusterJsonRepsonse(requestId, map.values(), inWorld);
+    }
+
+    /** Calculates the density of each cluster in vessels per square kilometer. */
+    private void setDensities(Collection<VesselCluster> clusters) {
+        for (VesselCluster c : clusters) {
+            Position from = Position.create(c.getFrom().getLatitude(), c.getFrom().getLongitude());
+            Position to = Position.create(c.getTo().getLatitude(), c.getTo().getLongitude());
+            Position topRight = Position.create(from.getLatitude(), to.getLongitude());
+            Position botLeft = Position.create(to.getLatitude(), from.getLongitude());
+            double width = from.geodesicDistanceTo(topRight) / 1000;
+            double height = from.geodesicDistanceTo(botLeft) / 1000;
+            double areaSize = width * height;
+            double density = (double) c.getCount() / areaSize;
+            c.setDensity(density);
+        }
+    }
+
    
     /**
      * Get simple list of anonymous targets that matches the search criteria.
@@ -0,0 +1,214 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.ingest;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * Recognizes packets whose sentences have already been received within a time window, typically the same message
+ * relayed by several base stations and by satellite.
+ * <p>
+ * A packet is identified by a 64-bit hash of the payloads and fill bits of its sentences, computed directly on the raw
+ * packet without creating any objects. Tag blocks, channels, sequence ids and checksums are ignored, as they differ
+ * between sources. The hashes are kept in two fixed size open addressing tables, one for each half of the window. When
+ * the current table is half a window old, or more than 3/4 full, it becomes the previous table and the old previous
+ * table is cleared. Memory is bounded by the capacity, under heavy load the effective window shrinks instead. Two
+ * different messages colliding on all 64 bits is possible but negligible.
+ */
+public class DuplicateFilter {
+
+    /** The maximum number of sources counted separately, to bound the number of time series. */
+    static final int MAX_SOURCES = 100;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long halfWindowNanos;
+
+    private final int mask;
+
+    private final int maxLoad;
+
+    /** Guarded by this. */
+    private long[] current;
+
+    /** Guarded by this. */
+    private long[] previous;
+
+    /** Guarded by this. */
+    private int size;
+
+    /** Guarded by this. */
+    private long rotated = System.nanoTime();
+
+    private final LongAdder earlyRotations = new LongAdder();
+
+    /** The received and duplicate counters by source id. */
+    private final ConcurrentHashMap<String, LongAdder[]> sources = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowMillis
+     *            how long a message is remembered
+     * @param capacity
+     *            the number of messages remembered per half window, rounded up to a power of two
+     */
+    public DuplicateFilter(long windowMillis, int capacity) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("The window must be positive, was " + windowMillis);
+        }
+        int tableSize = Integer.highestOneBit(Math.max(16, capacity + capacity / 3 - 1)) << 1;
+        this.halfWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis) / 2;
+        this.mask = tableSize - 1;
+        this.maxLoad = tableSize / 4 * 3;
+        this.current = new long[tableSize];
+        this.previous = new long[tableSize];
+    }
+
+    /**
+     * Returns whether the packet has already been seen within the window, remembering it if not. The packet is
+     * counted for its source either way.
+     */
+    public boolean isDuplicate(AisPacket packet) {
+        long hash = hash(packet.getStringMessage());
+        boolean duplicate = hash != 0 && seen(hash);
+        String source = packet.getTags() == null ? null : packet.getTags().getSourceId();
+        LongAdder[] c = counters(source == null ? "unknown" : source);
+        c[0].increment();
+        if (duplicate) {
+            c[1].increment();
+        }
+        return duplicate;
+    }
+
+    private synchronized boolean seen(long hash) {
+        long now = System.nanoTime();
+        if (now - rotated >= halfWindowNanos) {
+            rotate(now);
+        }
+        if (contains(previous, hash)) {
+            return true;
+        }
+        int i = index(hash);
+        for (long h = current[i]; h != 0; h = current[i]) {
+            if (h == hash) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        current[i] = hash;
+        if (++size > maxLoad) {
+            earlyRotations.increment();
+            rotate(now);
+        }
+        return false;
+    }
+
+    private boolean contains(long[] table, long hash) {
+        for (int i = index(hash); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int index(long hash) {
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+    private void rotate(long now) {
+        long[] t = previous;
+        previous = current;
+        Arrays.fill(t, 0);
+        current = t;
+        size = 0;
+        rotated = now;
+    }
+
+    /**
+     * Returns a hash of the payloads and fill bits of all !xxVDM and !xxVDO sentences of the specified raw packet, or 0
+     * if there are none.
+     */
+    static long hash(String raw) {
+        if (raw == null) {
+            return 0;
+        }
+        long h = FNV_OFFSET;
+        boolean found = false;
+        int len = raw.length();
+        for (int i = 0; i < len; i++) {
+            char c = raw.charAt(i);
+            if (c == '\\') {
+                // skip the tag block, it holds the source and the time of reception
+                int end = raw.indexOf('\\', i + 1);
+                i = end < 0 ? len : end;
+            } else if (c == '!') {
+                // !AIVDM,count,number,id,channel,payload,fill*checksum
+                int commas = 0;
+                for (i++; i < len && (c = raw.charAt(i)) != '*' && c != '\r' && c != '\n'; i++) {
+                    if (c == ',') {
+                        commas++;
+                    } else if (commas >= 5) {
+                        h = (h ^ c) * FNV_PRIME;
+                    }
+                }
+                h = (h ^ '|') * FNV_PRIME;
+                found = true;
+            }
+        }
+        if (!found) {
+            return 0;
+        }
+        // FNV has poor avalanche in the low bits, finish with the MurmurHash3 mixer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private LongAdder[] counters(String source) {
+        LongAdder[] c = sources.get(source);
+        if (c == null) {
+            String s = sources.size() >= MAX_SOURCES ? "other" : source;
+            c = sources.computeIfAbsent(s, k -> new LongAdder[] { new LongAdder(), new LongAdder() });
+        }
+        return c;
+    }
+
+    /** Exposes the number and share of duplicates per source in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.collector("aisview_ingest_duplicates_total",
+                "The number of packets dropped because the same message was received shortly before",
+                MetricsRegistry.Type.COUNTER, s -> sources.forEach((k, v) -> s.sample("", v[1].sum(), "source", k)));
+        registry.collector("aisview_ingest_duplicate_ratio",
+                "The share of the packets received from a source that were duplicates", MetricsRegistry.Type.GAUGE,
+                s -> sources.forEach((k, v) -> {
+                    long received = v[0].sum();
+                    s.sample("", received == 0 ? 0 : (double) v[1].sum() / received, "source", k);
+                }));
+        registry.collector("aisview_ingest_duplicate_filter_early_rotations_total",
+                "The number of times the duplicate filter was full before half the window had passed",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", earlyRotations.sum()));
+    }
+}
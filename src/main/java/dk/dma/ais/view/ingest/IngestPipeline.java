@@ -0,0 +1,273 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.ingest;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketStream;
+import dk.dma.ais.packet.AisPacketStream.Subscription;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * Decodes packets and applies them to the {@link TargetTracker} on several worker threads. Packets are sharded by
+ * MMSI, which is read directly from the raw sentence, so all packets of a vessel are handled by the same worker in the
+ * order they were received.
+ * <p>
+ * Each worker has a bounded queue. When a queue is full the delivering thread waits, so a burst slows down the readers
+ * instead of growing the heap. Listeners added with {@link #subscribe(Consumer)} are invoked by the workers after the
+ * tracker has been updated, concurrently from different workers.
+ */
+public class IngestPipeline extends AbstractIdleService {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(IngestPipeline.class);
+
+    /** The maximum number of packets a worker takes from its queue in one go. */
+    private static final int BATCH_SIZE = 256;
+
+    private final TargetTracker tracker;
+
+    private final Worker[] workers;
+
+    private final List<Consumer<? super AisPacket>> listeners = new CopyOnWriteArrayList<>();
+
+    /** The number of times the delivering thread had to wait for a full queue. */
+    private final LongAdder stalls = new LongAdder();
+
+    private final LongAdder stalledNanos = new LongAdder();
+
+    /**
+     * @param tracker
+     *            the tracker to update
+     * @param threads
+     *            the number of worker threads
+     * @param capacity
+     *            the number of packets that can be queued for each worker
+     */
+    public IngestPipeline(TargetTracker tracker, int threads, int capacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required, was " + threads);
+        }
+        this.tracker = requireNonNull(tracker);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(capacity);
+        }
+    }
+
+    /** Subscribes to the specified stream. */
+    public Subscription subscribeTo(AisPacketStream stream) {
+        return stream.subscribe(this::accept);
+    }
+
+    /** Adds a listener invoked with every packet once it has been applied to the tracker. */
+    public void subscribe(Consumer<? super AisPacket> listener) {
+        listeners.add(requireNonNull(listener));
+    }
+
+    /** Queues a packet for its worker, waiting if the queue is full. */
+    public void accept(AisPacket packet) {
+        BlockingQueue<AisPacket> queue = workers[shard(packet)].queue;
+        if (!queue.offer(packet)) {
+            long start = System.nanoTime();
+            try {
+                queue.put(packet);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stalls.increment();
+            stalledNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private int shard(AisPacket packet) {
+        int mmsi = mmsi(packet.getStringMessage());
+        return (mmsi & Integer.MAX_VALUE) % workers.length;
+    }
+
+    /**
+     * Returns the MMSI of the first !xxVDM or !xxVDO sentence of the specified raw packet, without decoding the
+     * message, or 0 if there is none.
+     */
+    public static int mmsi(String raw) {
+        if (raw == null) {
+            return 0;
+        }
+        int vdm = raw.indexOf("VDM,");
+        if (vdm < 0) {
+            vdm = raw.indexOf("VDO,");
+            if (vdm < 0) {
+                return 0;
+            }
+        }
+        // Skip the fragment count, fragment number, sequential message id and channel
+        int payload = vdm + 4;
+        for (int i = 0; i < 4; i++) {
+            payload = raw.indexOf(',', payload) + 1;
+            if (payload == 0) {
+                return 0;
+            }
+        }
+        if (payload + 7 > raw.length()) {
+            return 0;
+        }
+        // The MMSI is bit 8 to 37, that is within the 2nd to 7th 6-bit character
+        long bits = 0;
+        for (int i = payload + 1; i < payload + 7; i++) {
+            int c = raw.charAt(i) - 48;
+            if (c >= 48) {
+                c -= 8;
+            } else if (c >= 40) {
+                return 0;
+            }
+            if (c < 0 || c > 63) {
+                return 0;
+            }
+            bits = bits << 6 | c;
+        }
+        return (int) (bits >> 4 & 0x3FFFFFFF);
+    }
+
+    /** Returns the number of packets queued for all workers. */
+    public int getQueued() {
+        int queued = 0;
+        for (Worker w : workers) {
+            queued += w.queue.size();
+        }
+        return queued;
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    /** Exposes the queue depths, throughput and stalls of the pipeline in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        for (int i = 0; i < workers.length; i++) {
+            Worker w = workers[i];
+            String worker = Integer.toString(i);
+            registry.gauge("aisview_ingest_queue_depth", "The number of packets waiting to be applied to the tracker",
+                    () -> w.queue.size(), "worker", worker);
+        }
+        registry.collector("aisview_ingest_processed_total", "The number of packets applied to the tracker",
+                MetricsRegistry.Type.COUNTER, s -> {
+                    for (int i = 0; i < workers.length; i++) {
+                        s.sample("", workers[i].processed.sum(), "worker", Integer.toString(i));
+                    }
+                });
+        registry.gauge("aisview_ingest_queue_capacity", "The number of packets that can be queued per worker",
+                () -> workers[0].capacity);
+        registry.collector("aisview_ingest_stalls_total",
+                "The number of times a reader had to wait because an ingest queue was full",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", stalls.sum()));
+        registry.collector("aisview_ingest_stalled_seconds_total",
+                "The time readers have spent waiting for full ingest queues", MetricsRegistry.Type.COUNTER,
+                s -> s.sample("", stalledNanos.sum() / 1e9));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void startUp() throws Exception {
+        ThreadFactoryBuilder b = new ThreadFactoryBuilder().setNameFormat("ingest-%d").setDaemon(true);
+        for (Worker w : workers) {
+            w.thread = b.build().newThread(w);
+            w.thread.start();
+        }
+        LOG.info("Applying packets to the tracker with " + workers.length + " threads");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void shutDown() throws Exception {
+        for (Worker w : workers) {
+            w.running = false;
+            w.thread.interrupt();
+        }
+        for (Worker w : workers) {
+            w.thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String serviceName() {
+        return "IngestPipeline";
+    }
+
+    private final class Worker implements Runnable {
+
+        final int capacity;
+
+        final BlockingQueue<AisPacket> queue;
+
+        final LongAdder processed = new LongAdder();
+
+        volatile boolean running = true;
+
+        Thread thread;
+
+        Worker(int capacity) {
+            this.capacity = capacity;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            List<AisPacket> batch = new ArrayList<>(BATCH_SIZE);
+            while (running) {
+                try {
+                    AisPacket first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                } catch (InterruptedException e) {
+                    continue; // check whether we are still running
+                }
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (AisPacket p : batch) {
+                    try {
+                        tracker.update(p); // decodes the packet
+                        for (Consumer<? super AisPacket> l : listeners) {
+                            l.accept(p);
+                        }
+                    } catch (RuntimeException e) {
+                        LOG.warn("Could not apply packet " + p.getStringMessage(), e);
+                    }
+                }
+                processed.add(batch.size());
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects output in memory and pushes it to the client once either a size or a latency threshold is reached. This
+ * replaces flushing after every line, which costs a syscall and a TCP push per packet.
+ * <p>
+ * Not thread safe, it is meant to be used by the single thread writing to a client.
+ */
+public class BatchingWriter {
+
+    private final OutputStream out;
+
+    private final ByteArrayOutputStream buffer;
+
+    private final int flushBytes;
+
+    private final long flushNanos;
+
+    /** The time of the oldest unflushed write, only valid if the buffer is non-empty. */
+    private long firstPendingNanos;
+
+    private long bytesWritten;
+
+    /**
+     * @param out
+     *            the stream to write to
+     * @param flushBytes
+     *            flush once this many bytes are pending
+     * @param flushMillis
+     *            flush once the oldest pending byte is this old
+     */
+    public BatchingWriter(OutputStream out, int flushBytes, long flushMillis) {
+        this.out = requireNonNull(out);
+        this.flushBytes = Math.max(1, flushBytes);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushMillis));
+        this.buffer = new ByteArrayOutputStream(Math.min(this.flushBytes + 1024, 1 << 20));
+    }
+
+    /**
+     * Returns the stream new output should be written to. {@link #afterWrite()} must be invoked after each logical
+     * record has been written.
+     */
+    public OutputStream buffer() {
+        return buffer;
+    }
+
+    /** Flushes if the size threshold has been reached. */
+    public void afterWrite() throws IOException {
+        if (buffer.size() > 0 && firstPendingNanos == 0) {
+            firstPendingNanos = System.nanoTime() | 1; // never 0
+        }
+        if (buffer.size() >= flushBytes) {
+            flush();
+        }
+    }
+
+    /** Flushes if the oldest pending output is older than the latency threshold. */
+    public void flushIfDue() throws IOException {
+        if (buffer.size() > 0 && System.nanoTime() - firstPendingNanos >= flushNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns how long the caller may wait for new data before {@link #flushIfDue()} must be invoked.
+     *
+     * @param idleNanos
+     *            the time to return if nothing is pending
+     */
+    public long nanosUntilDue(long idleNanos) {
+        if (buffer.size() == 0) {
+            return idleNanos;
+        }
+        return Math.max(0, firstPendingNanos + flushNanos - System.nanoTime());
+    }
+
+    /** Writes any pending output to the client and flushes it. */
+    public void flush() throws IOException {
+        if (buffer.size() > 0) {
+            bytesWritten += buffer.size();
+            buffer.writeTo(out);
+            buffer.reset();
+            firstPendingNanos = 0;
+        }
+        out.flush();
+    }
+
+    /** Returns the number of bytes handed to the client so far. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,207 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A single client of a live stream. Elements are handed over by the delivering thread through {@link #accept(Object)}
+ * into a bounded {@link SubscriberQueue}, and written to the client by the request thread in
+ * {@link #writeTo(OutputStream)}.
+ */
+public abstract class LiveSubscription<E> implements Consumer<E> {
+
+    /** The maximum number of elements moved from the queue in one go. */
+    private static final int BATCH_SIZE = 256;
+
+    /** How long to wait for data when nothing is pending, before checking whether the subscription is still alive. */
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * If the user has an expression such as source=id=SDFWER we will never return any data to the client. Therefore we
+     * will never try to write to the socket and never figure out that it has been closed. Instead we close the
+     * connection if nothing has been written for this long.
+     */
+    private static final long MAX_IDLE_NANOS = TimeUnit.DAYS.toNanos(1);
+
+    private final long id;
+
+    private final String request;
+
+    private final long created = System.currentTimeMillis();
+
+    private final SubscriberQueue<E> queue;
+
+    private final int flushBytes;
+
+    private final long flushMillis;
+
+    private volatile long delivered;
+
+    private volatile long bytesWritten;
+
+    /**
+     * @param id
+     *            the id of the subscription, see {@link LiveSubscriptions#nextId()}
+     * @param request
+     *            a description of the request, typically the request URI
+     * @param capacity
+     *            the number of elements that can be queued for the client
+     * @param policy
+     *            what to do when the queue is full
+     * @param flushBytes
+     *            flush to the client once this many bytes are pending
+     * @param flushMillis
+     *            flush to the client once the oldest pending byte is this old
+     */
+    protected LiveSubscription(long id, String request, int capacity, OverflowPolicy policy, int flushBytes,
+            long flushMillis) {
+        this.id = id;
+        this.request = requireNonNull(request);
+        this.queue = new SubscriberQueue<>(capacity, policy);
+        this.flushBytes = flushBytes;
+        this.flushMillis = flushMillis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void accept(E element) {
+        queue.offer(element);
+    }
+
+    /** Writes anything that must precede the first element. */
+    protected void header(OutputStream os) throws IOException {}
+
+    /**
+     * Returns elements that must be written before any queued element, for example to let a reconnecting client catch
+     * up. Invoked once, after the header has been written.
+     */
+    protected Collection<E> backlog() {
+        return Collections.emptyList();
+    }
+
+    /** Writes a single element, count is the number of elements written so far including this one. */
+    protected abstract void write(OutputStream os, E element, long count) throws IOException;
+
+    /** Writes anything that must follow the last element. */
+    protected void footer(OutputStream os, long count) throws IOException {}
+
+    /** Invoked when no data has arrived for a while, while nothing is pending. */
+    protected void idle(OutputStream os, long idleNanos) throws IOException {}
+
+    /** Returns whether the source of elements has cancelled the subscription, for example because of a limit. */
+    protected abstract boolean isCancelled();
+
+    /** Detaches the subscription from its source. */
+    protected abstract void cancel();
+
+    /**
+     * Writes queued elements to the client until the subscription is cancelled, the client disconnects, or the queue is
+     * closed by the {@link OverflowPolicy#DISCONNECT} policy.
+     */
+    public final void writeTo(OutputStream os) throws IOException {
+        BatchingWriter w = new BatchingWriter(os, flushBytes, flushMillis);
+        List<E> batch = new ArrayList<>(BATCH_SIZE);
+        long lastData = System.nanoTime();
+        try {
+            header(w.buffer());
+            w.flush(); // let the client know we are alive
+            for (E e : backlog()) {
+                write(w.buffer(), e, ++delivered);
+                w.afterWrite();
+            }
+            for (;;) {
+                int n = queue.drainTo(batch, BATCH_SIZE, w.nanosUntilDue(IDLE_NANOS), TimeUnit.NANOSECONDS);
+                if (n < 0) {
+                    break; // disconnected because the client could not keep up
+                }
+                for (E e : batch) {
+                    write(w.buffer(), e, ++delivered);
+                    w.afterWrite();
+                }
+                batch.clear();
+                w.flushIfDue();
+                bytesWritten = w.getBytesWritten();
+                if (n > 0) {
+                    lastData = System.nanoTime();
+                } else if (isCancelled()) {
+                    break;
+                } else if (System.nanoTime() - lastData > MAX_IDLE_NANOS) {
+                    break;
+                } else {
+                    idle(w.buffer(), System.nanoTime() - lastData);
+                    w.afterWrite();
+                }
+            }
+            footer(w.buffer(), delivered);
+            w.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            bytesWritten = w.getBytesWritten();
+            queue.close();
+            cancel();
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getRequest() {
+        return request;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public String getPolicy() {
+        return queue.getPolicy().name().toLowerCase();
+    }
+
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getOffered() {
+        return queue.getOffered();
+    }
+
+    public long getDropped() {
+        return queue.getDropped();
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * Keeps track of the currently open live stream subscriptions.
+ */
+public class LiveSubscriptions {
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final ConcurrentSkipListMap<Long, LiveSubscription<?>> subscriptions = new ConcurrentSkipListMap<>();
+
+    /** The number of elements dropped by subscriptions that have been removed. */
+    private final LongAdder droppedByRemoved = new LongAdder();
+
+    /** Returns the id to use for a new subscription. */
+    public long nextId() {
+        return ids.incrementAndGet();
+    }
+
+    /**
+     * Registers a subscription. The subscription must be removed with {@link #remove(LiveSubscription)} once the client
+     * is gone.
+     */
+    public void add(LiveSubscription<?> subscription) {
+        subscriptions.put(subscription.getId(), subscription);
+    }
+
+    public void remove(LiveSubscription<?> subscription) {
+        if (subscriptions.remove(subscription.getId()) != null) {
+            droppedByRemoved.add(subscription.getDropped());
+        }
+    }
+
+    /** Returns the open subscriptions ordered by id. */
+    public Collection<LiveSubscription<?>> list() {
+        return new ArrayList<>(subscriptions.values());
+    }
+
+    /** Exposes the number of subscriptions and the state of their queues in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("aisview_live_subscriptions", "The number of open live streams", () -> subscriptions.size());
+        registry.gauge("aisview_live_queued", "The number of elements queued for live stream clients",
+                () -> subscriptions.values().stream().mapToLong(LiveSubscription::getQueued).sum());
+        registry.gauge("aisview_live_queue_max_depth",
+                "The number of elements queued for the slowest live stream client",
+                () -> subscriptions.values().stream().mapToLong(LiveSubscription::getQueued).max().orElse(0));
+        registry.collector("aisview_live_dropped_total",
+                "The number of elements dropped because a client could not keep up", MetricsRegistry.Type.COUNTER,
+                s -> s.sample("", droppedByRemoved.sum()
+                        + subscriptions.values().stream().mapToLong(LiveSubscription::getDropped).sum()));
+    }
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpointConfig;
+
+/**
+ * WebSocket endpoint pushing live target positions. A client connects, sends a {@link LiveTargetRequest} and from then
+ * on receives the targets within its bounding box as they are updated. New requests can be sent over the same socket at
+ * any time, for example when the user pans the map.
+ */
+public class LiveTargetEndpoint extends Endpoint {
+
+    /** The path the endpoint is deployed at. */
+    public static final String PATH = "/live/targets";
+
+    private final TargetUpdateHub hub;
+
+    LiveTargetEndpoint(TargetUpdateHub hub) {
+        this.hub = requireNonNull(hub);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+        final LiveTargetSession s = new LiveTargetSession(session, hub);
+        session.getUserProperties().put(LiveTargetSession.class.getName(), s);
+        session.addMessageHandler(new MessageHandler.Whole<String>() {
+            @Override
+            public void onMessage(String message) {
+                s.onMessage(message);
+            }
+        });
+        hub.add(s);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+        Object s = session.getUserProperties().remove(LiveTargetSession.class.getName());
+        if (s != null) {
+            hub.remove((LiveTargetSession) s);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onError(Session session, Throwable thr) {
+        TargetUpdateHub.LOG.debug("WebSocket session failed", thr);
+        onClose(session, null);
+    }
+
+    /**
+     * Creates the configuration used to deploy the endpoint.
+     *
+     * @param hub
+     *            the hub the endpoint receives updates from
+     */
+    public static ServerEndpointConfig config(final TargetUpdateHub hub) {
+        requireNonNull(hub);
+        return ServerEndpointConfig.Builder.create(LiveTargetEndpoint.class, PATH)
+                .configurator(new ServerEndpointConfig.Configurator() {
+                    @Override
+                    public <T> T getEndpointInstance(Class<T> endpointClass) throws InstantiationException {
+                        return endpointClass.cast(new LiveTargetEndpoint(hub));
+                    }
+                }).build();
+    }
+}
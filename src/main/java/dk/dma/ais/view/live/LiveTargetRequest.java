@@ -0,0 +1,75 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * A subscription message sent by a WebSocket client, for example
+ *
+ * <pre>
+ * {"bbox":[56.5,10.5,55.0,12.8],"filter":"m.sog>5","format":"json","interval":2000}
+ * </pre>
+ *
+ * All fields are optional. Fields that are not present keep the value from the previous message, so a client that
+ * pans the map only needs to send a new bounding box.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LiveTargetRequest {
+
+    /** Top latitude, left longitude, bottom latitude, right longitude. */
+    private double[] bbox;
+
+    /** A packet filter expression applied to the latest position report of each target. */
+    private String filter;
+
+    /** Either json or nmea. */
+    private String format;
+
+    /** The minimum number of milliseconds between two pushes to the client. */
+    private Integer interval;
+
+    public double[] getBbox() {
+        return bbox;
+    }
+
+    public void setBbox(double[] bbox) {
+        this.bbox = bbox;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public Integer getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Integer interval) {
+        this.interval = interval;
+    }
+}
@@ -0,0 +1,201 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.websocket.Session;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketFilters;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.CoordinateSystem;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * The server side of a single WebSocket client. Updates are collected per MMSI between pushes, so a client receives at
+ * most one update per vessel per interval no matter how often the vessel reports.
+ */
+final class LiveTargetSession {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Session session;
+
+    private final TargetUpdateHub hub;
+
+    /** The current subscription, null until the client has sent its first message. */
+    private volatile Settings settings;
+
+    /** Updates not yet pushed to the client, by MMSI. Guarded by this. */
+    private final Map<Integer, TargetUpdate> pending = new LinkedHashMap<>();
+
+    /** Guarded by this. */
+    private long lastPush;
+
+    /** The previous push, we do not send a new one until it has completed. Guarded by this. */
+    private Future<Void> inFlight;
+
+    LiveTargetSession(Session session, TargetUpdateHub hub) {
+        this.session = requireNonNull(session);
+        this.hub = requireNonNull(hub);
+    }
+
+    /** Handles a subscription message from the client. */
+    void onMessage(String text) {
+        LiveTargetRequest request;
+        Settings s;
+        try {
+            request = MAPPER.readValue(text, LiveTargetRequest.class);
+            s = Settings.merge(settings, request, hub.getTickMillis());
+        } catch (IOException | RuntimeException e) {
+            session.getAsyncRemote().sendText("{\"error\":" + quote(e.getMessage()) + "}");
+            return;
+        }
+        settings = s;
+        if (request.getBbox() != null || request.getFilter() != null) {
+            // The client is looking at a new area, send it the targets that are already there
+            Collection<TargetUpdate> current = hub.currentTargets(s.bbox);
+            synchronized (this) {
+                lastPush = 0;
+            }
+            offer(current, System.nanoTime());
+        }
+    }
+
+    /** Invoked by the hub on every tick, with the targets updated since the previous tick. */
+    synchronized void offer(Collection<TargetUpdate> updates, long nowNanos) {
+        Settings s = settings;
+        if (s == null || !session.isOpen()) {
+            return;
+        }
+        for (TargetUpdate u : updates) {
+            if (s.accepts(u)) {
+                pending.put(u.getMmsi(), u);
+            }
+        }
+        if (!pending.isEmpty() && nowNanos - lastPush >= s.intervalNanos && (inFlight == null || inFlight.isDone())) {
+            String text = s.render(pending.values());
+            pending.clear();
+            lastPush = nowNanos;
+            inFlight = session.getAsyncRemote().sendText(text);
+        }
+    }
+
+    private static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ").replace("\r", " ") + '"';
+    }
+
+    /** An immutable version of the subscription of the client. */
+    static final class Settings {
+
+        final BoundingBox bbox;
+
+        final String filterExpression;
+
+        final Predicate<AisPacket> filter;
+
+        final boolean nmea;
+
+        final long intervalNanos;
+
+        private Settings(BoundingBox bbox, String filterExpression, boolean nmea, long intervalMillis) {
+            this.bbox = bbox;
+            this.filterExpression = filterExpression;
+            this.filter = filterExpression == null || filterExpression.trim().isEmpty() ? null : AisPacketFilters
+                    .parseExpressionFilter(filterExpression);
+            this.nmea = nmea;
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        }
+
+        static Settings merge(Settings previous, LiveTargetRequest r, long minIntervalMillis) {
+            BoundingBox bbox = previous == null ? null : previous.bbox;
+            if (r.getBbox() != null) {
+                double[] b = r.getBbox();
+                if (b.length != 4) {
+                    throw new IllegalArgumentException("A bbox must contain exactly 4 values, was " + b.length);
+                }
+                bbox = BoundingBox.create(Position.create(b[0], b[1]), Position.create(b[2], b[3]),
+                        CoordinateSystem.CARTESIAN);
+            }
+            String filter = r.getFilter() != null ? r.getFilter() : previous == null ? null : previous.filterExpression;
+            boolean nmea = previous != null && previous.nmea;
+            if (r.getFormat() != null) {
+                switch (r.getFormat().toLowerCase()) {
+                case "json":
+                    nmea = false;
+                    break;
+                case "nmea":
+                    nmea = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown format " + r.getFormat() + ", must be json or nmea");
+                }
+            }
+            long interval = r.getInterval() != null ? r.getInterval() : previous == null ? 1000
+                    : TimeUnit.NANOSECONDS.toMillis(previous.intervalNanos);
+            return new Settings(bbox, filter, nmea, Math.max(interval, minIntervalMillis));
+        }
+
+        boolean accepts(TargetUpdate u) {
+            Position p = u.getPosition();
+            if (p == null || (bbox != null && !bbox.contains(p))) {
+                return false;
+            }
+            if (filter != null) {
+                AisPacket packet = u.target.getPositionPacket();
+                return packet != null && filter.test(packet);
+            }
+            return true;
+        }
+
+        String render(Collection<TargetUpdate> updates) {
+            StringBuilder sb = new StringBuilder(updates.size() * 160);
+            if (nmea) {
+                for (TargetUpdate u : updates) {
+                    String s = u.toNmea();
+                    if (s != null) {
+                        sb.append(s).append("\r\n");
+                    }
+                }
+            } else {
+                sb.append("{\"targets\":[");
+                boolean first = true;
+                for (TargetUpdate u : updates) {
+                    if (!first) {
+                        sb.append(',');
+                    }
+                    sb.append(u.toJson());
+                    first = false;
+                }
+                sb.append("]}");
+            }
+            return sb.toString();
+        }
+    }
+}
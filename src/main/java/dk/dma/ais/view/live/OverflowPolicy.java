@@ -0,0 +1,43 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+/**
+ * What a {@link SubscriberQueue} does when a new element arrives and the queue is full.
+ */
+public enum OverflowPolicy {
+
+    /** Discard the oldest queued element to make room for the new one. */
+    DROP_OLDEST,
+
+    /** Discard the new element and keep the queued ones. */
+    DROP_NEWEST,
+
+    /** Close the queue, which disconnects the subscriber. */
+    DISCONNECT;
+
+    /**
+     * Parses a policy from a query parameter value such as <tt>drop_oldest</tt> or <tt>disconnect</tt>.
+     *
+     * @param s
+     *            the value to parse
+     * @return the policy
+     * @throws IllegalArgumentException
+     *             if the value does not name a policy
+     */
+    public static OverflowPolicy fromString(String s) {
+        return valueOf(s.trim().toUpperCase().replace('-', '_'));
+    }
+}
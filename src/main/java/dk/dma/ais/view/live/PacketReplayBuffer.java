@@ -0,0 +1,168 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketStream;
+import dk.dma.ais.packet.AisPacketStream.Subscription;
+
+/**
+ * Assigns a monotonically increasing sequence number to every ingested packet and retains the most recent packets, so
+ * a client that reconnects can be sent exactly the packets it missed.
+ * <p>
+ * Sequence numbers start from 1 every time the server is started.
+ */
+public class PacketReplayBuffer {
+
+    private final SequencedPacket[] ring;
+
+    /** The sequence number of the latest packet. Guarded by this. */
+    private long lastSequence;
+
+    private final List<Consumer<? super SequencedPacket>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity
+     *            the number of packets to retain
+     */
+    public PacketReplayBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        this.ring = new SequencedPacket[capacity];
+    }
+
+    /** Subscribes to the specified stream. */
+    public Subscription subscribeTo(AisPacketStream stream) {
+        return stream.subscribe(this::append);
+    }
+
+    /**
+     * Sequences the packet and hands it to the listeners. Listeners are invoked while holding the lock, so they see
+     * packets in sequence order and must not block.
+     */
+    synchronized void append(AisPacket packet) {
+        SequencedPacket p = new SequencedPacket(++lastSequence, packet);
+        ring[(int) (p.sequence % ring.length)] = p;
+        for (Consumer<? super SequencedPacket> l : listeners) {
+            l.accept(p);
+        }
+    }
+
+    /**
+     * Registers a listener for new packets, and returns the retained packets with a sequence number after the specified
+     * one. Since both happen atomically, the listener will receive exactly the packets following the last one returned.
+     *
+     * @param lastSeen
+     *            the sequence number of the last packet seen by the client, or a negative number if the client is not
+     *            resuming
+     * @param listener
+     *            the listener
+     */
+    public synchronized Replay register(long lastSeen, Consumer<? super SequencedPacket> listener) {
+        requireNonNull(listener);
+        Replay r;
+        if (lastSeen < 0) {
+            r = new Replay(Collections.emptyList(), lastSeen, lastSequence + 1, true);
+        } else if (lastSeen > lastSequence) {
+            // Most likely an id from before the server was restarted, there is nothing we can replay
+            r = new Replay(Collections.emptyList(), lastSeen, lastSequence + 1, false);
+        } else {
+            long first = Math.max(lastSeen + 1, lastSequence - ring.length + 1);
+            List<SequencedPacket> packets = new ArrayList<>((int) (lastSequence - first + 1));
+            for (long seq = first; seq <= lastSequence; seq++) {
+                packets.add(ring[(int) (seq % ring.length)]);
+            }
+            r = new Replay(packets, lastSeen, first, first == lastSeen + 1);
+        }
+        listeners.add(listener);
+        return r;
+    }
+
+    public void unregister(Consumer<? super SequencedPacket> listener) {
+        listeners.remove(listener);
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /** A packet together with its sequence number. */
+    public static final class SequencedPacket {
+
+        final long sequence;
+
+        final AisPacket packet;
+
+        SequencedPacket(long sequence, AisPacket packet) {
+            this.sequence = sequence;
+            this.packet = requireNonNull(packet);
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public AisPacket getPacket() {
+            return packet;
+        }
+    }
+
+    /** The packets missed by a reconnecting client. */
+    public static final class Replay {
+
+        final List<SequencedPacket> packets;
+
+        final long lastSeen;
+
+        final long firstAvailable;
+
+        final boolean complete;
+
+        Replay(List<SequencedPacket> packets, long lastSeen, long firstAvailable, boolean complete) {
+            this.packets = packets;
+            this.lastSeen = lastSeen;
+            this.firstAvailable = firstAvailable;
+            this.complete = complete;
+        }
+
+        /** Returns the retained packets following the last one seen, in sequence order. */
+        public List<SequencedPacket> getPackets() {
+            return packets;
+        }
+
+        /** Returns the sequence number of the first packet the client will receive. */
+        public long getFirstAvailable() {
+            return firstAvailable;
+        }
+
+        /** Returns false if some of the packets the client missed are no longer retained. */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+}
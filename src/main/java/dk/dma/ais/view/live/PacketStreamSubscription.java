@@ -0,0 +1,82 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketStream;
+import dk.dma.ais.packet.AisPacketStream.Subscription;
+import dk.dma.commons.util.io.OutputStreamSink;
+
+/**
+ * A subscription to an {@link AisPacketStream}, writing packets in the format of an {@link OutputStreamSink}.
+ */
+public class PacketStreamSubscription extends LiveSubscription<AisPacket> {
+
+    private final OutputStreamSink<AisPacket> sink;
+
+    private volatile Subscription subscription;
+
+    public PacketStreamSubscription(long id, String request, OutputStreamSink<AisPacket> sink, int capacity,
+            OverflowPolicy policy, int flushBytes, long flushMillis) {
+        super(id, request, capacity, policy, flushBytes, flushMillis);
+        this.sink = requireNonNull(sink);
+    }
+
+    /** Subscribes to the specified stream. Must be invoked once before {@link #writeTo(OutputStream)}. */
+    public void subscribeTo(AisPacketStream stream) {
+        subscription = stream.subscribe(this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void header(OutputStream os) throws IOException {
+        sink.header(os);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void write(OutputStream os, AisPacket packet, long count) throws IOException {
+        sink.process(os, packet, count);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void footer(OutputStream os, long count) throws IOException {
+        sink.footer(os, count);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isCancelled() {
+        try {
+            return subscription.awaitCancelled(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void cancel() {
+        subscription.cancel();
+    }
+}
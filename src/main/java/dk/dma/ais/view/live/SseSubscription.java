@@ -0,0 +1,149 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.view.live.PacketReplayBuffer.Replay;
+import dk.dma.ais.view.live.PacketReplayBuffer.SequencedPacket;
+import dk.dma.commons.util.io.OutputStreamSink;
+
+/**
+ * A live stream written as <a href="http://www.w3.org/TR/eventsource/">Server-Sent Events</a>. Every packet is sent as
+ * a separate event with the ingest sequence number of the packet as id, so a client that reconnects with a
+ * <tt>Last-Event-ID</tt> is sent the packets it missed from the {@link PacketReplayBuffer}. If some of them are no
+ * longer retained, a <tt>gap</tt> event is sent before the first packet.
+ */
+public class SseSubscription extends LiveSubscription<SequencedPacket> {
+
+    /** How long a client should wait before reconnecting. */
+    private static final long RETRY_MILLIS = 3000;
+
+    /** Proxies tend to close connections that have been silent for too long. */
+    private static final long KEEPALIVE_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private final PacketReplayBuffer buffer;
+
+    private final OutputStreamSink<AisPacket> sink;
+
+    private final Predicate<? super AisPacket> filter;
+
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+
+    private Replay replay;
+
+    private long lastKeepalive;
+
+    public SseSubscription(long id, String request, PacketReplayBuffer buffer, OutputStreamSink<AisPacket> sink,
+            Predicate<? super AisPacket> filter, int capacity, OverflowPolicy policy, int flushBytes,
+            long flushMillis) {
+        super(id, request, capacity, policy, flushBytes, flushMillis);
+        this.buffer = requireNonNull(buffer);
+        this.sink = requireNonNull(sink);
+        this.filter = filter;
+    }
+
+    /**
+     * Registers with the replay buffer. Must be invoked once before {@link #writeTo(OutputStream)}.
+     *
+     * @param lastEventId
+     *            the id of the last event received by the client, or a negative number if it is not resuming
+     */
+    public void subscribe(long lastEventId) {
+        replay = buffer.register(lastEventId, this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void accept(SequencedPacket p) {
+        if (filter == null || filter.test(p.packet)) {
+            super.accept(p);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void header(OutputStream os) throws IOException {
+        os.write(("retry: " + RETRY_MILLIS + "\n\n").getBytes(UTF_8));
+        if (!replay.complete) {
+            os.write(("event: gap\ndata: {\"lastEventId\":" + replay.lastSeen + ",\"firstAvailable\":"
+                    + replay.firstAvailable + "}\n\n").getBytes(UTF_8));
+        }
+        lastKeepalive = System.nanoTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Collection<SequencedPacket> backlog() {
+        List<SequencedPacket> result = new ArrayList<>(replay.packets.size());
+        for (SequencedPacket p : replay.packets) {
+            if (filter == null || filter.test(p.packet)) {
+                result.add(p);
+            }
+        }
+        replay = new Replay(null, replay.lastSeen, replay.firstAvailable, replay.complete); // release the packets
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void write(OutputStream os, SequencedPacket p, long count) throws IOException {
+        // Every event is a document of its own, so we do not pass on the running count to the sink
+        scratch.reset();
+        sink.process(scratch, p.packet, 1);
+        os.write(("id: " + p.sequence + "\n").getBytes(UTF_8));
+        String[] lines = new String(scratch.toByteArray(), UTF_8).split("\r?\n");
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                os.write(("data: " + line + "\n").getBytes(UTF_8));
+            }
+        }
+        os.write('\n');
+        lastKeepalive = System.nanoTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void idle(OutputStream os, long idleNanos) throws IOException {
+        long now = System.nanoTime();
+        if (now - lastKeepalive >= KEEPALIVE_NANOS) {
+            os.write(": keepalive\n\n".getBytes(UTF_8));
+            lastKeepalive = now;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isCancelled() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void cancel() {
+        buffer.unregister(this);
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded ring buffer sitting between the thread delivering packets and a single subscriber writing them out.
+ * {@link #offer(Object)} never blocks, so a slow subscriber cannot hold up the delivering thread. What happens when
+ * the buffer is full is decided by the {@link OverflowPolicy}.
+ */
+@ThreadSafe
+public class SubscriberQueue<E> {
+
+    private final Object[] elements;
+
+    private final OverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final AtomicLong offered = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Index of the oldest element. Guarded by lock. */
+    private int head;
+
+    /** Number of queued elements. Guarded by lock. */
+    private int size;
+
+    /** Guarded by lock. */
+    private boolean closed;
+
+    public SubscriberQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        this.elements = new Object[capacity];
+        this.policy = requireNonNull(policy);
+    }
+
+    /**
+     * Adds an element to the queue, applying the overflow policy if the queue is full.
+     *
+     * @param e
+     *            the element to add
+     * @return false if the queue has been closed, in which case the subscriber should be cancelled
+     */
+    public boolean offer(E e) {
+        requireNonNull(e);
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            offered.incrementAndGet();
+            if (size == elements.length) {
+                dropped.incrementAndGet();
+                switch (policy) {
+                case DROP_NEWEST:
+                    return true;
+                case DISCONNECT:
+                    closed = true;
+                    notEmpty.signalAll();
+                    return false;
+                default:
+                    elements[head] = null;
+                    head = (head + 1) % elements.length;
+                    size--;
+                }
+            }
+            elements[(head + size) % elements.length] = e;
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to <tt>max</tt> queued elements to the specified collection, waiting up to the specified time for the
+     * first one to arrive.
+     *
+     * @return the number of elements moved, or -1 if the queue is closed and has been drained
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> c, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (closed) {
+                    return -1;
+                } else if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int n = Math.min(max, size);
+            for (int i = 0; i < n; i++) {
+                c.add((E) elements[head]);
+                elements[head] = null;
+                head = (head + 1) % elements.length;
+            }
+            size -= n;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Closes the queue. Elements already queued can still be drained. */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /** Returns the number of elements offered to the queue while it was open. */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /** Returns the number of elements discarded (or refused) because the queue was full. */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
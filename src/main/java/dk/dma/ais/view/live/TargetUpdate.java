@@ -0,0 +1,78 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Locale;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * The state of a target after it has been updated by the tracker. The serialized forms are computed at most once, and
+ * shared by all sessions the update is pushed to.
+ */
+final class TargetUpdate {
+
+    final TargetInfo target;
+
+    private volatile String json;
+
+    TargetUpdate(TargetInfo target) {
+        this.target = requireNonNull(target);
+    }
+
+    int getMmsi() {
+        return target.getMmsi();
+    }
+
+    /** Returns the position of the target, or null if it has no valid position. */
+    Position getPosition() {
+        if (!target.hasPositionInfo()) {
+            return null;
+        }
+        Position p = target.getPosition();
+        return p != null && Position.isValid(p.getLatitude(), p.getLongitude()) ? p : null;
+    }
+
+    /** Returns the raw sentences of the latest position report, or null if there is none. */
+    String toNmea() {
+        AisPacket p = target.getPositionPacket();
+        return p == null ? null : p.getStringMessage();
+    }
+
+    /** Returns the target as a JSON object. Must only be invoked for targets with a valid position. */
+    String toJson() {
+        String json = this.json;
+        if (json == null) {
+            Position p = getPosition();
+            StringBuilder sb = new StringBuilder(160);
+            sb.append("{\"mmsi\":").append(target.getMmsi());
+            sb.append(",\"type\":\"").append(target.getTargetType()).append('"');
+            sb.append(",\"lat\":").append(String.format(Locale.US, "%.5f", p.getLatitude()));
+            sb.append(",\"lon\":").append(String.format(Locale.US, "%.5f", p.getLongitude()));
+            sb.append(",\"cog\":").append(String.format(Locale.US, "%.1f", target.getCog() / 10.0f));
+            sb.append(",\"sog\":").append(String.format(Locale.US, "%.1f", target.getSog() / 10.0f));
+            sb.append(",\"heading\":").append(target.getHeading());
+            sb.append(",\"navStatus\":").append(target.getNavStatus());
+            sb.append(",\"time\":").append(target.getPositionTimestamp());
+            sb.append('}');
+            this.json = json = sb.toString();
+        }
+        return json;
+    }
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.live;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketStream;
+import dk.dma.ais.packet.AisPacketStream.Subscription;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.common.util.TargetInfoFilters;
+import dk.dma.enav.model.geometry.BoundingBox;
+
+/**
+ * Fans out target updates to WebSocket sessions. The hub only records which MMSIs have changed. Once per tick the
+ * current state of each of them is read from the {@link TargetTracker}, and the resulting batch is offered to every
+ * session. The cost per packet is thereby independent of the number of connected clients.
+ */
+public class TargetUpdateHub extends AbstractScheduledService {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(TargetUpdateHub.class);
+
+    private final TargetTracker tracker;
+
+    private final long tickMillis;
+
+    /** MMSIs updated since the last tick. */
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    private final Set<LiveTargetSession> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param tracker
+     *            the tracker to read target state from
+     * @param tickMillis
+     *            how often updates are dispatched, this is also the smallest interval a client can ask for
+     */
+    public TargetUpdateHub(TargetTracker tracker, long tickMillis) {
+        this.tracker = requireNonNull(tracker);
+        this.tickMillis = tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /** Marks the target with the specified MMSI as updated. Must be invoked after the tracker has been updated. */
+    public void targetUpdated(int mmsi) {
+        dirty.add(mmsi);
+    }
+
+    /**
+     * Subscribes to the specified stream. The subscription must be made after the tracker has subscribed to the same
+     * stream, so the tracker has seen a packet by the time we do.
+     */
+    public Subscription subscribeTo(AisPacketStream stream) {
+        return stream.subscribe(this::packetTracked);
+    }
+
+    /** Marks the target a packet is about as updated. Must be invoked after the tracker has been updated. */
+    public void packetTracked(AisPacket packet) {
+        AisMessage m = packet.tryGetAisMessage();
+        if (m != null) {
+            targetUpdated(m.getUserId());
+        }
+    }
+
+    void add(LiveTargetSession session) {
+        sessions.add(session);
+    }
+
+    void remove(LiveTargetSession session) {
+        sessions.remove(session);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /** Returns the targets currently within the specified area, or all targets if the area is null. */
+    List<TargetUpdate> currentTargets(BoundingBox bbox) {
+        if (bbox == null) {
+            return tracker.stream().map(TargetUpdate::new).collect(Collectors.toList());
+        }
+        return tracker.stream(s -> true, TargetInfoFilters.filterOnBoundingBox(bbox)).map(TargetUpdate::new)
+                .collect(Collectors.toList());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void runOneIteration() throws Exception {
+        List<TargetUpdate> batch;
+        if (dirty.isEmpty()) {
+            batch = Collections.emptyList();
+        } else {
+            batch = new ArrayList<>(dirty.size());
+            // The MMSI is removed before the tracker is read, so an update arriving in between adds it again and is
+            // pushed at the next tick
+            for (Iterator<Integer> iter = dirty.iterator(); iter.hasNext();) {
+                int mmsi = iter.next();
+                iter.remove();
+                TargetInfo ti = tracker.get(mmsi);
+                if (ti != null) {
+                    batch.add(new TargetUpdate(ti));
+                }
+            }
+        }
+        long now = System.nanoTime();
+        for (LiveTargetSession s : sessions) {
+            try {
+                s.offer(batch, now);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not push target updates to WebSocket session", e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedRateSchedule(tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,149 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+/**
+ * An access log written by a background thread. Request threads only put a small entry in a bounded queue, the log
+ * lines are formatted and written in batches by the service thread. If the queue is full, entries are dropped and
+ * counted rather than slowing down requests.
+ * <p>
+ * Entries are logged to the <tt>dk.dma.ais.view.access</tt> logger. The remote host is logged by address only, we
+ * never do reverse DNS lookups.
+ */
+public class AccessLog extends AbstractExecutionThreadService {
+
+    /** The logger access log lines are written to. */
+    static final Logger ACCESS = LoggerFactory.getLogger("dk.dma.ais.view.access");
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+
+    /** The maximum number of entries written in one batch. */
+    private static final int BATCH_SIZE = 1024;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param capacity
+     *            the maximum number of entries waiting to be written
+     */
+    public AccessLog(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /** Returns whether entries are written at all, if not there is no need to create them. */
+    public boolean isEnabled() {
+        return ACCESS.isInfoEnabled();
+    }
+
+    /** Queues an entry for logging, never blocks. */
+    public void log(Entry entry) {
+        if (!queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    /** Returns the number of entries dropped because the queue was full. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void run() throws Exception {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        StringBuilder sb = new StringBuilder(256);
+        long reportedDropped = 0;
+        while (isRunning() || !queue.isEmpty()) {
+            Entry first = queue.poll(1, TimeUnit.SECONDS);
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (Entry e : batch) {
+                    sb.setLength(0);
+                    e.appendTo(sb);
+                    ACCESS.info(sb.toString());
+                }
+                batch.clear();
+            }
+            long d = dropped.sum();
+            if (d != reportedDropped) {
+                LOG.warn("Dropped " + (d - reportedDropped) + " access log entries, the log cannot keep up");
+                reportedDropped = d;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String serviceName() {
+        return "AccessLog";
+    }
+
+    /** A single request. */
+    public static final class Entry {
+
+        final String remoteAddr;
+
+        final int remotePort;
+
+        final String method;
+
+        final String uri;
+
+        final String query;
+
+        final int status;
+
+        final long durationNanos;
+
+        final long bytes;
+
+        public Entry(String remoteAddr, int remotePort, String method, String uri, String query, int status,
+                long durationNanos, long bytes) {
+            this.remoteAddr = remoteAddr;
+            this.remotePort = remotePort;
+            this.method = method;
+            this.uri = uri;
+            this.query = query;
+            this.status = status;
+            this.durationNanos = durationNanos;
+            this.bytes = bytes;
+        }
+
+        void appendTo(StringBuilder sb) {
+            sb.append(remoteAddr).append(':').append(remotePort).append(" \"").append(method).append(' ').append(uri);
+            if (query != null) {
+                sb.append('?').append(query);
+            }
+            sb.append("\" ").append(status).append(' ').append(bytes).append(" bytes ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(durationNanos)).append(" ms");
+        }
+    }
+}
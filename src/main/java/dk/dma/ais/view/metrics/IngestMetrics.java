@@ -0,0 +1,71 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketStream;
+import dk.dma.ais.packet.AisPacketStream.Subscription;
+import dk.dma.ais.view.metrics.MetricsRegistry.Counter;
+
+/**
+ * Counts received packets, and packets that could not be decoded, per source.
+ */
+public class IngestMetrics implements Consumer<AisPacket> {
+
+    /** The maximum number of sources counted separately, to bound the number of time series. */
+    static final int MAX_SOURCES = 100;
+
+    private final MetricsRegistry registry;
+
+    /** The packet and decode failure counters by source id. */
+    private final ConcurrentHashMap<String, Counter[]> sources = new ConcurrentHashMap<>();
+
+    public IngestMetrics(MetricsRegistry registry) {
+        this.registry = requireNonNull(registry);
+    }
+
+    /** Subscribes to the specified stream. */
+    public Subscription subscribeTo(AisPacketStream stream) {
+        return stream.subscribe(this);
+    }
+
+    /** Counts a packet. */
+    @Override
+    public void accept(AisPacket packet) {
+        String source = packet.getTags() == null ? null : packet.getTags().getSourceId();
+        Counter[] c = counters(source == null ? "unknown" : source);
+        c[0].inc();
+        if (packet.tryGetAisMessage() == null) {
+            c[1].inc();
+        }
+    }
+
+    private Counter[] counters(String source) {
+        Counter[] c = sources.get(source);
+        if (c == null) {
+            String s = sources.size() >= MAX_SOURCES ? "other" : source;
+            c = sources.computeIfAbsent(s, k -> new Counter[] {
+                    registry.counter("aisview_ingest_packets_total", "The number of packets received", "source", k),
+                    registry.counter("aisview_ingest_decode_failures_total",
+                            "The number of packets received that could not be decoded", "source", k) });
+        }
+        return c;
+    }
+}
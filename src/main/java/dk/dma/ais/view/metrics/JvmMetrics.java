@@ -0,0 +1,43 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Metrics of the JVM AisView runs in.
+ */
+public final class JvmMetrics {
+
+    private JvmMetrics() {}
+
+    /**
+     * Exposes the number of threads and the heap usage of this JVM in the specified registry. Virtual threads are not
+     * included in the thread counts, only the platform threads carrying them.
+     */
+    public static void register(MetricsRegistry registry) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        registry.gauge("aisview_jvm_threads", "The number of live platform threads", () -> threads.getThreadCount());
+        registry.gauge("aisview_jvm_threads_peak", "The highest number of live platform threads since startup",
+                () -> threads.getPeakThreadCount());
+        registry.gauge("aisview_jvm_heap_used_bytes", "The amount of heap in use",
+                () -> memory.getHeapMemoryUsage().getUsed());
+        registry.gauge("aisview_jvm_heap_committed_bytes", "The amount of heap committed by the JVM",
+                () -> memory.getHeapMemoryUsage().getCommitted());
+    }
+}
@@ -0,0 +1,190 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms, and the number of requests and bytes written, per route. Recording is wait-free, so it can be
+ * done on the request path.
+ * <p>
+ * Routes are request paths with numeric segments, such as MMSIs, replaced by <tt>{n}</tt>. To bound memory, at most
+ * {@link #MAX_ROUTES} routes are tracked, any further paths are recorded as {@link #OTHER}.
+ * <p>
+ * Every request is recorded twice. The histograms exposed to Prometheus are never reset, as the count and sum of a
+ * summary must only grow. The summary of /metrics/latency is read from a separate interval recorder, which can be
+ * reset without affecting them.
+ */
+public class LatencyHistograms {
+
+    /** The maximum number of routes tracked. */
+    public static final int MAX_ROUTES = 200;
+
+    /** The route requests are recorded under once the maximum number of routes has been reached. */
+    public static final String OTHER = "other";
+
+    /** Latencies are recorded in microseconds, anything above an hour, such as live streams, is recorded as an hour. */
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    /** Two significant digits, that is a precision of 1%, keeps each histogram at a few tens of kilobytes. */
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Records a request to the specified path.
+     *
+     * @param path
+     *            the path of the request
+     * @param durationNanos
+     *            the time it took to serve the request
+     * @param bytes
+     *            the number of bytes written to the client
+     */
+    public void record(String path, long durationNanos, long bytes) {
+        String route = route(path);
+        Route r = routes.get(route);
+        if (r == null) {
+            if (routes.size() >= MAX_ROUTES) {
+                route = OTHER;
+            }
+            r = routes.computeIfAbsent(route, k -> new Route());
+        }
+        long micros = Math.max(0, Math.min(HIGHEST_MICROS, TimeUnit.NANOSECONDS.toMicros(durationNanos)));
+        r.histogram.recordValue(micros);
+        r.recorder.recordValue(micros);
+        r.requests.increment();
+        r.bytes.add(bytes);
+    }
+
+    /** Exposes request counts, bytes written and latency quantiles per route in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.collector("aisview_http_requests_total", "The number of requests served", MetricsRegistry.Type.COUNTER,
+                s -> routes.forEach((k, r) -> s.sample("", r.requests.sum(), "route", k)));
+        registry.collector("aisview_http_response_bytes_total", "The number of bytes written to clients",
+                MetricsRegistry.Type.COUNTER, s -> routes.forEach((k, r) -> s.sample("", r.bytes.sum(), "route", k)));
+        registry.collector("aisview_http_request_seconds",
+                "The time it took to serve requests since startup",
+                MetricsRegistry.Type.SUMMARY, s -> routes.forEach((k, r) -> {
+                    Histogram h = r.histogram.copy();
+                    for (double q : new double[] { 0.5, 0.99, 0.999 }) {
+                        s.sample("", h.getValueAtPercentile(q * 100) / 1e6, "route", k, "quantile", Double.toString(q));
+                    }
+                    s.sample("_sum", h.getMean() * h.getTotalCount() / 1e6, "route", k);
+                    s.sample("_count", h.getTotalCount(), "route", k);
+                }));
+    }
+
+    /**
+     * Returns a summary of every route, sorted by route. Latencies are in milliseconds.
+     *
+     * @param reset
+     *            whether to reset the histograms after they have been read
+     */
+    public Map<String, Map<String, Object>> summary(boolean reset) {
+        TreeMap<String, Map<String, Object>> result = new TreeMap<>();
+        for (Map.Entry<String, Route> e : routes.entrySet()) {
+            Histogram h = e.getValue().sinceReset(reset);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", h.getTotalCount());
+            m.put("mean", millis(h.getMean()));
+            m.put("p50", millis(h.getValueAtPercentile(50)));
+            m.put("p99", millis(h.getValueAtPercentile(99)));
+            m.put("p999", millis(h.getValueAtPercentile(99.9)));
+            m.put("max", millis(h.getMaxValue()));
+            result.put(e.getKey(), m);
+        }
+        return result;
+    }
+
+    private static double millis(double micros) {
+        return Math.round(micros) / 1000.0;
+    }
+
+    /** Returns the route of the specified request path, for example /store/track/{n} for /store/track/219014434. */
+    public static String route(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        StringBuilder sb = new StringBuilder(path.length());
+        int start = path.charAt(0) == '/' ? 1 : 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                sb.append('/');
+                if (isNumeric(path, start, end)) {
+                    sb.append("{n}");
+                } else {
+                    sb.append(path, start, end);
+                }
+            }
+            start = end + 1;
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static boolean isNumeric(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The statistics of a single route. */
+    static final class Route {
+
+        /** All requests since startup, never reset. */
+        final Histogram histogram = new ConcurrentHistogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+
+        /** The requests not yet moved to {@link #sinceReset}. */
+        final Recorder recorder = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+
+        /** The requests since the last reset of /metrics/latency, guarded by this. */
+        private final Histogram sinceReset = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+
+        /** Handed back to the recorder to avoid allocating a new interval histogram, guarded by this. */
+        private Histogram interval;
+
+        final LongAdder requests = new LongAdder();
+
+        final LongAdder bytes = new LongAdder();
+
+        /** Returns a copy of the requests since the last reset, optionally resetting them. */
+        synchronized Histogram sinceReset(boolean reset) {
+            interval = recorder.getIntervalHistogram(interval);
+            sinceReset.add(interval);
+            Histogram h = sinceReset.copy();
+            if (reset) {
+                sinceReset.reset();
+            }
+            return h;
+        }
+    }
+}
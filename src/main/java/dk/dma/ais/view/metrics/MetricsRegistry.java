@@ -0,0 +1,211 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters and gauges exposed in the Prometheus text exposition format.
+ * <p>
+ * Counters are backed by {@link LongAdder}, so incrementing them from many threads does not contend on a single
+ * memory location. Gauges and collectors are only evaluated when the metrics are scraped.
+ */
+public class MetricsRegistry {
+
+    /** The content type of the text exposition format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    /** The type of a metric family. */
+    public enum Type {
+        COUNTER, GAUGE, SUMMARY;
+    }
+
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Family family(String name, String help, Type type) {
+        Family f = families.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (f.type != type) {
+            throw new IllegalArgumentException("The metric " + name + " is already registered as a "
+                    + f.type.name().toLowerCase());
+        }
+        return f;
+    }
+
+    /**
+     * Returns the counter with the specified name and labels, creating it if needed. Callers on hot paths should hold
+     * on to the returned counter rather than looking it up every time.
+     *
+     * @param labels
+     *            alternating label names and values
+     */
+    public Counter counter(String name, String help, String... labels) {
+        Family f = family(name, help, Type.COUNTER);
+        return (Counter) f.children.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    /**
+     * Registers a gauge with the specified name and labels, replacing any existing gauge with the same labels.
+     *
+     * @param labels
+     *            alternating label names and values
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        requireNonNull(value);
+        family(name, help, Type.GAUGE).children.put(labels(labels), value);
+    }
+
+    /**
+     * Registers a collector producing a variable set of samples for a metric family, for example one per source type.
+     * The collector is invoked on every scrape.
+     */
+    public void collector(String name, String help, Type type, Consumer<Sampler> collector) {
+        family(name, help, type).collectors.add(requireNonNull(collector));
+    }
+
+    /** Returns all metrics in the text exposition format. */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+        for (Family f : families.values()) {
+            f.writeTo(sb);
+        }
+        return sb.toString();
+    }
+
+    static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String v = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int j = 0; j < v.length(); j++) {
+                char c = v.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    static void appendValue(StringBuilder sb, double value) {
+        if (value == (long) value) {
+            sb.append((long) value);
+        } else if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            sb.append(value);
+        }
+    }
+
+    /** A monotonically increasing counter. */
+    public static final class Counter implements DoubleSupplier {
+
+        private final LongAdder adder = new LongAdder();
+
+        public void inc() {
+            adder.increment();
+        }
+
+        public void add(long n) {
+            adder.add(n);
+        }
+
+        public long get() {
+            return adder.sum();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public double getAsDouble() {
+            return adder.sum();
+        }
+    }
+
+    /** Receives the samples of a collector. */
+    public interface Sampler {
+
+        /**
+         * Adds a sample.
+         *
+         * @param suffix
+         *            appended to the name of the family, for example _sum for a summary, or empty
+         * @param value
+         *            the value
+         * @param labels
+         *            alternating label names and values
+         */
+        void sample(String suffix, double value, String... labels);
+    }
+
+    static final class Family {
+
+        final String name;
+
+        final String help;
+
+        final Type type;
+
+        final Map<String, DoubleSupplier> children = new ConcurrentHashMap<>();
+
+        final CopyOnWriteArrayList<Consumer<Sampler>> collectors = new CopyOnWriteArrayList<>();
+
+        Family(String name, String help, Type type) {
+            this.name = requireNonNull(name);
+            this.help = requireNonNull(help);
+            this.type = requireNonNull(type);
+        }
+
+        void writeTo(StringBuilder sb) {
+            sb.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+                    .append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, DoubleSupplier> e : new ConcurrentSkipListMap<>(children).entrySet()) {
+                sb.append(name).append(e.getKey()).append(' ');
+                appendValue(sb, e.getValue().getAsDouble());
+                sb.append('\n');
+            }
+            for (Consumer<Sampler> c : collectors) {
+                c.accept((suffix, value, labels) -> {
+                    sb.append(name).append(suffix).append(labels(labels)).append(' ');
+                    appendValue(sb, value);
+                    sb.append('\n');
+                });
+            }
+        }
+    }
+}
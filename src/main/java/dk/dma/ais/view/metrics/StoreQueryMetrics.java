@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.view.metrics.MetricsRegistry.Counter;
+
+/**
+ * Rows read and page latencies of AisStore queries, by kind of query.
+ * <p>
+ * The driver fetches the next page of a result when the current page has been exhausted. The page latency is therefore
+ * measured as the time spent in {@link Iterator#hasNext()} each time a multiple of the fetch size has been read.
+ */
+public class StoreQueryMetrics {
+
+    /** Page latencies are recorded in microseconds, up to 10 minutes. */
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final MetricsRegistry registry;
+
+    private final ConcurrentHashMap<String, Query> queries = new ConcurrentHashMap<>();
+
+    public StoreQueryMetrics(MetricsRegistry registry) {
+        this.registry = requireNonNull(registry);
+        registry.collector("aisview_store_page_seconds", "The time it took to fetch a page of an AisStore query",
+                MetricsRegistry.Type.SUMMARY, s -> queries.forEach((k, q) -> {
+                    Histogram h = q.pages.copy();
+                    for (double quantile : new double[] { 0.5, 0.99 }) {
+                        s.sample("", h.getValueAtPercentile(quantile * 100) / 1e6, "query", k, "quantile",
+                                Double.toString(quantile));
+                    }
+                    s.sample("_sum", h.getMean() * h.getTotalCount() / 1e6, "query", k);
+                    s.sample("_count", h.getTotalCount(), "query", k);
+                }));
+    }
+
+    /**
+     * Returns an iterable counting the rows of the specified result.
+     *
+     * @param query
+     *            the kind of query, such as track or history. Must come from a small fixed set
+     * @param result
+     *            the result of the query
+     * @param fetchSize
+     *            the fetch size the query was made with
+     */
+    public Iterable<AisPacket> instrument(String query, Iterable<AisPacket> result, int fetchSize) {
+        requireNonNull(result);
+        final Query q = queries.computeIfAbsent(query, Query::new);
+        q.queries.inc();
+        return () -> new Iterator<AisPacket>() {
+            final Iterator<AisPacket> delegate = result.iterator();
+
+            long rows;
+
+            /** The row count at which a page fetch was last timed, so repeated calls are only timed once. */
+            long timed = -1;
+
+            public boolean hasNext() {
+                if (fetchSize <= 0 || rows % fetchSize != 0 || rows == timed) {
+                    return delegate.hasNext();
+                }
+                timed = rows;
+                long start = System.nanoTime();
+                boolean hasNext = delegate.hasNext();
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                q.pages.recordValue(Math.min(HIGHEST_MICROS, micros));
+                return hasNext;
+            }
+
+            public AisPacket next() {
+                AisPacket p = delegate.next();
+                rows++;
+                q.rows.inc();
+                return p;
+            }
+        };
+    }
+
+    /** The counters of a single kind of query. */
+    final class Query {
+
+        final Counter queries;
+
+        final Counter rows;
+
+        final Histogram pages = new ConcurrentHistogram(HIGHEST_MICROS, 2);
+
+        Query(String name) {
+            queries = registry.counter("aisview_store_queries_total", "The number of AisStore queries made", "query",
+                    name);
+            rows = registry.counter("aisview_store_rows_total", "The number of rows read from AisStore", "query", name);
+        }
+    }
+}
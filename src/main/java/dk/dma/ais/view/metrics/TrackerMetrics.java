@@ -0,0 +1,42 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.metrics;
+
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+
+/**
+ * Metrics of the target tracker.
+ */
+public final class TrackerMetrics {
+
+    private TrackerMetrics() {}
+
+    /**
+     * Exposes the size of the specified tracker in the specified registry. The sizes are computed by scanning the
+     * tracker on every scrape.
+     */
+    public static void register(MetricsRegistry registry, TargetTracker tracker) {
+        registry.gauge("aisview_tracker_targets", "The number of targets in the tracker", () -> tracker.size());
+        registry.collector("aisview_tracker_targets_by_source_type",
+                "The number of targets in the tracker with reports from a source type", MetricsRegistry.Type.GAUGE,
+                s -> {
+                    for (SourceType type : SourceType.values()) {
+                        long count = tracker.stream(src -> src.getSourceType() == type, t -> true).count();
+                        s.sample("", count, "source_type", type.name().toLowerCase());
+                    }
+                });
+    }
+}
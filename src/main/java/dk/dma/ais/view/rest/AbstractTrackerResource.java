@@ -18,11 +18,22 @@ import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.packet.AisPacketSource;
 import dk.dma.ais.tracker.targetTracker.TargetInfo;
 import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.live.BatchingWriter;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.TableFilter;
+import dk.dma.ais.view.table.TrackerSnapshots;
+import dk.dma.commons.util.io.OutputStreamSink;
 import dk.dma.commons.web.rest.AbstractResource;
 
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -32,6 +43,12 @@ import java.util.stream.Stream;
  */
 public class AbstractTrackerResource extends AbstractResource {
 
+    /** Streamed output is pushed to the client once this many bytes are pending. */
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    /** Streamed output is pushed to the client once the oldest pending byte is this old. */
+    private static final long FLUSH_MILLIS = 200;
+
     public AbstractTrackerResource() {
         super();
     }
@@ -53,6 +70,15 @@ public class AbstractTrackerResource extends AbstractResource {
         return packets;
     }
 
+    /** Applies the packet filter of a query, if any, to a stream of packets. */
+    protected Stream<AisPacket> applyPacketFilter(Stream<AisPacket> packets, QueryParameterHelper qh) {
+        return qh.packetFilter == null ? packets : packets.filter(qh.packetFilter);
+    }
+
+    /**
+     * Returns the packets of the targets selected by a query. The stream is lazy, packets are read from the tracker
+     * one target at a time as the stream is consumed.
+     */
     protected Stream<AisPacket> getPacketStream(UriInfo info, QueryParameterHelper qh) {
         Predicate<AisPacketSource> predSource = qh.getSourcePredicate();
         predSource = (predSource == null) ? e -> true : predSource;
@@ -64,17 +90,88 @@ public class AbstractTrackerResource extends AbstractResource {
 
         TargetTracker tt = get(TargetTracker.class);
 
-        Stream<TargetInfo> s = tt.stream(predSource, predTarget);
-        Stream<AisPacket[]> sPackets = s.map(e -> e.getPackets()).filter(o -> o != null);
+        Stream<TargetInfo> s = tt.streamSequential(predSource, predTarget);
+        return s.map(e -> e.getPackets()).filter(Objects::nonNull).flatMap(Arrays::stream);
+    }
+
+    /**
+     * Returns the packets of the specified targets in the order given, from the sources selected by a query. See
+     * {@link #getPacketStream(UriInfo, QueryParameterHelper)}.
+     */
+    protected Stream<AisPacket> getPacketStream(QueryParameterHelper qh, int[] mmsis) {
+        Predicate<AisPacketSource> predSource = qh.getSourcePredicate();
+        Predicate<AisPacketSource> pred = (predSource == null) ? e -> true : predSource;
+        TargetTracker tt = get(TargetTracker.class);
+        return Arrays.stream(mmsis).mapToObj(mmsi -> tt.get(mmsi, pred)).filter(Objects::nonNull)
+                .map(e -> e.getPackets()).filter(Objects::nonNull).flatMap(Arrays::stream);
+    }
 
-        final ConcurrentLinkedDeque<AisPacket> packets = new ConcurrentLinkedDeque<AisPacket>();
-        sPackets.sequential().forEach(e -> {
-            for (int i = 0; i < e.length; i++) {
-                packets.add(e[i]);
+    /**
+     * Returns the MMSIs of the targets selected by a query in ascending order, starting after the MMSI of a cursor.
+     * At most one more MMSI than the page size is returned, the last one telling that there is a next page.
+     */
+    protected int[] getMmsiPage(QueryParameterHelper qh, Cursor cursor, int pageSize) {
+        int after = cursor == null ? 0 : (int) cursor.position;
+        IntStream mmsis;
+        Predicate<AisPacketSource> predSource = qh.getSourcePredicate();
+        if (predSource == null) {
+            // the live target table holds the MMSIs, there is no need to visit the targets
+            TableFilter filter = new TableFilter();
+            if (qh.area != null) {
+                filter.within(qh.area);
             }
-        });
+            IntStream.Builder b = IntStream.builder();
+            get(LiveTargetTable.class).forEach(filter, (mmsi, latE7, lonE7) -> b.add(mmsi));
+            mmsis = b.build();
+        } else {
+            Predicate<TargetInfo> predTarget = (qh.getArea() != null) ? qh.getTargetAreaFilter() : e -> true;
+            mmsis = get(TargetTracker.class).stream(predSource, predTarget).mapToInt(TargetInfo::getMmsi);
+        }
+        return mmsis.filter(mmsi -> mmsi > after).sorted().limit(pageSize + 1L).toArray();
+    }
+
+    /**
+     * Returns a single page of a paged request for tracker data, with a link to the next page if there is one. The
+     * page carries the current tracker snapshot epoch, see {@link Cursor}.
+     *
+     * @param page
+     *            creates the entity of the page from the MMSIs of its targets
+     */
+    protected Response getPage(UriInfo info, QueryParameterHelper qh, int pageSize, Function<int[], Object> page) {
+        Cursor cursor = Cursor.find(info);
+        long epoch = get(TrackerSnapshots.class).current().getEpoch();
+        int[] mmsis = getMmsiPage(qh, cursor, pageSize);
+        Cursor next = null;
+        if (mmsis.length > pageSize) {
+            mmsis = Arrays.copyOf(mmsis, pageSize);
+            next = Cursor.next(info, mmsis[pageSize - 1], 0, epoch);
+        }
+        Response.ResponseBuilder b = Response.ok(page.apply(mmsis)).header(Cursor.EPOCH_HEADER, epoch);
+        if (cursor != null) {
+            b.header(Cursor.CHANGED_HEADER, cursor.epoch != epoch);
+        }
+        return Cursor.link(b, info, next).build();
+    }
 
-        return packets.stream();
+    /**
+     * Returns output writing packets to the client as they are read from a stream, so the first bytes are sent while
+     * the tracker is still being scanned, and only a bounded amount of output is held in memory.
+     */
+    protected static StreamingOutput createStreamingOutput(Stream<AisPacket> packets,
+            OutputStreamSink<AisPacket> sink) {
+        return os -> {
+            BatchingWriter w = new BatchingWriter(os, FLUSH_BYTES, FLUSH_MILLIS);
+            sink.header(w.buffer());
+            w.flush();
+            long count = 0;
+            for (Iterator<AisPacket> iter = packets.iterator(); iter.hasNext();) {
+                sink.process(w.buffer(), iter.next(), ++count);
+                w.afterWrite();
+                w.flushIfDue();
+            }
+            sink.footer(w.buffer(), count);
+            w.flush();
+        };
     }
 
 }
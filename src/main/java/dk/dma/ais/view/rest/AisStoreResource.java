@@ -24,6 +24,8 @@ import dk.dma.ais.reader.AisReaders;
 import dk.dma.ais.store.AisStoreQueryBuilder;
 import dk.dma.ais.store.AisStoreQueryResult;
 import dk.dma.ais.store.job.JobManager;
+import dk.dma.ais.view.metrics.StoreQueryMetrics;
+import dk.dma.ais.view.rest.RequestExecutors.RequestClass;
 import dk.dma.commons.util.Iterables;
 import dk.dma.commons.util.io.OutputStreamSink;
 import dk.dma.commons.web.rest.AbstractResource;
@@ -45,6 +47,9 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -106,8 +111,9 @@ public class AisStoreResource extends AbstractResource {
 
         AisStoreQueryBuilder b = AisStoreQueryBuilder.forTime().setInterval(
                 start, end);
+        b.setFetchSize(DEFAULT_FETCH_SIZE);
         AisStoreQueryResult query = cassandraConnection().execute(b);
-        Iterable<AisPacket> q = query;
+        Iterable<AisPacket> q = storeQueryMetrics().instrument("count", query, DEFAULT_FETCH_SIZE);
 
         final AtomicLong l = new AtomicLong();
         q = Iterables.counting(q, l);
@@ -124,7 +130,11 @@ public class AisStoreResource extends AbstractResource {
      */
     @GET
     @Path("/count")
-    public Long getTenMinuteCount(@Context UriInfo info) {
+    public void getTenMinuteCount(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getTenMinuteCount(info));
+    }
+
+    private Long getTenMinuteCount(UriInfo info) {
         return getTenMinuteCount().get();
     }
 
@@ -134,7 +144,11 @@ public class AisStoreResource extends AbstractResource {
      */
     @GET
     @Path("/count/second")
-    public Double getPacketsPerSecond() {
+    public void getPacketsPerSecond(@Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getPacketsPerSecond());
+    }
+
+    private Double getPacketsPerSecond() {
         return getTenMinuteCount().doubleValue() / 600.0;
     }
 
@@ -144,7 +158,11 @@ public class AisStoreResource extends AbstractResource {
      */
     @GET
     @Path("/count/minute")
-    public Double getPacketsPerMinute() {
+    public void getPacketsPerMinute(@Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getPacketsPerMinute());
+    }
+
+    private Double getPacketsPerMinute() {
         return getTenMinuteCount().doubleValue() / 10;
     }
 
@@ -159,7 +177,11 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("rate")
     @Produces(MediaType.TEXT_PLAIN)
-    public String rate(@QueryParam("expected") Double expected) {
+    public void rate(@QueryParam("expected") Double expected, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> rate(expected));
+    }
+
+    private String rate(Double expected) {
         if (expected == null) {
             expected = 0.0;
         }
@@ -169,40 +191,55 @@ public class AisStoreResource extends AbstractResource {
     }
 
     private AisStoreQueryResult handleQueryRequest(QueryParameterHelper p, UriInfo info) {
+        return handleQueryRequest(p, info, Long.MIN_VALUE);
+    }
+
+    /** Creates the query of a request, starting no earlier than the specified time. */
+    private AisStoreQueryResult handleQueryRequest(QueryParameterHelper p, UriInfo info, long from) {
         // Create builder, we first need to determine which of the 3 AisStore
         // tables we need to use
         AisStoreQueryBuilder b;
         if (p.getMMSIs().length > 0) {
             b = AisStoreQueryBuilder.forMmsi(p.getMMSIs());
-            b.setFetchSize(QueryParameterValidators.getParameterAsInt(info,
-                    "fetchSize", 3000));
-
         } else if (p.getArea() != null) {
             b = AisStoreQueryBuilder.forArea(p.getArea());
-            b.setFetchSize(QueryParameterValidators.getParameterAsInt(info,
-                    "fetchSize", 512));
-
         } else {
             b = AisStoreQueryBuilder.forTime();
-            b.setFetchSize(QueryParameterValidators.getParameterAsInt(info,
-                    "fetchSize", 3000));
         }
+        b.setFetchSize(fetchSize(p, info));
         // Set various properties for the query builder
 
-        b.setInterval(p.getInterval());
+        Interval interval = p.getInterval();
+        if (interval != null && from > interval.getStartMillis()) {
+            interval = new Interval(Math.min(from, interval.getEndMillis()), interval.getEndMillis());
+        }
+        b.setInterval(interval);
 
         // Create the query
         AisStoreQueryResult query = cassandraConnection().execute(b);
         return query;
     }
+
+    /** Returns the fetch size requested, or the default fetch size of the table queried. */
+    private static int fetchSize(QueryParameterHelper p, UriInfo info) {
+        int defaultFetchSize = p.getMMSIs().length == 0 && p.getArea() != null ? 512 : DEFAULT_FETCH_SIZE;
+        return QueryParameterValidators.getParameterAsInt(info, "fetchSize", defaultFetchSize);
+    }
     
     @GET
     @Produces("application/octet-stream")
     @Path("/query")
-    public StreamingOutput query(@Context UriInfo info) {
+    public void query(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> {
+            int pageSize = Cursor.pageSize(info);
+            return pageSize > 0 ? queryPage(info, pageSize) : query(info);
+        });
+    }
+
+    private StreamingOutput query(UriInfo info) {
         QueryParameterHelper p = new QueryParameterHelper(info);        
         AisStoreQueryResult query = handleQueryRequest(p, info);
-        Iterable<AisPacket> q = query;
+        Iterable<AisPacket> q = storeQueryMetrics().instrument("query", query, fetchSize(p, info));
 
         q = applyUserFilters(q, p);
         
@@ -217,6 +254,57 @@ public class AisStoreResource extends AbstractResource {
         return StreamingUtil.createStreamingOutput(q, p.getOutputSink(), query);
     }
     
+    /**
+     * Reads a single page of a query. The page is read before anything is written, as the cursor of the next page is
+     * sent in the response headers. A page resumes the query at the timestamp of the cursor, so stateful filters such
+     * as the duplicate filter, the position sampler and the limit start over at every page. A paged query must have
+     * an interval, which the cursor narrows.
+     */
+    private Response queryPage(UriInfo info, int pageSize) {
+        QueryParameterHelper p = new QueryParameterHelper(info);
+        if (p.getInterval() == null) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("A paged query must have an interval [pageSize=" + pageSize + "]\n")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+        Cursor cursor = Cursor.find(info);
+        AisStoreQueryResult query = handleQueryRequest(p, info, cursor == null ? Long.MIN_VALUE : cursor.position);
+        Iterable<AisPacket> q = storeQueryMetrics().instrument("query", query, fetchSize(p, info));
+        q = applyUserFilters(q, p);
+
+        List<AisPacket> page = new ArrayList<>(Math.min(pageSize, 1024));
+        Cursor next = null;
+        int skip = cursor == null ? 0 : cursor.skip;
+        for (AisPacket packet : q) {
+            // Skip the packets at the timestamp of the cursor that were returned in the previous page
+            if (skip > 0 && packet.getBestTimestamp() == cursor.position) {
+                skip--;
+                continue;
+            }
+            skip = 0;
+            if (page.size() == pageSize) {
+                next = nextCursor(info, cursor, page);
+                break;
+            }
+            page.add(packet);
+        }
+        StreamingOutput so = StreamingUtil.createStreamingOutput(page, p.getOutputSink());
+        return Cursor.link(Response.ok(so), info, next).build();
+    }
+
+    /** Returns the cursor following a full page, counting the packets returned with the last timestamp. */
+    private static Cursor nextCursor(UriInfo info, Cursor cursor, List<AisPacket> page) {
+        long last = page.get(page.size() - 1).getBestTimestamp();
+        int n = 0;
+        for (int i = page.size() - 1; i >= 0 && page.get(i).getBestTimestamp() == last; i--) {
+            n++;
+        }
+        if (n == page.size() && cursor != null && cursor.position == last) {
+            n += cursor.skip; // the whole page had the same timestamp as the previous one
+        }
+        return Cursor.next(info, last, n);
+    }
+
     private Iterable<AisPacket> applyUserFilters(Iterable<AisPacket> packetIterable, QueryParameterHelper helper) {
         // Apply filters from the user
 
@@ -272,8 +360,11 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/track/{mmsi : \\d+}")
     @Produces("application/json")
-    public StreamingOutput pastTrack(@Context UriInfo info,
-            @PathParam("mmsi") int mmsi) {
+    public void pastTrack(@Context UriInfo info, @PathParam("mmsi") int mmsi, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> pastTrack(info, mmsi));
+    }
+
+    private StreamingOutput pastTrack(UriInfo info, int mmsi) {
         Iterable<AisPacket> query = getPastTrack(info, mmsi);
         return StreamingUtil.createStreamingOutput(query,
                 AisPacketOutputSinks.PAST_TRACK_JSON);
@@ -299,8 +390,11 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/track/raw/{mmsi : \\d+}")
     @Produces("application/octet-stream")
-    public StreamingOutput pastTrackRaw(@Context UriInfo info,
-            @PathParam("mmsi") int mmsi) {
+    public void pastTrackRaw(@Context UriInfo info, @PathParam("mmsi") int mmsi, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> pastTrackRaw(info, mmsi));
+    }
+
+    private StreamingOutput pastTrackRaw(UriInfo info, int mmsi) {
         Iterable<AisPacket> query = getPastTrack(info, mmsi);
         return StreamingUtil.createStreamingOutput(query,
                 AisPacketOutputSinks.OUTPUT_TO_TEXT);
@@ -321,8 +415,12 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/track/html")
     @Produces("text/html")
-    public StreamingOutput pastTrackHtml(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void pastTrackHtml(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> pastTrackHtml(info, mmsis));
+    }
+
+    private StreamingOutput pastTrackHtml(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getPastTrack(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -333,8 +431,12 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/track/kml")
     @Produces(MEDIA_TYPE_KMZ)
-    public Response pastTrackKml(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void pastTrackKml(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> pastTrackKml(info, mmsis));
+    }
+
+    private Response pastTrackKml(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getPastTrack(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -348,8 +450,12 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/track/prefixed")
     @Produces("application/octet-stream")
-    public StreamingOutput pastTrackPrefixed(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void pastTrackPrefixed(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> pastTrackPrefixed(info, mmsis));
+    }
+
+    private StreamingOutput pastTrackPrefixed(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getPastTrack(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -360,16 +466,24 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/history")
     @Produces("application/octet-stream")
-    public StreamingOutput history(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void history(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> history(info, mmsis));
+    }
+
+    private StreamingOutput history(UriInfo info, List<Integer> mmsis) {
         return historyRaw(info, mmsis);
     }
 
     @GET
     @Path("/history/raw")
     @Produces("application/octet-stream")
-    public StreamingOutput historyRaw(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void historyRaw(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> historyRaw(info, mmsis));
+    }
+
+    private StreamingOutput historyRaw(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getHistory(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -380,8 +494,12 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/history/html")
     @Produces("text/html")
-    public StreamingOutput historyHtml(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void historyHtml(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> historyHtml(info, mmsis));
+    }
+
+    private StreamingOutput historyHtml(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getHistory(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -392,8 +510,12 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/history/prefixed")
     @Produces("application/octet-stream")
-    public StreamingOutput historyPrefixed(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void historyPrefixed(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> historyPrefixed(info, mmsis));
+    }
+
+    private StreamingOutput historyPrefixed(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getHistory(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -404,8 +526,12 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/history/kml")
     @Produces(MEDIA_TYPE_KMZ)
-    public Response historyKml(@Context UriInfo info,
-            @QueryParam("mmsi") List<Integer> mmsis) {
+    public void historyKml(@Context UriInfo info, @QueryParam("mmsi") List<Integer> mmsis,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> historyKml(info, mmsis));
+    }
+
+    private Response historyKml(UriInfo info, List<Integer> mmsis) {
         Iterable<AisPacket> query = getHistory(
                 info,
                 ArrayUtils.toPrimitive(mmsis.toArray(new Integer[mmsis.size()])));
@@ -426,7 +552,13 @@ public class AisStoreResource extends AbstractResource {
     @POST
     @Path("/history/kml")
     @Produces(MEDIA_TYPE_KMZ)
-    public Response createKml(@QueryParam("filter") String filterExpression, InputStream inputStream) {
+    public void createKml(@QueryParam("filter") String filterExpression, InputStream inputStream,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response,
+                () -> createKml(filterExpression, inputStream));
+    }
+
+    private Response createKml(String filterExpression, InputStream inputStream) {
         LOG.debug("Filter expression: " + filterExpression);
         Predicate<AisPacket> filter = isBlank(filterExpression) ? p->true : AisPacketFilters.parseExpressionFilter(filterExpression);
 
@@ -469,7 +601,11 @@ public class AisStoreResource extends AbstractResource {
     @GET
     @Path("/scenario")
     @Produces(MEDIA_TYPE_KMZ)
-    public Response scenarioKmlGet(@Context UriInfo info) {
+    public void scenarioKmlGet(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> scenarioKmlGet(info));
+    }
+
+    private Response scenarioKmlGet(UriInfo info) {
         final QueryParameterHelper p = new QueryParameterHelper(info);
         requireNonNull(p.getArea(), "Missing box parameter.");
         return scenarioKmz(p.area, p.interval, p.title, p.description,
@@ -542,7 +678,8 @@ public class AisStoreResource extends AbstractResource {
         b.setInterval(interval);
 
         // Execute the query
-        AisStoreQueryResult queryResult = cassandraConnection().execute(b);
+        Iterable<AisPacket> queryResult = storeQueryMetrics().instrument("scenario",
+                cassandraConnection().execute(b), 200);
 
         // Apply filters
         Iterable<AisPacket> filteredQueryResult = Iterables.filter(queryResult,
@@ -619,9 +756,11 @@ public class AisStoreResource extends AbstractResource {
         // Execute the query
         AisStoreQueryBuilder b = AisStoreQueryBuilder.forMmsi(mmsi);
         b.setInterval(p.getInterval());
+        b.setFetchSize(DEFAULT_FETCH_SIZE);
 
         // Create the query
-        Iterable<AisPacket> query = cassandraConnection().execute(b);
+        Iterable<AisPacket> query = storeQueryMetrics().instrument("track", cassandraConnection().execute(b),
+                DEFAULT_FETCH_SIZE);
 
         // Apply filters from the user
         query = Iterables.filter(query, AisPacketFilters
@@ -647,9 +786,11 @@ public class AisStoreResource extends AbstractResource {
         // Execute the query
         AisStoreQueryBuilder b = AisStoreQueryBuilder.forMmsi(mmsi);
         b.setInterval(p.getInterval());
+        b.setFetchSize(DEFAULT_FETCH_SIZE);
 
         // Create the query
-        Iterable<AisPacket> query = cassandraConnection().execute(b);
+        Iterable<AisPacket> query = storeQueryMetrics().instrument("history", cassandraConnection().execute(b),
+                DEFAULT_FETCH_SIZE);
 
         final AisPacketFiltersStateful state = new AisPacketFiltersStateful();
 
@@ -673,6 +814,13 @@ public class AisStoreResource extends AbstractResource {
         return cassandraConnection;
     }
 
+    private StoreQueryMetrics storeQueryMetrics() {
+        return get(StoreQueryMetrics.class);
+    }
+
     private static final String MEDIA_TYPE_KMZ = "application/vnd.google-earth.kmz";
 
+    /** The fetch size used for queries where the user cannot choose one. */
+    private static final int DEFAULT_FETCH_SIZE = 3000;
+
 }
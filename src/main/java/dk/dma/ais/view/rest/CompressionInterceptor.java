@@ -0,0 +1,91 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import com.google.common.collect.ImmutableMap;
+
+import dk.dma.ais.view.common.util.Compression;
+
+/**
+ * Gzips responses for clients sending Accept-Encoding: gzip. Live streams and AisStore queries are compressed with
+ * {@link Compression#FAST}, as they are written while the data is produced, other responses with
+ * {@link Compression#DEFAULT}. Responses that already have a Content-Encoding, such as cached map responses, and
+ * responses in compressed formats are written as they are.
+ */
+@Provider
+public class CompressionInterceptor implements WriterInterceptor {
+
+    /** The compression level by the first segment of the path, other routes use {@link Compression#DEFAULT}. */
+    private static final Map<String, Integer> LEVELS = ImmutableMap.of("stream", Compression.FAST, "store",
+            Compression.FAST);
+
+    @Context
+    private HttpHeaders headers;
+
+    @Context
+    private UriInfo uriInfo;
+
+    /** {@inheritDoc} */
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        MultivaluedMap<String, Object> h = context.getHeaders();
+        if (h.containsKey(HttpHeaders.CONTENT_ENCODING) || isCompressed(context.getMediaType())) {
+            context.proceed();
+            return;
+        }
+        h.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (!Compression.acceptsGzip(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            context.proceed();
+            return;
+        }
+        h.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+        h.remove(HttpHeaders.CONTENT_LENGTH);
+        GZIPOutputStream os = Compression.gzip(context.getOutputStream(), level(uriInfo.getPath()));
+        context.setOutputStream(os);
+        context.proceed();
+        os.finish();
+    }
+
+    /** Returns the compression level of a path relative to the base URI. */
+    static int level(String path) {
+        String p = path.startsWith("/") ? path.substring(1) : path;
+        int i = p.indexOf('/');
+        Integer level = LEVELS.get(i < 0 ? p : p.substring(0, i));
+        return level == null ? Compression.DEFAULT : level;
+    }
+
+    private static boolean isCompressed(MediaType type) {
+        if (type == null) {
+            return false;
+        }
+        String t = type.getType() + "/" + type.getSubtype();
+        return t.startsWith("image/") || t.equals("application/zip") || t.equals("application/gzip")
+                || t.equals("application/vnd.google-earth.kmz");
+    }
+}
@@ -0,0 +1,166 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest;
+
+import static dk.dma.commons.web.rest.query.QueryParameterValidators.getParameter;
+import static dk.dma.commons.web.rest.query.QueryParameterValidators.getParameterAsIntWithRange;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import com.google.common.collect.Range;
+
+/**
+ * An opaque position within a paged response. A client asks for pages with the pageSize parameter, and gets the cursor
+ * of the next page in the {@value #HEADER} header and a Link header, as long as there are more results. The cursor is
+ * passed back in the cursor parameter together with the other parameters of the original request.
+ * <p>
+ * Tracker results are paged in ascending MMSI order, and the cursor holds the last MMSI returned. Results from the
+ * store are paged in time order, and the cursor holds the timestamp of the last packet returned and how many packets
+ * with that timestamp have been returned. A cursor also holds a hash of the other parameters of the request, so it is
+ * rejected if used with a different query.
+ * <p>
+ * Pages are not point-in-time consistent. Every page is read from the tracker or the store as it is when the page is
+ * requested, so a vessel can move between pages, and targets added or evicted meanwhile can be missed or returned
+ * twice. To make this detectable, a tracker page carries the epoch of the current tracker snapshot in the
+ * {@value #EPOCH_HEADER} header, and its cursor holds that epoch. A page requested with a cursor from another epoch
+ * has {@value #CHANGED_HEADER} set to true. Snapshots are retaken every tick while they are being read, so a changed
+ * epoch means that the tracker may have changed, not that it has.
+ */
+final class Cursor {
+
+    /** The response header holding the cursor of the next page. */
+    static final String HEADER = "X-Next-Cursor";
+
+    /** The response header holding the tracker snapshot epoch a tracker page was read at. */
+    static final String EPOCH_HEADER = "X-Tracker-Epoch";
+
+    /** The response header telling whether the epoch changed since the cursor of a tracker page was created. */
+    static final String CHANGED_HEADER = "X-Tracker-Changed";
+
+    static final int DEFAULT_PAGE_SIZE = 10000;
+
+    static final int MAX_PAGE_SIZE = 100000;
+
+    private static final byte VERSION = 2;
+
+    /** The length of a cursor of version 1, without an epoch. */
+    private static final int V1_LENGTH = 17;
+
+    private static final int LENGTH = 25;
+
+    /** A hash of the parameters of the query the cursor belongs to. */
+    final int query;
+
+    /** The tracker snapshot epoch the cursor was created at, 0 for store results. */
+    final long epoch;
+
+    /** The last MMSI or timestamp returned. */
+    final long position;
+
+    /** The number of results at the position already returned, only used for timestamps. */
+    final int skip;
+
+    private Cursor(int query, long epoch, long position, int skip) {
+        this.query = query;
+        this.epoch = epoch;
+        this.position = position;
+        this.skip = skip;
+    }
+
+    /** Creates the cursor of the next page of a request for store results. */
+    static Cursor next(UriInfo info, long position, int skip) {
+        return next(info, position, skip, 0);
+    }
+
+    /** Creates the cursor of the next page of a request for tracker results read at the specified epoch. */
+    static Cursor next(UriInfo info, long position, int skip, long epoch) {
+        return new Cursor(queryHash(info), epoch, position, skip);
+    }
+
+    String encode() {
+        ByteBuffer b = ByteBuffer.allocate(LENGTH);
+        b.put(VERSION).putInt(query).putLong(epoch).putLong(position).putInt(skip);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(b.array());
+    }
+
+    /** Returns the cursor of a request, or null if it is the first page. */
+    static Cursor find(UriInfo info) {
+        String s = getParameter(info, "cursor", null);
+        if (s == null || s.isEmpty()) {
+            return null;
+        }
+        Cursor c;
+        try {
+            ByteBuffer b = ByteBuffer.wrap(Base64.getUrlDecoder().decode(s));
+            int length = b.remaining();
+            byte version = length > 0 ? b.get() : 0;
+            if (version == VERSION && length == LENGTH) {
+                c = new Cursor(b.getInt(), b.getLong(), b.getLong(), b.getInt());
+            } else if (version == 1 && length == V1_LENGTH) {
+                c = new Cursor(b.getInt(), 0, b.getLong(), b.getInt()); // issued before an upgrade
+            } else {
+                throw badRequest("Invalid cursor [cursor=" + s + "]\n");
+            }
+        } catch (IllegalArgumentException e) {
+            throw badRequest("Invalid cursor [cursor=" + s + "]\n");
+        }
+        if (c.query != queryHash(info)) {
+            throw badRequest("The cursor belongs to a request with different parameters [cursor=" + s + "]\n");
+        }
+        return c;
+    }
+
+    /** Returns the page size of a request, or -1 if it is not paged. */
+    static int pageSize(UriInfo info) {
+        Integer size = getParameterAsIntWithRange(info, "pageSize", null, Range.closed(1, MAX_PAGE_SIZE));
+        if (size == null) {
+            return getParameter(info, "cursor", null) == null ? -1 : DEFAULT_PAGE_SIZE;
+        }
+        return size;
+    }
+
+    /** Adds the headers pointing to the next page to a response, if there is a next page. */
+    static Response.ResponseBuilder link(Response.ResponseBuilder response, UriInfo info, Cursor next) {
+        if (next != null) {
+            String c = next.encode();
+            response.header(HEADER, c);
+            response.header("Link", "<" + info.getRequestUriBuilder().replaceQueryParam("cursor", c).build()
+                    + ">; rel=\"next\"");
+        }
+        return response;
+    }
+
+    /** Hashes the query parameters except for the cursor and the page size, in a stable order. */
+    private static int queryHash(UriInfo info) {
+        Map<String, List<String>> params = new TreeMap<>(info.getQueryParameters());
+        params.remove("cursor");
+        params.remove("pageSize");
+        return params.hashCode();
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(message)
+                .type(MediaType.TEXT_PLAIN).build());
+    }
+}
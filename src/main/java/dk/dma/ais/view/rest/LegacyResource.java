@@ -14,7 +14,12 @@
  */
 package dk.dma.ais.view.rest;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import dk.dma.ais.data.AisTarget;
 import dk.dma.ais.data.AisVesselTarget;
 import dk.dma.ais.data.IPastTrack;
@@ -27,14 +32,25 @@ import dk.dma.ais.tracker.targetTracker.TargetInfo;
 import dk.dma.ais.tracker.targetTracker.TargetInfoToAisTarget;
 import dk.dma.ais.tracker.targetTracker.TargetTracker;
 import dk.dma.ais.view.common.util.CacheManager;
+import dk.dma.ais.view.common.util.CachedResponse;
+import dk.dma.ais.view.common.util.Compression;
 import dk.dma.ais.view.common.util.TargetInfoFilters;
 import dk.dma.ais.view.common.web.QueryParams;
 import dk.dma.ais.view.configuration.AisViewConfiguration;
 import dk.dma.ais.view.handler.AisViewHelper;
+import dk.dma.ais.view.rest.RequestExecutors.RequestClass;
+import dk.dma.ais.view.rest.binary.BinaryTargetList;
+import dk.dma.ais.view.rest.json.VesselCluster;
 import dk.dma.ais.view.rest.json.VesselClusterJsonRepsonse;
 import dk.dma.ais.view.rest.json.VesselList;
 import dk.dma.ais.view.rest.json.VesselListJsonResponse;
 import dk.dma.ais.view.rest.json.VesselTargetDetails;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.SourceAttribute;
+import dk.dma.ais.view.table.TableFilter;
+import dk.dma.ais.view.table.TrackerSnapshot;
+import dk.dma.ais.view.table.TrackerSnapshots;
+import dk.dma.ais.view.table.ViewTargetCache;
 import dk.dma.commons.web.rest.AbstractResource;
 import dk.dma.db.cassandra.CassandraConnection;
 import dk.dma.enav.model.Country;
@@ -46,10 +62,19 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -57,9 +82,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -75,6 +106,17 @@ public class LegacyResource extends AbstractResource {
     @SuppressWarnings("unused")
     private static final long TEN_MINUTE_BLOCK = 1000 * 60 * 10;
 
+    /** The number of decimals the bounding boxes of cached map polls are snapped to, 0.01 degrees is about 1 km. */
+    private static final int BBOX_DECIMALS = 2;
+
+    /** The parameters, besides the filters, that make up the key of a cached map poll. */
+    private static final List<String> CACHE_KEYS = ImmutableList.of("topLat", "topLon", "botLat", "botLon",
+            "requestId", "clusterLimit", "clusterSize");
+
+    /** The filter keys of source attributes indexed by the {@link LiveTargetTable}. */
+    private static final Set<String> SOURCE_KEYS = ImmutableSet.of("sourceCountry", "sourceRegion", "sourceBs",
+            "sourceType", "sourceSystem");
+
     /** */
     public LegacyResource() {
         this.handler = new AisViewHelper(new AisViewConfiguration());
@@ -141,32 +183,158 @@ public class LegacyResource extends AbstractResource {
     @GET
     @Path("anon_vessel_list")
     @Produces(MediaType.APPLICATION_JSON)
-    public VesselListJsonResponse anonVesselList(@Context UriInfo uriInfo) {
-        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
-        return vesselList(queryParams, false);
+    public void anonVesselList(@Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response,
+                () -> anonVesselList(uriInfo, headers, request));
+    }
+
+    private Response anonVesselList(UriInfo uriInfo, HttpHeaders headers, Request request) throws Exception {
+        QueryParams queryParams = new QueryParams(snapBbox(uriInfo.getQueryParameters()));
+        return cached("anon_vessel_list", queryParams, headers, request,
+                v -> CachedResponse.create(vesselList(queryParams, false, v), v.getValue()));
     }
 
     @GET
     @Path("vessel_list")
-    @Produces(MediaType.APPLICATION_JSON)
-    public VesselListJsonResponse vesselList(@Context UriInfo uriInfo) {
-        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
-        return vesselList(queryParams, false);
+    @Produces({ MediaType.APPLICATION_JSON, BinaryTargetList.MEDIA_TYPE })
+    public void vesselList(@Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response,
+                () -> vesselList(uriInfo, headers, request));
+    }
+
+    private Response vesselList(UriInfo uriInfo, HttpHeaders headers, Request request) throws Exception {
+        QueryParams queryParams = new QueryParams(snapBbox(uriInfo.getQueryParameters()));
+        if (BinaryTargetList.isRequested(uriInfo.getQueryParameters(), headers)) {
+            return cached("vessel_list.bin", queryParams, headers, request, v -> {
+                byte[] bytes = binaryVesselList(queryParams, v);
+                return CachedResponse.create(BinaryTargetList.MEDIA_TYPE, bytes, v.getValue());
+            });
+        }
+        return cached("vessel_list", queryParams, headers, request,
+                v -> CachedResponse.create(vesselList(queryParams, false, v), v.getValue()));
     }
 
     @GET
     @Path("vessel_clusters")
-    @Produces(MediaType.APPLICATION_JSON)
-    public VesselClusterJsonRepsonse vesselClusters(@Context UriInfo uriInfo) {
-        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
-        return cluster(queryParams);
+    @Produces({ MediaType.APPLICATION_JSON, BinaryTargetList.MEDIA_TYPE })
+    public void vesselClusters(@Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response,
+                () -> vesselClusters(uriInfo, headers, request));
+    }
+
+    private Response vesselClusters(UriInfo uriInfo, HttpHeaders headers, Request request) throws Exception {
+        QueryParams queryParams = new QueryParams(snapBbox(uriInfo.getQueryParameters()));
+        if (BinaryTargetList.isRequested(uriInfo.getQueryParameters(), headers)) {
+            return cached("vessel_clusters.bin", queryParams, headers, request, v -> {
+                byte[] bytes = (byte[]) cluster(queryParams, true, v);
+                return CachedResponse.create(BinaryTargetList.MEDIA_TYPE, bytes, v.getValue());
+            });
+        }
+        return cached("vessel_clusters", queryParams, headers, request,
+                v -> CachedResponse.create(cluster(queryParams, false, v), v.getValue()));
+    }
+
+    /** Computes a cached response, adding the targets it is built from to the versions. */
+    private interface ResponseLoader {
+        CachedResponse load(TargetVersions versions) throws Exception;
+    }
+
+    /**
+     * Returns the response of a map poll from the response cache, computing it if missing. Many clients poll with the
+     * same parameters, so a response is computed once per tick and shared by all of them, serialized and gzipped
+     * only once. Concurrent requests for a response not yet cached wait for the first of them to compute it. The
+     * entity tag of the response is derived from the targets it is built from, so it stays the same over ticks in
+     * which none of them changed.
+     *
+     * @param route
+     *            the name of the resource
+     * @param request
+     *            the parameters of the request, with the bounding box snapped to the grid
+     * @param httpRequest
+     *            the request, answered with 304 if the client already has the response
+     * @param loader
+     *            computes and serializes the response
+     */
+    private Response cached(String route, QueryParams request, HttpHeaders headers, Request httpRequest,
+            ResponseLoader loader) throws Exception {
+        String key = cacheKey(route, request);
+        CachedResponse r;
+        try {
+            r = get(CacheManager.class).getResponseCache().get(key, () -> loader.load(new TargetVersions(key)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        EntityTag tag = TargetVersions.tag(r.getETag());
+        Response notModified = TargetVersions.notModified(httpRequest, tag);
+        if (notModified != null) {
+            return notModified;
+        }
+        if (Compression.acceptsGzip(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            // the CompressionInterceptor leaves responses with a content encoding alone
+            return Response.ok(r.getGzip(), r.getMediaType()).tag(tag).header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        return Response.ok(r.getBytes(), r.getMediaType()).tag(tag).build();
+    }
+
+    /**
+     * Returns the key of a map poll in the response cache. Only parameters affecting the response are included, in a
+     * fixed order, so parameters such as cache busters added by browsers are ignored.
+     */
+    static String cacheKey(String route, QueryParams request) {
+        StringBuilder sb = new StringBuilder(route);
+        for (String key : CACHE_KEYS) {
+            String value = request.getFirst(key);
+            if (value != null) {
+                sb.append('&').append(key).append('=').append(value);
+            }
+        }
+        new TreeMap<>(new VesselListFilter(request).getFilterMap()).forEach((key, values) -> sb.append('&')
+                .append(key).append('=').append(String.join(",", new TreeSet<>(values))));
+        return sb.toString();
+    }
+
+    /**
+     * Returns a copy of the query parameters of a map poll with the bounding box widened to whole hundredths of a
+     * degree, so views that differ by a few pixels share a cached response. Bounding boxes across the date line are
+     * left as they are.
+     */
+    static MultivaluedMap<String, String> snapBbox(MultivaluedMap<String, String> parameters) {
+        MultivaluedMap<String, String> snapped = new MultivaluedHashMap<>(parameters);
+        QueryParams request = new QueryParams(parameters);
+        Double topLat = request.getDouble("topLat");
+        Double botLat = request.getDouble("botLat");
+        if (topLat != null && botLat != null && topLat >= botLat) {
+            snapped.putSingle("topLat", snap(Math.min(topLat, 90), true));
+            snapped.putSingle("botLat", snap(Math.max(botLat, -90), false));
+        }
+        Double topLon = request.getDouble("topLon");
+        Double botLon = request.getDouble("botLon");
+        if (topLon != null && botLon != null && topLon <= botLon) {
+            snapped.putSingle("topLon", snap(Math.max(topLon, -180), false));
+            snapped.putSingle("botLon", snap(Math.min(botLon, 180), true));
+        }
+        return snapped;
+    }
+
+    private static String snap(double degrees, boolean up) {
+        return BigDecimal.valueOf(degrees).setScale(BBOX_DECIMALS, up ? RoundingMode.CEILING : RoundingMode.FLOOR)
+                .stripTrailingZeros().toPlainString();
     }
 
     @GET
     @Path("vessel_target_details")
     @Produces(MediaType.APPLICATION_JSON)
-    public VesselTargetDetails vesselTargetDetails(@Context UriInfo uriInfo)
-            throws Exception {
+    public void vesselTargetDetails(@Context UriInfo uriInfo, @Context Request request,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response,
+                () -> vesselTargetDetails(uriInfo, request));
+    }
+
+    private Response vesselTargetDetails(UriInfo uriInfo, Request request) throws Exception {
         QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
         final Integer mmsi = Objects
                 .requireNonNull(queryParams.getInt("mmsi") != null ? queryParams
@@ -180,6 +348,13 @@ public class LegacyResource extends AbstractResource {
                 CacheManager.class).getPastTrackCache();
 
         TargetInfo ti = tt.get(mmsi);
+
+        // detail panels poll once a second, most often for a vessel that has not reported since
+        EntityTag tag = TargetVersions.tag(uriInfo, ti);
+        Response notModified = TargetVersions.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
         
         AisVesselTarget target = (AisVesselTarget)TargetInfoToAisTarget
                 .generateAisTarget(ti);
@@ -231,13 +406,17 @@ public class LegacyResource extends AbstractResource {
         VesselTargetDetails details = new VesselTargetDetails(target,
                 ti.getPacketSource(), mmsi, pt);
 
-        return details;
+        return Response.ok(details).tag(tag).build();
     }
 
     @GET
     @Path("vessel_search")
     @Produces(MediaType.APPLICATION_JSON)
-    public VesselList vesselSearch(@QueryParam("argument") String argument) {
+    public void vesselSearch(@QueryParam("argument") String argument, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response, () -> vesselSearch(argument));
+    }
+
+    private VesselList vesselSearch(String argument) {
         if (handler.getConf().isAnonymous()) {
             throw new WebApplicationException(Response.Status.FORBIDDEN);
         }
@@ -252,7 +431,50 @@ public class LegacyResource extends AbstractResource {
     }
 
     private VesselListJsonResponse vesselList(QueryParams request,
-            boolean anonymous) {
+            boolean anonymous, TargetVersions versions) {
+        // without source filters every target and count of the response is read from the same snapshot
+        TrackerSnapshot snapshot = get(TrackerSnapshots.class).current();
+
+        VesselList list = new VesselList();
+        selectVessels(request, snapshot).peek(versions::add).forEach(e -> list.addTarget(e, e.getMmsi()));
+        
+        // get count for all in world with source predicates.
+        list.setInWorldCount(snapshot.size());
+        versions.add(snapshot.size());
+
+        return new VesselListJsonResponse(getRequestId(request), list);
+    }
+
+    /** Returns the vessels of a vessel list in the {@link BinaryTargetList binary format}. */
+    private byte[] binaryVesselList(QueryParams request, TargetVersions versions) {
+        TrackerSnapshot snapshot = get(TrackerSnapshots.class).current();
+        ViewTargetCache views = get(ViewTargetCache.class);
+        List<BinaryTargetList.Vessel> vessels = selectVessels(request, snapshot).peek(versions::add)
+                .map(ti -> vessel(ti, views)).collect(Collectors.toList());
+        versions.add(snapshot.size());
+        BinaryTargetList list = new BinaryTargetList(BinaryTargetList.VESSEL_LIST, getRequestId(request),
+                snapshot.size(), handler.tryGetBbox(request));
+        list.vessels(vessels);
+        return list.toByteArray();
+    }
+
+    private static BinaryTargetList.Vessel vessel(TargetInfo ti, ViewTargetCache views) {
+        ViewTargetCache.Entry e = views.get(ti.getMmsi());
+        return BinaryTargetList.Vessel.of(ti, e == null ? null : e.getView());
+    }
+
+    private static int getRequestId(QueryParams request) {
+        Integer requestId = request.getInt("requestId");
+        return requestId == null ? -1 : requestId;
+    }
+
+    /**
+     * Returns a parallel stream of the vessels of a vessel list.
+     *
+     * @param snapshot
+     *            the snapshot to read the vessels from, unless the request filters on sources
+     */
+    private Stream<TargetInfo> selectVessels(QueryParams request, TrackerSnapshot snapshot) {
         final VesselListFilter filter = new VesselListFilter(request);
 
         TargetTracker tt = LegacyResource.this.get(TargetTracker.class);
@@ -264,25 +486,37 @@ public class LegacyResource extends AbstractResource {
        
         targetPredicate = targetPredicate.and(getTargetPredicates(filter));
 
-        Stream<TargetInfo>targets = tt.stream(getSourcePredicates(filter), targetPredicate);
-        
-        VesselList list = new VesselList();
-        targets.parallel().forEach(e -> list.addTarget(e, e.getMmsi()));
-        
-        // get count for all in world with source predicates.
-        list.setInWorldCount(tt.size());
+        boolean sourceFilter = hasSourceFilter(filter);
 
-        // Get request id
-        Integer requestId = request.getInt("requestId");
-        if (requestId == null) {
-            requestId = -1;
+        if (isTableFilter(filter, SOURCE_KEYS.size())) {
+            // select the targets from the live target table, and only read the selected ones from the tracker
+            TableFilter tableFilter = new TableFilter();
+            if (bbox != null) {
+                tableFilter.within(bbox);
+            }
+            if (filter.getFilterMap().containsKey("staticReport")) {
+                tableFilter.withStatic();
+            }
+            addSourceFilters(filter, tableFilter);
+            // the table matches each source attribute on its own, the tracker checks them against a single source
+            Predicate<AisPacketSource> sourcePredicate = getSourcePredicates(filter);
+            IntStream.Builder mmsis = IntStream.builder();
+            get(LiveTargetTable.class).forEach(tableFilter, (mmsi, latE7, lonE7) -> mmsis.add(mmsi));
+            return mmsis.build().parallel()
+                    .mapToObj(mmsi -> sourceFilter ? tt.get(mmsi, sourcePredicate) : snapshot.get(mmsi))
+                    .filter(Objects::nonNull);
         }
-
-        return new VesselListJsonResponse(requestId, list);
+        Stream<TargetInfo> targets = sourceFilter ? tt.stream(getSourcePredicates(filter), targetPredicate)
+                : snapshot.stream(targetPredicate);
+        return targets.parallel();
     }
 
 
-    private VesselClusterJsonRepsonse cluster(QueryParams request) {
+    /**
+     * Returns the vessel clusters of a request, as a {@link VesselClusterJsonRepsonse} or, if binary, in the
+     * {@link BinaryTargetList binary format}.
+     */
+    private Object cluster(QueryParams request, boolean binary, TargetVersions versions) {
         VesselListFilter filter = new VesselListFilter(request);
 
         // Extract cluster limit
@@ -311,18 +545,123 @@ public class LegacyResource extends AbstractResource {
                 request.getDouble("botLon"));
 
         TargetTracker tt = LegacyResource.this.get(TargetTracker.class);
+        TrackerSnapshot snapshot = get(TrackerSnapshots.class).current();
+        boolean sourceFilter = hasSourceFilter(filter);
+
+        int requestId = getRequestId(request);
+        // the listed vessels of each cluster, looked up again for the binary format
+        IntFunction<TargetInfo> lookup;
+        if (sourceFilter) {
+            Predicate<AisPacketSource> sourcePredicate = getSourcePredicates(filter);
+            lookup = mmsi -> tt.get(mmsi, sourcePredicate);
+        } else {
+            lookup = snapshot::get;
+        }
+        IntFunction<TargetInfo> targets = mmsi -> {
+            TargetInfo ti = lookup.apply(mmsi);
+            if (ti != null) {
+                versions.add(ti);
+            }
+            return ti;
+        };
+
+        VesselClusterJsonRepsonse response;
+        // clusters are counted from the table, which is only exact when filtering on at most one source attribute
+        if (isTableFilter(filter, 1)) {
+            TableFilter tableFilter = new TableFilter().withPosition().seenWithin(
+                    handler.getConf().getLiveTargetTtl());
+            if (bbox != null) {
+                tableFilter.within(bbox);
+            }
+            if (filter.getFilterMap().containsKey("staticReport")) {
+                tableFilter.withStatic();
+            }
+            addSourceFilters(filter, tableFilter);
+            response = handler.getClusterResponse(get(LiveTargetTable.class), tableFilter, targets, requestId, limit,
+                    size, snapshot.size());
+        } else {
+            Stream<TargetInfo> stream = sourceFilter ? tt.stream(getSourcePredicates(filter), targetPredicate)
+                    : snapshot.stream(targetPredicate);
+            response = handler.getClusterResponse(stream.peek(versions::add), requestId, limit, size, pointA, pointB,
+                    snapshot.size());
+        }
+        // the table counts vessels without reading them from the tracker
+        for (VesselCluster cluster : response.getClusters()) {
+            versions.add(Objects.hash(cluster.getFrom().getLatitude(), cluster.getFrom().getLongitude(),
+                    cluster.getCount()));
+        }
+        versions.add(snapshot.size());
+        if (!binary) {
+            return response;
+        }
 
-        Stream<TargetInfo> targets = tt.stream(
-                getSourcePredicates(filter), targetPredicate);
-        
-        // Get request id
-        Integer requestId = request.getInt("requestId");
-        if (requestId == null) {
-            requestId = -1;
+        ViewTargetCache views = get(ViewTargetCache.class);
+        BinaryTargetList list = new BinaryTargetList(BinaryTargetList.VESSEL_CLUSTERS, requestId, snapshot.size(),
+                bbox);
+        for (VesselCluster cluster : response.getClusters()) {
+            List<BinaryTargetList.Vessel> vessels = new ArrayList<>();
+            for (int mmsi : cluster.getVessels().getVessels().keySet()) {
+                TargetInfo ti = lookup.apply(mmsi);
+                if (ti != null) {
+                    vessels.add(vessel(ti, views));
+                }
+            }
+            list.cluster(cluster.getFrom(), cluster.getTo(), cluster.getCount(), cluster.getDensity(), vessels);
+        }
+        return list.toByteArray();
+    }
+
+    /**
+     * Returns whether the targets of a filter can be selected with the {@link LiveTargetTable}. The table holds the
+     * latest state of each vessel, not of each source, so country filters are applied to the tracker.
+     *
+     * @param maxSourceKeys
+     *            the maximum number of source attributes that may be filtered on
+     */
+    private static boolean isTableFilter(VesselListFilter filter, int maxSourceKeys) {
+        int sourceKeys = 0;
+        for (String key : filter.getFilterMap().keySet()) {
+            if (SOURCE_KEYS.contains(key)) {
+                sourceKeys++;
+            } else if (!key.equals("staticReport") && !key.equals("vesselClass")) {
+                return false;
+            }
         }
+        return sourceKeys <= maxSourceKeys;
+    }
 
-        return handler.getClusterResponse(targets, requestId, limit,
-                size, pointA, pointB, tt.size());
+    /**
+     * Returns whether a request filters on sources. A {@link TrackerSnapshot} holds the latest state of each vessel
+     * from any source, so these requests read the state of the selected sources from the tracker instead.
+     */
+    private static boolean hasSourceFilter(VesselListFilter filter) {
+        return filter.getFilterMap().keySet().stream().anyMatch(SOURCE_KEYS::contains);
+    }
+
+    /** Adds the source filters of a request to a table filter, see {@link #getSourcePredicate}. */
+    private static void addSourceFilters(VesselListFilter filter, TableFilter tableFilter) {
+        for (Map.Entry<String, HashSet<String>> e : filter.getFilterMap().entrySet()) {
+            HashSet<String> values = e.getValue();
+            switch (e.getKey()) {
+            case "sourceCountry":
+                tableFilter.source(SourceAttribute.COUNTRY, Country.findAllByCode(values.toArray(new String[0])));
+                break;
+            case "sourceRegion":
+                tableFilter.source(SourceAttribute.REGION, values);
+                break;
+            case "sourceBs":
+                tableFilter.source(SourceAttribute.BASE_STATION,
+                        values.stream().map(Ints::tryParse).filter(Objects::nonNull).collect(Collectors.toList()));
+                break;
+            case "sourceType":
+                SourceType type = SourceType.fromString(values.iterator().next());
+                tableFilter.source(SourceAttribute.TYPE, type == null ? ImmutableSet.of() : ImmutableSet.of(type));
+                break;
+            case "sourceSystem":
+                tableFilter.source(SourceAttribute.ID, values);
+                break;
+            }
+        }
     }
 
 
@@ -351,9 +690,12 @@ public class LegacyResource extends AbstractResource {
             case "sourceBs":
                 ArrayList<Integer> ints = new ArrayList<>(values.length);
                 for (String string : values) {
-                    ints.add(Integer.getInteger(string));
+                    Integer i = Ints.tryParse(string);
+                    if (i != null) {
+                        ints.add(i);
+                    }
                 }
-                Integer[] integers = (Integer[]) ints.toArray();
+                Integer[] integers = ints.toArray(new Integer[0]);
                 return AisPacketSourceFilters
                         .filterOnSourceBasestation(integers);
             case "sourceType":
@@ -15,21 +15,32 @@
 package dk.dma.ais.view.rest;
 
 import dk.dma.ais.packet.AisPacketStream;
-import dk.dma.ais.packet.AisPacketStream.Subscription;
 import dk.dma.ais.reader.AisReaderGroup;
-import dk.dma.commons.util.io.CountingOutputStream;
+import dk.dma.ais.view.live.LiveSubscription;
+import dk.dma.ais.view.live.LiveSubscriptions;
+import dk.dma.ais.view.live.OverflowPolicy;
+import dk.dma.ais.view.live.PacketReplayBuffer;
+import dk.dma.ais.view.live.PacketStreamSubscription;
+import dk.dma.ais.view.live.SseSubscription;
+import dk.dma.ais.view.rest.RequestExecutors.RequestClass;
 import dk.dma.commons.web.rest.AbstractResource;
+import dk.dma.commons.web.rest.query.QueryParameterValidators;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.TimeUnit;
+import java.util.Collection;
 
 /**
  * 
@@ -38,6 +49,18 @@ import java.util.concurrent.TimeUnit;
 @Path("/")
 public class LiveDataResource extends AbstractResource {
 
+    /** The default number of packets that can be queued for a single client. */
+    static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    /** By default we flush to the client once this many bytes are pending. */
+    static final int DEFAULT_FLUSH_BYTES = 16 * 1024;
+
+    /** By default we flush to the client once the oldest pending packet is this old. */
+    static final int DEFAULT_FLUSH_MILLIS = 50;
+
+    /** The media type of Server-Sent Events. */
+    static final String TEXT_EVENT_STREAM = "text/event-stream";
+
     /**
      * @param handler
      */
@@ -46,6 +69,11 @@ public class LiveDataResource extends AbstractResource {
     }
     
     private StreamingOutput newStreamingOutput(final QueryParameterHelper p, final UriInfo info) {
+        final int queueSize = findQueueSize(info);
+        final int flushBytes = QueryParameterValidators.getParameterAsInt(info, "flushBytes", DEFAULT_FLUSH_BYTES);
+        final int flushMillis = QueryParameterValidators.getParameterAsInt(info, "flushMillis", DEFAULT_FLUSH_MILLIS);
+        final OverflowPolicy policy = findOverflowPolicy(info);
+
         return new StreamingOutput() {
             public void write(final OutputStream os) throws IOException {
                 AisPacketStream s = LiveDataResource.this.get(
@@ -53,58 +81,127 @@ public class LiveDataResource extends AbstractResource {
                 s = p.applyPacketFilter(s);
                 s = p.applyLimitFilter(s);
 
-                CountingOutputStream cos = new CountingOutputStream(os);
-                // We flush the sink after each written line, to be more
-                // responsive
-                Subscription ss = s.subscribeSink(p.getOutputSink()
-                        .newFlushEveryTimeSink(), cos);
-
-                // Since this is an infinite stream. We await for the user to
-                // cancel the subscription.
-                // For example, by killing the process (curl, wget, ..) they are
-                // using to retrieve the data with
-                // in which the case AisPacketStream.CANCEL will be thrown and
-                // awaitCancelled will be released
-
-                // If the user has an expression such as source=id=SDFWER we
-                // will never return any data to the
-                // client.Therefore we will never try to write any data to the
-                // socket.
-                // Therefore we will never figure out when the socket it closed.
-                // Because we will never get the
-                // exception. Instead we close the connection after 24 hours if
-                // nothing has been written.
-                long lastCount = 0;
-                for (;;) {
-                    try {
-                        if (ss.awaitCancelled(1, TimeUnit.DAYS)) {
-                            return;
-                        } else if (lastCount == cos.getCount()) {
-                            ss.cancel(); // No data written in one day, closing
-                                         // the stream
-                        }
-                        lastCount = cos.getCount();
-                    } catch (InterruptedException ignore) {
-                    } finally {
-                        ss.cancel(); // just in case an InterruptedException is
-                                     // thrown
-                    }
+                // The delivering thread only puts packets in the bounded queue of the subscription,
+                // they are written and flushed in batches by this thread.
+                LiveSubscriptions subscriptions = LiveDataResource.this.get(LiveSubscriptions.class);
+                PacketStreamSubscription ls = new PacketStreamSubscription(subscriptions.nextId(), info
+                        .getRequestUri().toString(), p.getOutputSink(), queueSize, policy, flushBytes, flushMillis);
+                subscriptions.add(ls);
+                try {
+                    ls.subscribeTo(s);
+                    // Since this is an infinite stream, this returns when the user cancels the subscription.
+                    // For example, by killing the process (curl, wget, ..) they are using to retrieve the data with.
+                    ls.writeTo(os);
+                } finally {
+                    subscriptions.remove(ls);
                 }
             }
         };
      
     }
 
+    private StreamingOutput newEventStreamingOutput(final QueryParameterHelper p, final UriInfo info,
+            final long lastEventId) {
+        final int queueSize = findQueueSize(info);
+        final int flushBytes = QueryParameterValidators.getParameterAsInt(info, "flushBytes", DEFAULT_FLUSH_BYTES);
+        final int flushMillis = QueryParameterValidators.getParameterAsInt(info, "flushMillis", DEFAULT_FLUSH_MILLIS);
+        final OverflowPolicy policy = findOverflowPolicy(info);
+
+        return new StreamingOutput() {
+            public void write(final OutputStream os) throws IOException {
+                LiveSubscriptions subscriptions = LiveDataResource.this.get(LiveSubscriptions.class);
+                SseSubscription ls = new SseSubscription(subscriptions.nextId(), info.getRequestUri().toString(),
+                        LiveDataResource.this.get(PacketReplayBuffer.class), p.getOutputSink(), p.packetFilter,
+                        queueSize, policy, flushBytes, flushMillis);
+                subscriptions.add(ls);
+                try {
+                    ls.subscribe(lastEventId);
+                    ls.writeTo(os);
+                } finally {
+                    subscriptions.remove(ls);
+                }
+            }
+        };
+    }
+
+    private static long findLastEventId(String header, UriInfo info) {
+        String id = header != null ? header : QueryParameterValidators.getParameter(info, "lastEventId", null);
+        if (id == null || id.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(id.trim()));
+        } catch (NumberFormatException e) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid event id [Last-Event-ID=" + id + "], must be a number\n")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+    }
+
+    private static int findQueueSize(UriInfo info) {
+        int queueSize = QueryParameterValidators.getParameterAsInt(info, "queueSize", DEFAULT_QUEUE_SIZE);
+        if (queueSize <= 0) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid queue size [queueSize=" + queueSize + "], must be positive\n")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+        return queueSize;
+    }
+
+    private static OverflowPolicy findOverflowPolicy(UriInfo info) {
+        String overflow = QueryParameterValidators.getParameter(info, "overflow", "drop_oldest");
+        try {
+            return OverflowPolicy.fromString(overflow);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity("Unknown overflow policy [overflow=" + overflow
+                            + "], must be one of drop_oldest, drop_newest or disconnect\n")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+    }
+
+    /** Returns the currently open live subscriptions, including the number of packets dropped for each of them. */
+    @GET
+    @Path("/stream/subscriptions")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Collection<LiveSubscription<?>> subscriptions() {
+        return get(LiveSubscriptions.class).list();
+    }
 
     /** Returns a live stream of all incoming data. */
     @GET
     @Path("/stream")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput livestream(@Context UriInfo info) {
+    public void livestream(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.LIVE, response, () -> livestream(info));
+    }
+
+    private StreamingOutput livestream(UriInfo info) {
         final QueryParameterHelper p = new QueryParameterHelper(info);
         return newStreamingOutput(p, info);
     }
 
+    /**
+     * Returns a live stream of all incoming data as Server-Sent Events. A client reconnecting with a Last-Event-ID
+     * header, or a lastEventId query parameter, is first sent the packets it missed.
+     */
+    @GET
+    @Path("/stream/sse")
+    @Produces(TEXT_EVENT_STREAM)
+    public void eventStream(@Context UriInfo info, @HeaderParam("Last-Event-ID") String lastEventIdHeader,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.LIVE, response, () -> eventStream(info, lastEventIdHeader));
+    }
+
+    private Response eventStream(UriInfo info, String lastEventIdHeader) {
+        final QueryParameterHelper p = new QueryParameterHelper(info);
+        long lastEventId = findLastEventId(lastEventIdHeader, info);
+        // Ask proxies not to buffer or cache the stream
+        return Response.ok(newEventStreamingOutput(p, info, lastEventId)).header("Cache-Control", "no-cache")
+                .header("X-Accel-Buffering", "no").build();
+    }
+
 }
 
 
@@ -0,0 +1,54 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest;
+
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import dk.dma.ais.view.metrics.LatencyHistograms;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+import dk.dma.commons.web.rest.AbstractResource;
+
+/**
+ * Operational metrics of the running server.
+ */
+@Path("/metrics")
+public class MetricsResource extends AbstractResource {
+
+    /** Returns all metrics in the Prometheus text format. */
+    @GET
+    @Produces(MetricsRegistry.CONTENT_TYPE)
+    public String metrics() {
+        return get(MetricsRegistry.class).scrape();
+    }
+
+    /**
+     * Returns the latency percentiles of every route in milliseconds, since startup or since the last reset.
+     *
+     * @param reset
+     *            whether to reset the histograms after they have been read
+     */
+    @GET
+    @Path("/latency")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, Object>> latency(@QueryParam("reset") boolean reset) {
+        return get(LatencyHistograms.class).summary(reset);
+    }
+}
@@ -0,0 +1,211 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.EnumMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * Separate thread pools for the different kinds of requests served. Resources suspend the request and hand the actual
+ * work to the pool of its class, so the Jetty worker is released immediately, and a burst of long running exports
+ * cannot starve the map clients.
+ * <p>
+ * Optionally, streaming and live requests can be run on a new virtual thread per request instead, in which case the
+ * streaming and live pool sizes do not apply. This mode has not been measured against the pools. Virtual threads
+ * require Java 21 or later, on older runtimes the pools are used.
+ */
+public class RequestExecutors {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(RequestExecutors.class);
+
+    /** The kinds of requests, each served by a pool of its own. */
+    public enum RequestClass {
+        /** Short reads of the current state of the tracker, such as vessel_list. */
+        INTERACTIVE(1000),
+
+        /** Long running queries against AisStore, including exports. */
+        STREAMING(100),
+
+        /**
+         * Live streams, which hold on to their thread until the client disconnects. Requests are never queued as a
+         * queued client would not be served until another one disconnects.
+         */
+        LIVE(0);
+
+        final int queueSize;
+
+        private RequestClass(int queueSize) {
+            this.queueSize = queueSize;
+        }
+    }
+
+    private final EnumMap<RequestClass, ExecutorService> executors = new EnumMap<>(RequestClass.class);
+
+    private final EnumMap<RequestClass, AtomicInteger> active = new EnumMap<>(RequestClass.class);
+
+    /**
+     * @param interactiveThreads
+     *            the maximum number of concurrent interactive requests
+     * @param streamingThreads
+     *            the maximum number of concurrent streaming requests
+     * @param liveThreads
+     *            the maximum number of concurrent live streams
+     */
+    public RequestExecutors(int interactiveThreads, int streamingThreads, int liveThreads) {
+        this(interactiveThreads, streamingThreads, liveThreads, false);
+    }
+
+    /**
+     * @param interactiveThreads
+     *            the maximum number of concurrent interactive requests
+     * @param streamingThreads
+     *            the maximum number of concurrent streaming requests, ignored if virtual threads are used
+     * @param liveThreads
+     *            the maximum number of concurrent live streams, ignored if virtual threads are used
+     * @param virtualThreads
+     *            whether to run streaming and live requests on virtual threads, interactive requests are CPU bound
+     *            and always use a pool
+     */
+    public RequestExecutors(int interactiveThreads, int streamingThreads, int liveThreads, boolean virtualThreads) {
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        executors.put(RequestClass.INTERACTIVE, newExecutor(RequestClass.INTERACTIVE, interactiveThreads));
+        executors.put(RequestClass.STREAMING,
+                virtual != null ? virtual : newExecutor(RequestClass.STREAMING, streamingThreads));
+        executors.put(RequestClass.LIVE, virtual != null ? virtual : newExecutor(RequestClass.LIVE, liveThreads));
+        for (RequestClass c : RequestClass.values()) {
+            active.put(c, new AtomicInteger());
+        }
+    }
+
+    /** Returns an executor starting a new virtual thread per task, or null if not supported by the runtime. */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively so we can still be compiled for and run on older runtimes
+            ExecutorService e = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            LOG.info("Running streaming and live requests on virtual threads");
+            return e;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Virtual threads are not supported by this runtime (Java " + System.getProperty("java.version")
+                    + "), using thread pools instead");
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(RequestClass requestClass, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of " + requestClass.name().toLowerCase()
+                    + " threads must be positive, was " + threads);
+        }
+        BlockingQueue<Runnable> queue = requestClass.queueSize == 0 ? new SynchronousQueue<>()
+                : new ArrayBlockingQueue<>(requestClass.queueSize);
+        ThreadPoolExecutor e = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("aisview-" + requestClass.name().toLowerCase() + "-%d").build());
+        e.allowCoreThreadTimeOut(true);
+        return e;
+    }
+
+    /**
+     * Computes the response of a suspended request in the pool of the specified class. If the pool and its queue are
+     * full, the request is answered with 503 Service Unavailable.
+     *
+     * @param requestClass
+     *            the class of the request
+     * @param response
+     *            the suspended response
+     * @param task
+     *            computes the entity of the response, any exception thrown is mapped as if thrown by the resource
+     */
+    public void resume(RequestClass requestClass, AsyncResponse response, Callable<?> task) {
+        requireNonNull(response);
+        requireNonNull(task);
+        final AtomicInteger counter = active.get(requestClass);
+        try {
+            executors.get(requestClass).execute(() -> {
+                counter.incrementAndGet();
+                try {
+                    // A StreamingOutput is written by the thread that resumes the response, that is this one
+                    response.resume(task.call());
+                } catch (Throwable t) {
+                    response.resume(t);
+                } finally {
+                    counter.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.resume(new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", 1)
+                    .entity("Too many concurrent " + requestClass.name().toLowerCase() + " requests, try again later\n")
+                    .type(MediaType.TEXT_PLAIN).build()));
+        }
+    }
+
+    /** Returns the number of requests of the specified class currently being served. */
+    public int getActiveCount(RequestClass requestClass) {
+        return active.get(requestClass).get();
+    }
+
+    /** Returns the number of requests of the specified class waiting for a thread. */
+    public int getQueued(RequestClass requestClass) {
+        ExecutorService e = executors.get(requestClass);
+        return e instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) e).getQueue().size() : 0;
+    }
+
+    /** Returns whether requests of the specified class are run on virtual threads. */
+    public boolean isVirtual(RequestClass requestClass) {
+        return !(executors.get(requestClass) instanceof ThreadPoolExecutor);
+    }
+
+    /** Exposes the number of active and queued requests per class in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        for (RequestClass c : RequestClass.values()) {
+            String name = c.name().toLowerCase();
+            registry.gauge("aisview_requests_active", "The number of requests being served", () -> getActiveCount(c),
+                    "class", name);
+            registry.gauge("aisview_requests_queued", "The number of requests waiting for a thread", () -> getQueued(c),
+                    "class", name);
+        }
+    }
+
+    /** Stops accepting new requests. */
+    public void shutdown() {
+        executors.values().forEach(ExecutorService::shutdown);
+    }
+}
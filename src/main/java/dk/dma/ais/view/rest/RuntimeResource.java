@@ -15,6 +15,7 @@
 package dk.dma.ais.view.rest;
 
 import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.table.LiveTargetTable;
 import dk.dma.commons.web.rest.AbstractResource;
 
 import javax.servlet.ServletConfig;
@@ -36,6 +37,9 @@ public class RuntimeResource extends AbstractResource {
     @Path("/targetCount")
     public int targetCount(@Context ServletConfig config, @Context UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
+        if (qh.getSourcePredicate() == null) {
+            return get(LiveTargetTable.class).size();
+        }
         return (int) get(TargetTracker.class).streamSequential(qh.getSourcePredicate(), qh.getTargetPredicate()).count();
     }
 
@@ -0,0 +1,115 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+
+/**
+ * Derives the entity tag of a response from the versions of the targets it is built from, so a client polling a
+ * response that has not changed gets a 304 instead of the same body. The version of a target is its MMSI and the
+ * timestamps of its latest position and static reports. Versions are combined independently of order, so targets may
+ * be added from parallel streams.
+ * <p>
+ * Tags are weak, as the same tag is sent with both the plain and the gzipped body, and responses may carry the time
+ * they were made.
+ */
+final class TargetVersions {
+
+    /** What the response is, besides its targets, such as the request URI and the format. */
+    private final String variant;
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAdder count = new LongAdder();
+
+    TargetVersions(String variant) {
+        this.variant = variant;
+    }
+
+    /** Adds a target the response is built from. */
+    void add(TargetInfo ti) {
+        add(mix(ti.getMmsi() ^ mix(ti.getPositionTimestamp() ^ mix(ti.getStaticTimestamp()))));
+    }
+
+    /** Adds any other value the response is built from, such as a count. */
+    void add(long value) {
+        sum.add(mix(value));
+        count.increment();
+    }
+
+    /** Returns the value of the tag, to be passed to {@link #tag(String)}. */
+    String getValue() {
+        Hasher h = Hashing.murmur3_128().newHasher();
+        h.putString(variant, StandardCharsets.UTF_8);
+        h.putLong(sum.sum());
+        h.putLong(count.sum());
+        return h.hash().toString();
+    }
+
+    EntityTag tag() {
+        return tag(getValue());
+    }
+
+    static EntityTag tag(String value) {
+        return new EntityTag(value, true);
+    }
+
+    /** Returns the tag of a response built from a single target, which may be null. */
+    static EntityTag tag(UriInfo info, TargetInfo ti) {
+        TargetVersions versions = new TargetVersions(variant(info));
+        if (ti != null) {
+            versions.add(ti);
+        }
+        return versions.tag();
+    }
+
+    /** Returns the path and the query parameters of a request, in a stable order. */
+    static String variant(UriInfo info) {
+        Map<String, ?> params = new TreeMap<>(info.getQueryParameters());
+        return info.getPath() + params;
+    }
+
+    /**
+     * Returns a 304 response if the client already has the response with the specified tag, otherwise null. Invoked
+     * before the response is serialized.
+     */
+    static Response notModified(Request request, EntityTag tag) {
+        Response.ResponseBuilder b = request.evaluatePreconditions(tag);
+        return b == null ? null : b.build();
+    }
+
+    /** The finalizer of MurmurHash3, spreading the bits of a value over all 64 bits. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -20,6 +20,10 @@ import dk.dma.ais.packet.AisPacketSource;
 import dk.dma.ais.tracker.targetTracker.TargetInfo;
 import dk.dma.ais.tracker.targetTracker.TargetTracker;
 import dk.dma.ais.view.common.util.TargetInfoFilters;
+import dk.dma.ais.view.rest.RequestExecutors.RequestClass;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.SourceAttribute;
+import dk.dma.ais.view.table.TableFilter;
 import dk.dma.commons.util.JSONObject;
 import dk.dma.commons.web.rest.StreamingUtil;
 
@@ -27,14 +31,19 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.Objects;
+import java.util.TreeSet;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -55,20 +64,12 @@ public class TrackerResource extends AbstractTrackerResource {
      */
     @GET
     @Path("/source/ids")
-    public JSONObject getSourceIDs() {
-        
-        TargetTracker tt = TrackerResource.this.get(TargetTracker.class);
-        
-        ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<>();
-        
-        tt.stream(source -> {
-            if (source.getSourceId() != null) {
-                ids.add(source.getSourceId());
-            }
-            return false;
-        }, target -> true);
-        
-        return JSONObject.singleList("sourceIDs", ids.toArray());
+    public void getSourceIDs(@Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response, () -> getSourceIDs());
+    }
+
+    private JSONObject getSourceIDs() {
+        return JSONObject.singleList("sourceIDs", sourceValues(SourceAttribute.ID));
     }
     
     /**
@@ -77,29 +78,32 @@ public class TrackerResource extends AbstractTrackerResource {
      */
     @GET
     @Path("/source/regions")
-    public JSONObject getSourceRegions() {
-        
-        TargetTracker tt = TrackerResource.this.get(TargetTracker.class);
-        
-        ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<String>();
-        
-        tt.stream(source -> {
-            if (source.getSourceRegion() != null) {
-                ids.add(source.getSourceRegion());
-            }
-            return false;
-        }, target -> true);
-        
-        
-        return JSONObject.singleList("sourceregions", ids.toArray());
+    public void getSourceRegions(@Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response, () -> getSourceRegions());
+    }
+
+    private JSONObject getSourceRegions() {
+        return JSONObject.singleList("sourceregions", sourceValues(SourceAttribute.REGION));
+    }
+
+    /** Returns the distinct values of a source attribute, sorted, as indexed by the live target table. */
+    private Object[] sourceValues(SourceAttribute attribute) {
+        return new TreeSet<>(get(LiveTargetTable.class).values(attribute)).toArray();
     }
     
     
     @GET
     @Path("/count/targetinfo")
     @Produces(MediaType.TEXT_PLAIN)
-    public int getTargetInfoCount(@Context UriInfo info) {
+    public void getTargetInfoCount(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response, () -> getTargetInfoCount(info));
+    }
+
+    private int getTargetInfoCount(UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
+        if (qh.getSourcePredicate() == null) {
+            return countInTable(qh);
+        }
         Predicate<AisPacketSource> predSource = (qh.getSourcePredicate() == null) ? e->true : qh.getSourcePredicate();
         Predicate<TargetInfo> predTarget = qh.getTargetPredicate();
         predTarget = (predTarget == null) ? e -> true : predTarget;        
@@ -107,11 +111,27 @@ public class TrackerResource extends AbstractTrackerResource {
         return (int) get(TargetTracker.class).stream(predSource, predTarget).count();
     }    
 
+    /** Counts the targets within the area of the query, if any, using the live target table. */
+    private int countInTable(QueryParameterHelper qh) {
+        TableFilter filter = new TableFilter();
+        if (qh.area != null) {
+            filter.within(qh.area);
+        }
+        return get(LiveTargetTable.class).count(filter);
+    }
+
     @GET
     @Path("/count")
     @Produces(MediaType.TEXT_PLAIN)
-    public int getCount(@Context UriInfo info) {
+    public void getCount(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response, () -> getCount(info));
+    }
+
+    private int getCount(UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
+        if (qh.getSourcePredicate() == null) {
+            return countInTable(qh);
+        }
         Predicate<AisPacketSource> predSource = (qh.getSourcePredicate() == null) ? e->true : qh.getSourcePredicate();
         Predicate<TargetInfo> predTarget = qh.getTargetPredicate();
         predTarget = (predTarget == null) ? e -> true : predTarget;        
@@ -122,8 +142,13 @@ public class TrackerResource extends AbstractTrackerResource {
     @GET
     @Path("/static/{mmsi : \\d+}")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput getStaticInfo(@Context UriInfo info,
-            @PathParam("mmsi") int mmsi) {
+    public void getStaticInfo(@Context UriInfo info, @Context Request request, @PathParam("mmsi") int mmsi,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response,
+                () -> getStaticInfo(info, request, mmsi));
+    }
+
+    private Response getStaticInfo(UriInfo info, Request request, int mmsi) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
 
         Predicate<AisPacketSource> pred = qh.getSourcePredicate();
@@ -131,18 +156,27 @@ public class TrackerResource extends AbstractTrackerResource {
 
         TargetTracker tt = get(TargetTracker.class);
         TargetInfo ti = tt.get(mmsi, pred);
+        EntityTag tag = TargetVersions.tag(info, ti);
+        Response notModified = TargetVersions.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
         List<AisPacket> l = java.util.Arrays.asList(ti.getStaticPackets());
 
         Iterable<AisPacket> p = applyFilters(l.stream(), qh);
         
-        return StreamingUtil.createStreamingOutput(p,
-                qh.getOutputSink());
+        return Response.ok(StreamingUtil.createStreamingOutput(p,
+                qh.getOutputSink())).tag(tag).build();
     }
 
     @GET
     @Path("/static/")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput getStatics(@Context UriInfo info) {
+    public void getStatics(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getStatics(info));
+    }
+
+    private StreamingOutput getStatics(UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
 
         Predicate<AisPacketSource> predSource = qh.getSourcePredicate();
@@ -156,28 +190,23 @@ public class TrackerResource extends AbstractTrackerResource {
 
         TargetTracker tt = get(TargetTracker.class);
 
-        Stream<TargetInfo> s = tt.stream(predSource, predTarget);
-
-        Stream<AisPacket[]> sPackets = s.map(e -> e.getStaticPackets());
-
-        final ConcurrentLinkedDeque<AisPacket> packets = new ConcurrentLinkedDeque<AisPacket>();
-        sPackets.forEach(e -> {
-            for (int i = 0; i < e.length; i++) {
-                packets.add(e[i]);
-            }
-        });
+        Stream<TargetInfo> s = tt.streamSequential(predSource, predTarget);
 
-        Iterable<AisPacket> p = applyFilters(packets.stream(), qh);
+        Stream<AisPacket> packets = s.map(e -> e.getStaticPackets()).filter(Objects::nonNull).flatMap(Arrays::stream);
 
-        return StreamingUtil.createStreamingOutput(p,
-                qh.getOutputSink());
+        return createStreamingOutput(applyPacketFilter(packets, qh), qh.getOutputSink());
     }
 
     @GET
     @Path("/dynamic/{mmsi : \\d+}")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput getPositionInfo(@Context UriInfo info,
-            @PathParam("mmsi") int mmsi) {
+    public void getPositionInfo(@Context UriInfo info, @Context Request request, @PathParam("mmsi") int mmsi,
+            @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.INTERACTIVE, response,
+                () -> getPositionInfo(info, request, mmsi));
+    }
+
+    private Response getPositionInfo(UriInfo info, Request request, int mmsi) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
 
         Predicate<AisPacketSource> pred = qh.getSourcePredicate();
@@ -185,6 +214,11 @@ public class TrackerResource extends AbstractTrackerResource {
 
         TargetTracker tt = get(TargetTracker.class);
         TargetInfo ti = tt.get(mmsi, pred);
+        EntityTag tag = TargetVersions.tag(info, ti);
+        Response notModified = TargetVersions.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
 
         // convert TargetInfo to Stream<AisPacket> and then Iterable<AisPacket>
         // after applying filters
@@ -192,14 +226,18 @@ public class TrackerResource extends AbstractTrackerResource {
                 Arrays.asList(new TargetInfo[] { ti }).stream()
                         .map(e -> e.getPositionPacket()), qh);
 
-        return StreamingUtil.createStreamingOutput(packets,
-                qh.getOutputSink());
+        return Response.ok(StreamingUtil.createStreamingOutput(packets,
+                qh.getOutputSink())).tag(tag).build();
     }
 
     @GET
     @Path("/dynamic/")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput getPositions(@Context UriInfo info) {
+    public void getPositions(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getPositions(info));
+    }
+
+    private StreamingOutput getPositions(UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
         Predicate<AisPacketSource> predSource = qh.getSourcePredicate();
         predSource = (predSource == null) ? e -> true : predSource;
@@ -210,37 +248,46 @@ public class TrackerResource extends AbstractTrackerResource {
 
         TargetTracker tt = get(TargetTracker.class);
 
-        Stream<TargetInfo> s = tt.stream(predSource, predTarget);
-        Stream<AisPacket> sPacket = s.map(e -> e.getPositionPacket()).filter(
-                o -> o != null);
-
-        Iterable<AisPacket> packets = applyFilters(sPacket, qh);
+        Stream<TargetInfo> s = tt.streamSequential(predSource, predTarget);
+        Stream<AisPacket> packets = s.map(e -> e.getPositionPacket()).filter(Objects::nonNull);
 
-        
-        
-        return StreamingUtil.createStreamingOutput(packets,
-                qh.getOutputSink());
+        return createStreamingOutput(applyPacketFilter(packets, qh), qh.getOutputSink());
     }
 
     @GET
     @Path("/packets/json")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput getPacketsJson(@Context UriInfo info) {
+    public void getPacketsJson(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getPacketsJson(info));
+    }
+
+    private Object getPacketsJson(UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
+        int pageSize = Cursor.pageSize(info);
+        if (pageSize > 0) {
+            return getPage(info, qh, pageSize, mmsis -> createStreamingOutput(getPacketStream(qh, mmsis),
+                    AisPacketOutputSinks.jsonMessageSink()));
+        }
         Stream<AisPacket> packets = getPacketStream(info, qh);
-        return StreamingUtil.createStreamingOutput(
-                (Iterable<AisPacket>) packets::iterator,
-                AisPacketOutputSinks.jsonMessageSink());
+        return createStreamingOutput(packets, AisPacketOutputSinks.jsonMessageSink());
     }
 
     @GET
     @Path("/packets/")
     @Produces(MediaType.TEXT_PLAIN)
-    public StreamingOutput getPackets(@Context UriInfo info) {
+    public void getPackets(@Context UriInfo info, @Suspended AsyncResponse response) {
+        get(RequestExecutors.class).resume(RequestClass.STREAMING, response, () -> getPackets(info));
+    }
+
+    private Object getPackets(UriInfo info) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
+        int pageSize = Cursor.pageSize(info);
+        if (pageSize > 0) {
+            return getPage(info, qh, pageSize, mmsis -> createStreamingOutput(getPacketStream(qh, mmsis),
+                    qh.getOutputSink()));
+        }
         Stream<AisPacket> packets = getPacketStream(info, qh);
-        return StreamingUtil.createStreamingOutput(
-                (Iterable<AisPacket>) packets::iterator,qh.getOutputSink());
+        return createStreamingOutput(packets, qh.getOutputSink());
     }
 
 }
@@ -18,13 +18,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import dk.dma.ais.data.AisTarget;
@@ -32,7 +40,12 @@ import dk.dma.ais.data.AisVesselTarget;
 import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.message.AisMessage5;
 import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.view.rest.RequestExecutors.RequestClass;
+import dk.dma.ais.view.rest.binary.BinaryTargetList;
 import dk.dma.ais.view.rest.json.ViewTarget;
+import dk.dma.ais.view.table.LiveTargetTable;
+import dk.dma.ais.view.table.TableFilter;
+import dk.dma.ais.view.table.ViewTargetCache;
 
 /**
  * Resource delivering real-time image of target positions
@@ -48,10 +61,115 @@ public class ViewResource extends AbstractTrackerResource {
 
     @GET
     @Path("/vessels/")
-    @Produces(MediaType.APPLICATION_JSON)
-    public List<ViewTarget> getVessels(@Context UriInfo info) {
+    @Produces({ MediaType.APPLICATION_JSON, BinaryTargetList.MEDIA_TYPE })
+    public void getVessels(@Context UriInfo info, @Context HttpHeaders headers, @Context Request request,
+            @Suspended AsyncResponse response) {
         QueryParameterHelper qh = new QueryParameterHelper(info);
-        Stream<AisPacket> packets = getPacketStream(info, qh);
+        ViewTargetCache cache = get(ViewTargetCache.class);
+        // the cache is built from the packets of all sources, without any filter
+        boolean cached = qh.getSourcePredicate() == null && qh.packetFilter == null && cache.isRunning();
+        // replaying the packets of the fleet is an export, which must not hold an interactive thread
+        get(RequestExecutors.class).resume(cached ? RequestClass.INTERACTIVE : RequestClass.STREAMING, response,
+                () -> getVessels(info, headers, request, qh, cached));
+    }
+
+    private Object getVessels(UriInfo info, HttpHeaders headers, Request request, QueryParameterHelper qh,
+            boolean cached) {
+        ViewTargetCache cache = get(ViewTargetCache.class);
+        boolean binary = BinaryTargetList.isRequested(info.getQueryParameters(), headers);
+        int pageSize = Cursor.pageSize(info);
+        if (pageSize > 0) {
+            // set by the page function if the page is read from the cache
+            EntityTag[] tag = new EntityTag[1];
+            Response[] notModified = new Response[1];
+            Response page = getPage(info, qh, pageSize, mmsis -> {
+                if (!cached) {
+                    return writeVessels(replayVessels(getPacketStream(qh, mmsis), qh), qh, binary);
+                }
+                List<ViewTargetCache.Entry> vessels = new ArrayList<>(mmsis.length);
+                for (int mmsi : mmsis) {
+                    ViewTargetCache.Entry e = cache.get(mmsi);
+                    if (e != null) {
+                        vessels.add(e);
+                    }
+                }
+                tag[0] = tag(info, vessels, binary);
+                notModified[0] = TargetVersions.notModified(request, tag[0]);
+                return notModified[0] != null ? null : writeEntries(vessels, qh, binary);
+            });
+            if (notModified[0] != null) {
+                return notModified[0];
+            }
+            Response.ResponseBuilder b = Response.fromResponse(page).tag(tag[0]);
+            return (binary ? b.type(BinaryTargetList.MEDIA_TYPE) : b).build();
+        }
+        if (!cached) {
+            Object vessels = writeVessels(replayVessels(getPacketStream(info, qh), qh), qh, binary);
+            return binary ? Response.ok(vessels, BinaryTargetList.MEDIA_TYPE).build() : vessels;
+        }
+        List<ViewTargetCache.Entry> entries = new ArrayList<>();
+        if (qh.area != null) {
+            get(LiveTargetTable.class).forEach(new TableFilter().within(qh.area), (mmsi, latE7, lonE7) -> {
+                ViewTargetCache.Entry e = cache.get(mmsi);
+                if (e != null) {
+                    entries.add(e);
+                }
+            });
+        } else {
+            entries.addAll(cache.entries());
+        }
+        EntityTag tag = tag(info, entries, binary);
+        Response notModified = TargetVersions.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
+        return Response.ok(writeEntries(entries, qh, binary), binary ? BinaryTargetList.MEDIA_TYPE
+                : MediaType.APPLICATION_JSON).tag(tag).build();
+    }
+
+    /**
+     * Returns the entity tag of a response built from cache entries. An entry is replaced whenever its vessel is
+     * rebuilt, and holds the state of the vessel in the tracker it was built from.
+     */
+    private static EntityTag tag(UriInfo info, List<ViewTargetCache.Entry> entries, boolean binary) {
+        TargetVersions versions = new TargetVersions(TargetVersions.variant(info) + (binary ? " binary" : ""));
+        for (ViewTargetCache.Entry e : entries) {
+            versions.add(e.getTarget());
+        }
+        return versions.tag();
+    }
+
+    /** Writes the JSON objects of cache entries as an array, or the entries in the binary format. */
+    private Object writeEntries(List<ViewTargetCache.Entry> vessels, QueryParameterHelper qh, boolean binary) {
+        if (binary) {
+            return writeVessels(vessels.stream().map(ViewTargetCache.Entry::getView).collect(Collectors.toList()), qh,
+                    true);
+        }
+        return (StreamingOutput) os -> {
+            os.write('[');
+            for (int i = 0; i < vessels.size(); i++) {
+                if (i > 0) {
+                    os.write(',');
+                }
+                os.write(vessels.get(i).getJson());
+            }
+            os.write(']');
+        };
+    }
+
+    /** Returns the vessels as they are, to be written as JSON, or in the binary format. */
+    private Object writeVessels(List<ViewTarget> vessels, QueryParameterHelper qh, boolean binary) {
+        if (!binary) {
+            return vessels;
+        }
+        BinaryTargetList list = new BinaryTargetList(BinaryTargetList.VIEW, -1, get(ViewTargetCache.class).size(),
+                qh.area);
+        list.vessels(vessels.stream().map(BinaryTargetList.Vessel::of).collect(Collectors.toList()));
+        return list.toByteArray();
+    }
+
+    /** Builds the vessels by replaying the packets of the targets selected by a request. */
+    private List<ViewTarget> replayVessels(Stream<AisPacket> packets, QueryParameterHelper qh) {
         Iterable<AisPacket> filteredPackets = applyFilters(packets, qh);
         
         // TODO separate method to get AisTargets from packets
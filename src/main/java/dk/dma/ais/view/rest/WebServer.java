@@ -15,10 +15,17 @@
 package dk.dma.ais.view.rest;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
@@ -26,11 +33,15 @@ import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
 import org.glassfish.jersey.CommonProperties;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.dma.ais.view.metrics.AccessLog;
+import dk.dma.ais.view.metrics.LatencyHistograms;
+
 /**
  * 
  * @author Kasper Nielsen
@@ -44,6 +55,15 @@ public class WebServer {
 
     final Server server;
 
+    /** WebSocket endpoints to deploy when the server is started. */
+    final List<ServerEndpointConfig> endpoints = new ArrayList<>();
+
+    /** The access log, or null if requests are not logged. */
+    private volatile AccessLog accessLog;
+
+    /** Request latencies per route, or null if not recorded. */
+    private volatile LatencyHistograms latencyHistograms;
+
     public WebServer(int port) {
         server = new Server(port);
         this.context = new ServletContextHandler(ServletContextHandler.SESSIONS);
@@ -56,6 +76,45 @@ public class WebServer {
         return context;
     }
 
+    /**
+     * Adds a WebSocket endpoint. Must be invoked before the server is started.
+     * 
+     * @param config
+     *            the configuration of the endpoint
+     */
+    public void addEndpoint(ServerEndpointConfig config) {
+        endpoints.add(config);
+    }
+
+    /**
+     * Sets the access log requests are written to. Must be invoked before the server is started.
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Sets the histograms the latency and size of requests are recorded in. Must be invoked before the server is
+     * started.
+     */
+    public void setLatencyHistograms(LatencyHistograms latencyHistograms) {
+        this.latencyHistograms = latencyHistograms;
+    }
+
+    /** Records a request that has been completed. */
+    void completed(Request request, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        long bytes = request.getResponse().getHttpChannel().getBytesWritten();
+        if (latencyHistograms != null) {
+            latencyHistograms.record(request.getRequestURI(), duration, bytes);
+        }
+        if (accessLog != null && accessLog.isEnabled()) {
+            accessLog.log(new AccessLog.Entry(request.getRemoteAddr(), request.getRemotePort(), request.getMethod(),
+                    request.getRequestURI(), request.getQueryString(), request.getResponse().getStatus(), duration,
+                    bytes));
+        }
+    }
+
     public void join() throws InterruptedException {
         server.join();
     }
@@ -72,8 +131,15 @@ public class WebServer {
         // This flag is set to disable internal buffering in jersey.
         // this is mainly done to avoid delays from when people request something. To the first output is delivered
         sho.setInitParameter(CommonProperties.OUTBOUND_CONTENT_LENGTH_BUFFER, "-1");
+        // Resources suspend requests and complete them in the pools of RequestExecutors
+        sho.setAsyncSupported(true);
 
         context.addServlet(sho, "/*");
+
+        ServerContainer wsContainer = WebSocketServerContainerInitializer.configureContext(context);
+        for (ServerEndpointConfig config : endpoints) {
+            wsContainer.addEndpoint(config);
+        }
         
         HandlerWrapper hw = new HandlerWrapper() {
 
@@ -81,14 +147,31 @@ public class WebServer {
             @Override
             public void handle(String target, Request baseRequest, HttpServletRequest request,
                     HttpServletResponse response) throws IOException, ServletException {
-                long start = System.nanoTime();
-                String queryString = request.getQueryString() == null ? "" : "?" + request.getQueryString();
-                LOG.info("Received connection from " + request.getRemoteHost() + " (" + request.getRemoteAddr() + ":"
-                        + request.getRemotePort() + ") request = " + request.getRequestURI() + queryString);
-                super.handle(target, baseRequest, request, response);
-                LOG.info("Connection closed from " + request.getRemoteHost() + " (" + request.getRemoteAddr() + ":"
-                        + request.getRemotePort() + ") request = " + request.getRequestURI() + queryString
-                        + ", Duration = " + (System.nanoTime() - start) / 1000000 + " ms");
+                if (request.getDispatcherType() != DispatcherType.REQUEST) {
+                    super.handle(target, baseRequest, request, response);
+                    return;
+                }
+                final long start = System.nanoTime();
+                try {
+                    super.handle(target, baseRequest, request, response);
+                } finally {
+                    if (request.isAsyncStarted()) {
+                        // The request is completed by another thread, record it when that happens
+                        request.getAsyncContext().addListener(new AsyncListener() {
+                            public void onComplete(AsyncEvent event) {
+                                completed(baseRequest, start);
+                            }
+
+                            public void onTimeout(AsyncEvent event) {}
+
+                            public void onError(AsyncEvent event) {}
+
+                            public void onStartAsync(AsyncEvent event) {}
+                        });
+                    } else {
+                        completed(baseRequest, start);
+                    }
+                }
             }
         };
         hw.setHandler(context);
@@ -0,0 +1,422 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest.binary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+import dk.dma.ais.message.AisTargetType;
+import dk.dma.ais.message.ShipTypeCargo;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.view.rest.json.ShipTypeMapper;
+import dk.dma.ais.view.rest.json.ViewTarget;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Writes vessel lists, vessel clusters and view targets in a compact binary format, an alternative to JSON for clients
+ * that spend more time parsing a response than fetching it. Integers are written as unsigned LEB128 varints, signed
+ * ones zigzag encoded first. Strings are written once, in a dictionary, and referred to by their index plus one, 0
+ * meaning none. Coordinates are in 1/100,000 degrees, relative to the origin of the response.
+ *
+ * <pre>
+ * response  = 'A' 'V' 'B' version:byte kind:byte requestId:zigzag inWorld:varint currentTime:varint
+ *             originLat:zigzag originLon:zigzag dictionary body
+ * dictionary = count:varint (length:varint utf8:byte[length])*
+ * body      = vessels                                            (kind 1 vessel_list, kind 3 view)
+ *           | count:varint cluster*                              (kind 2 vessel_clusters)
+ * cluster   = fromLat:zigzag fromLon:zigzag height:varint width:varint count:varint density:float32 vessels
+ * vessels   = count:varint vessel*, in ascending MMSI order
+ * vessel    = mmsiDelta:varint flags:byte [lat:zigzag lon:zigzag] cog:varint shipType:ref name:ref callsign:ref
+ *             (color:byte                                        for kinds 1 and 2
+ *             | sog:varint heading:varint [rot:zigzag] length:varint width:varint age:varint destination:ref
+ *               country:ref navStatus:ref cargo:ref eta:varint draught:varint sourceType:ref)   for kind 3
+ * </pre>
+ *
+ * The MMSI delta is relative to the previous vessel of the list, the first to 0. The flags are {@link #CLASS_B},
+ * {@link #MOORED}, {@link #HAS_POSITION} (lat and lon follow) and {@link #HAS_ROT} (rot follows). Course and heading
+ * are in 1/10 degrees, speed in 1/10 knots, rate of turn in 1/10 degrees per minute, draught in 1/10 meters, the age
+ * of the last report in seconds and ETA in milliseconds since the epoch. Unknown values are written as {@link #NA},
+ * except for length, width, ETA and draught which are 0.
+ */
+public class BinaryTargetList {
+
+    /** The media type of the format, which can be asked for in the Accept header or with format=binary. */
+    public static final String MEDIA_TYPE = "application/vnd.dma.ais-targets";
+
+    public static final int VERSION = 1;
+
+    public static final int VESSEL_LIST = 1;
+
+    public static final int VESSEL_CLUSTERS = 2;
+
+    public static final int VIEW = 3;
+
+    public static final int CLASS_B = 1;
+
+    public static final int MOORED = 2;
+
+    public static final int HAS_POSITION = 4;
+
+    public static final int HAS_ROT = 8;
+
+    /** Written for unknown course, heading and speed. */
+    public static final int NA = 0x3fff;
+
+    private final int kind;
+
+    private final int requestId;
+
+    private final int inWorld;
+
+    private final long currentTime = System.currentTimeMillis();
+
+    private final int originLat;
+
+    private final int originLon;
+
+    private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+    private final Buffer body = new Buffer(4096);
+
+    private int clusters;
+
+    /**
+     * @param kind
+     *            {@link #VESSEL_LIST}, {@link #VESSEL_CLUSTERS} or {@link #VIEW}
+     * @param requestId
+     *            the request id of the client, or -1
+     * @param inWorld
+     *            the number of vessels in the tracker
+     * @param bbox
+     *            the area of the request, its south-west corner is the origin of the coordinates, may be null
+     */
+    public BinaryTargetList(int kind, int requestId, int inWorld, BoundingBox bbox) {
+        this.kind = kind;
+        this.requestId = requestId;
+        this.inWorld = inWorld;
+        this.originLat = bbox == null ? 0 : e5(bbox.getMinLat());
+        this.originLon = bbox == null ? 0 : e5(bbox.getMinLon());
+    }
+
+    /**
+     * Returns whether a request asks for the binary format, with format=binary or by explicitly accepting
+     * {@link #MEDIA_TYPE}.
+     */
+    public static boolean isRequested(MultivaluedMap<String, String> parameters, HttpHeaders headers) {
+        if ("binary".equals(parameters.getFirst("format"))) {
+            return true;
+        }
+        for (MediaType type : headers.getAcceptableMediaTypes()) {
+            if (MEDIA_TYPE.equals(type.getType() + "/" + type.getSubtype())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Adds the vessels of a vessel list or view, may only be invoked once. */
+    public void vessels(List<Vessel> vessels) {
+        writeVessels(vessels);
+    }
+
+    /** Adds a cluster of a vessel cluster response. */
+    public void cluster(Position from, Position to, int count, double density, List<Vessel> vessels) {
+        int fromLat = e5(from.getLatitude());
+        int fromLon = e5(from.getLongitude());
+        body.zigzag(fromLat - originLat);
+        body.zigzag(fromLon - originLon);
+        body.varint(e5(to.getLatitude()) - fromLat);
+        body.varint(e5(to.getLongitude()) - fromLon);
+        body.varint(count);
+        body.int32(Float.floatToIntBits((float) density));
+        writeVessels(vessels);
+        clusters++;
+    }
+
+    private void writeVessels(List<Vessel> vessels) {
+        Vessel[] sorted = vessels.toArray(new Vessel[vessels.size()]);
+        Arrays.sort(sorted, Comparator.comparingInt(v -> v.mmsi));
+        body.varint(sorted.length);
+        int previous = 0;
+        for (Vessel v : sorted) {
+            body.varint(v.mmsi - previous);
+            previous = v.mmsi;
+            body.b(v.flags);
+            if ((v.flags & HAS_POSITION) != 0) {
+                body.zigzag(v.lat - originLat);
+                body.zigzag(v.lon - originLon);
+            }
+            body.varint(v.cog);
+            body.varint(ref(v.shipType));
+            body.varint(ref(v.name));
+            body.varint(ref(v.callsign));
+            if (kind == VIEW) {
+                body.varint(v.sog);
+                body.varint(v.heading);
+                if ((v.flags & HAS_ROT) != 0) {
+                    body.zigzag(v.rot);
+                }
+                body.varint(v.length);
+                body.varint(v.width);
+                body.varint(Math.max(0, (int) ((currentTime - v.lastReport) / 1000)));
+                body.varint(ref(v.destination));
+                body.varint(ref(v.country));
+                body.varint(ref(v.navStatus));
+                body.varint(ref(v.cargo));
+                body.varlong(v.eta);
+                body.varint(v.draught);
+                body.varint(ref(v.sourceType));
+            } else {
+                body.b(v.color);
+            }
+        }
+    }
+
+    private int ref(String s) {
+        if (s == null) {
+            return 0;
+        }
+        Integer i = dictionary.get(s);
+        if (i == null) {
+            i = dictionary.size() + 1;
+            dictionary.put(s, i);
+        }
+        return i;
+    }
+
+    /** Returns the encoded response. */
+    public byte[] toByteArray() {
+        Buffer b = new Buffer(body.size + dictionary.size() * 16 + 64);
+        b.b('A');
+        b.b('V');
+        b.b('B');
+        b.b(VERSION);
+        b.b(kind);
+        b.zigzag(requestId);
+        b.varint(inWorld);
+        b.varlong(currentTime);
+        b.zigzag(originLat);
+        b.zigzag(originLon);
+        b.varint(dictionary.size());
+        for (String s : dictionary.keySet()) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            b.varint(utf8.length);
+            b.bytes(utf8, utf8.length);
+        }
+        if (kind == VESSEL_CLUSTERS) {
+            b.varint(clusters);
+        }
+        b.bytes(body.bytes, body.size);
+        return Arrays.copyOf(b.bytes, b.size);
+    }
+
+    static int e5(double degrees) {
+        return (int) Math.round(degrees * 1e5);
+    }
+
+    /** A vessel of a response. */
+    public static final class Vessel {
+
+        int mmsi;
+
+        int flags;
+
+        int lat;
+
+        int lon;
+
+        int cog = NA;
+
+        int color;
+
+        String shipType;
+
+        String name;
+
+        String callsign;
+
+        int sog = NA;
+
+        int heading = NA;
+
+        int rot;
+
+        int length;
+
+        int width;
+
+        long lastReport;
+
+        String destination;
+
+        String country;
+
+        String navStatus;
+
+        String cargo;
+
+        long eta;
+
+        int draught;
+
+        String sourceType;
+
+        Vessel() {}
+
+        /**
+         * Creates the vessel of a vessel list from a target of the tracker. The name and call sign are read from the
+         * view target of the vessel, if any, so static reports need not be decoded.
+         */
+        public static Vessel of(TargetInfo ti, ViewTarget view) {
+            Vessel v = new Vessel();
+            v.mmsi = ti.getMmsi();
+            Position p = ti.hasPositionInfo() ? ti.getPosition() : null;
+            if (p != null) {
+                v.flags |= HAS_POSITION;
+                v.lat = e5(p.getLatitude());
+                v.lon = e5(p.getLongitude());
+                int cog = (int) ti.getCog(); // in 1/10 degrees, 3600 if not available
+                v.cog = cog >= 0 && cog < 3600 ? cog : NA;
+            }
+            if (ti.getTargetType() == AisTargetType.B) {
+                v.flags |= CLASS_B;
+            }
+            byte navStatus = ti.getNavStatus();
+            if (navStatus == 1 || navStatus == 5) {
+                v.flags |= MOORED;
+            }
+            ShipTypeCargo shipTypeCargo = new ShipTypeCargo(ti.getStaticShipType());
+            v.color = ShipTypeMapper.getInstance().getColor(shipTypeCargo.getShipType()).ordinal();
+            if (ti.hasStaticInfo()) {
+                v.shipType = shipTypeCargo.prettyType();
+            }
+            if (view != null) {
+                v.name = view.getName();
+                v.callsign = view.getCallsign();
+            }
+            return v;
+        }
+
+        /** Creates the vessel of a view from its view target. */
+        public static Vessel of(ViewTarget vt) {
+            Vessel v = new Vessel();
+            v.mmsi = vt.getMmsi();
+            if (vt.getLat() != null && vt.getLon() != null) {
+                v.flags |= HAS_POSITION;
+                v.lat = e5(vt.getLat());
+                v.lon = e5(vt.getLon());
+            }
+            if (vt.getTargetType() == AisTargetType.B) {
+                v.flags |= CLASS_B;
+            }
+            if (Boolean.TRUE.equals(vt.getMoored())) {
+                v.flags |= MOORED;
+            }
+            if (vt.getRot() != null) {
+                v.flags |= HAS_ROT;
+                v.rot = (int) Math.round(vt.getRot() * 10);
+            }
+            v.cog = tenths(vt.getCog(), 3600);
+            v.sog = tenths(vt.getSog(), 1023);
+            v.heading = tenths(vt.getHeading(), 3600);
+            v.shipType = vt.getVesselType();
+            v.name = vt.getName();
+            v.callsign = vt.getCallsign();
+            v.length = vt.getLength() == null ? 0 : Math.max(0, vt.getLength());
+            v.width = vt.getWidth() == null ? 0 : Math.max(0, vt.getWidth());
+            v.lastReport = vt.getLastReport();
+            v.destination = vt.getDestination();
+            v.country = vt.getCountry();
+            v.navStatus = vt.getNavStatus();
+            v.cargo = vt.getCargo();
+            v.eta = vt.getEta() == null ? 0 : Math.max(0, vt.getEta());
+            v.draught = vt.getDraught() == null ? 0 : (int) Math.max(0, Math.round(vt.getDraught() * 10));
+            v.sourceType = vt.getSourceType();
+            return v;
+        }
+
+        /** Returns a value in tenths, or {@link #NA} if unknown or not below the specified limit. */
+        private static int tenths(Double value, int limit) {
+            if (value == null) {
+                return NA;
+            }
+            long t = Math.round(value * 10);
+            return t >= 0 && t < limit ? (int) t : NA;
+        }
+    }
+
+    /** A growable byte array with the encodings of the format. */
+    static final class Buffer {
+
+        byte[] bytes;
+
+        int size;
+
+        Buffer(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int n) {
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+            }
+        }
+
+        void b(int v) {
+            ensure(1);
+            bytes[size++] = (byte) v;
+        }
+
+        void bytes(byte[] b, int length) {
+            ensure(length);
+            System.arraycopy(b, 0, bytes, size, length);
+            size += length;
+        }
+
+        void int32(int v) {
+            ensure(4);
+            bytes[size++] = (byte) (v >>> 24);
+            bytes[size++] = (byte) (v >>> 16);
+            bytes[size++] = (byte) (v >>> 8);
+            bytes[size++] = (byte) v;
+        }
+
+        void varint(int v) {
+            varlong(v & 0xffffffffL);
+        }
+
+        void zigzag(int v) {
+            varint(v << 1 ^ v >> 31);
+        }
+
+        void varlong(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                bytes[size++] = (byte) (v & 0x7f | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+    }
+}
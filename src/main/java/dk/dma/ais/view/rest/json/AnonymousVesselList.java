@@ -84,7 +84,6 @@ public class AnonymousVesselList extends BaseVesselList {
         list.add((navStatus != null && (navStatus == 1 || navStatus == 5)) ? "1" : "0");
 
         vessels.put(anonId, list);
-        vesselCount++;
     }
 
     @Override
@@ -127,7 +126,6 @@ public class AnonymousVesselList extends BaseVesselList {
         list.add((navStatus != null && (navStatus == 1 || navStatus == 5)) ? "1" : "0");
 
         vessels.put(anonId, list);
-        vesselCount++;
         
     }
     
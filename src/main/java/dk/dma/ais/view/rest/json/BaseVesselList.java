@@ -27,7 +27,6 @@ public abstract class BaseVesselList {
     
     protected ConcurrentHashMap<Integer, ArrayList<String>> vessels = new ConcurrentHashMap<Integer, ArrayList<String>>();
     protected long currentTime;
-    protected int vesselCount;
     protected int inWorldCount;
     
     protected static ShipTypeMapper shipTypeMapper = ShipTypeMapper.getInstance();
@@ -48,8 +47,9 @@ public abstract class BaseVesselList {
         return currentTime;
     }
     
+    /** Returns the number of vessels in the list, which may be filled from several threads at once. */
     public int getVesselCount() {
-        return vesselCount;
+        return vessels.size();
     }
     
     public int getInWorldCount() {
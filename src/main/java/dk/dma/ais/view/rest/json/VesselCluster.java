@@ -85,8 +85,9 @@ public class VesselCluster {
         this.vessels = vessels;
     }
 
-    public void incrementCount() {
-        this.count.incrementAndGet();
+    /** Increments the count and returns the new count. */
+    public int incrementCount() {
+        return this.count.incrementAndGet();
     }
 
     public void addVessel(AisVesselTarget target, int anonId) {
@@ -104,7 +104,6 @@ public class VesselList extends BaseVesselList {
         
         
         vessels.put(anonId, list);    
-        vesselCount++;
     }
     
     @Override
@@ -184,7 +183,6 @@ public class VesselList extends BaseVesselList {
         list.add(imoNo);
         
         vessels.put(anonId, list);    
-        vesselCount++;
         
     }
 
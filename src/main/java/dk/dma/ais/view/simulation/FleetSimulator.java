@@ -0,0 +1,124 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+import dk.dma.ais.packet.AisPacket;
+
+/**
+ * Drives a {@link SyntheticFleet} in real time, or faster, and hands the sentences to a sink. The sink can be an
+ * {@link NmeaServer} that AIS readers connect to, or a consumer of packets in the same process, see
+ * {@link #toPackets(Consumer)}. When writing to an NmeaServer, the simulation starts once the first client has
+ * connected.
+ */
+public class FleetSimulator extends AbstractExecutionThreadService {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(FleetSimulator.class);
+
+    /** How long to sleep when no report is due. */
+    private static final long IDLE_MILLIS = 10;
+
+    private static final long REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final SyntheticFleet fleet;
+
+    private final double speed;
+
+    private final Consumer<String> sink;
+
+    private final long start;
+
+    /**
+     * @param fleet
+     *            the fleet to simulate, it must have been created with the same start time
+     * @param start
+     *            the simulated time the simulation starts at
+     * @param speed
+     *            how much faster than real time the simulation runs, 1 for real time
+     * @param sink
+     *            receives the sentences of each message, if it is {@link Flushable} it is flushed after each batch
+     */
+    public FleetSimulator(SyntheticFleet fleet, long start, double speed, Consumer<String> sink) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("The speed must be positive, was " + speed);
+        }
+        this.fleet = requireNonNull(fleet);
+        this.start = start;
+        this.speed = speed;
+        this.sink = requireNonNull(sink);
+    }
+
+    /** Returns a sink parsing the sentences of each message into a packet for the specified consumer. */
+    public static Consumer<String> toPackets(Consumer<? super AisPacket> consumer) {
+        requireNonNull(consumer);
+        return s -> consumer.accept(AisPacket.readFromString(s));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void run() throws Exception {
+        if (sink instanceof NmeaServer) {
+            // Do not announce the fleet before anybody listens
+            while (isRunning() && !((NmeaServer) sink).awaitClient(1, TimeUnit.SECONDS)) {
+                LOG.debug("Waiting for a client to connect to the NMEA server");
+            }
+        }
+        long wallStart = System.currentTimeMillis();
+        fleet.announce(start, sink);
+        flush();
+        LOG.info("Simulating " + fleet.size() + " vessels at " + speed + " times real time");
+        long lastReport = wallStart;
+        long lastEmitted = fleet.getEmitted();
+        while (isRunning()) {
+            long wall = System.currentTimeMillis();
+            long now = start + (long) ((wall - wallStart) * speed);
+            if (fleet.advance(now, sink) > 0) {
+                flush();
+            } else {
+                Thread.sleep(IDLE_MILLIS);
+            }
+            if (wall - lastReport >= REPORT_INTERVAL) {
+                long emitted = fleet.getEmitted();
+                LOG.info("Simulated " + (emitted - lastEmitted) * 1000 / (wall - lastReport) + " messages/s");
+                lastReport = wall;
+                lastEmitted = emitted;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (sink instanceof Flushable) {
+            ((Flushable) sink).flush();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String serviceName() {
+        return "FleetSimulator";
+    }
+}
@@ -0,0 +1,267 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.beust.jcommander.Parameter;
+import com.google.inject.Injector;
+
+import dk.dma.ais.view.metrics.LatencyHistograms;
+import dk.dma.commons.app.AbstractCommandLineTool;
+import dk.dma.enav.model.geometry.BoundingBox;
+
+/**
+ * Replays a mix of requests against a running AisView and reports the latency per route. Requests are read from a
+ * file with one request URI per line, access log lines are accepted as well so a recorded mix can be replayed as is.
+ * Without a file, a mix of vessel_list and vessel_clusters requests for random areas of the simulated fleet is used.
+ * <p>
+ * With a fixed rate, latencies are measured from when a request should have been sent, so a server that falls behind
+ * is not hidden by the driver waiting for it.
+ */
+public class LoadDriver extends AbstractCommandLineTool {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(LoadDriver.class);
+
+    @Parameter(names = "-url", description = "The base URL of AisView")
+    String url = "http://localhost:8090";
+
+    @Parameter(names = "-requests", description = "A file with request URIs or access log lines to replay")
+    File requests;
+
+    @Parameter(names = "-threads", description = "The number of concurrent request threads")
+    int threads = 8;
+
+    @Parameter(names = "-rate", description = "The total number of requests per second, 0 to send as fast as possible")
+    double rate;
+
+    @Parameter(names = "-duration", description = "How long to run, in seconds")
+    int duration = 60;
+
+    @Parameter(names = "-streams", description = "The number of concurrent /stream clients")
+    int streams;
+
+    @Parameter(names = "-streamQuery", description = "The query string of the /stream clients, for example filter=t.pos within bbox(...)")
+    String streamQuery;
+
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder responseBytes = new LongAdder();
+
+    private final LongAdder streamBytes = new LongAdder();
+
+    private final LongAdder streamLines = new LongAdder();
+
+    /** {@inheritDoc} */
+    @Override
+    protected void run(Injector injector) throws Exception {
+        final List<String> mix = requests == null ? null : readMix(requests.toPath());
+        if (mix != null && mix.isEmpty()) {
+            throw new IllegalArgumentException("No GET requests found in " + requests);
+        }
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(duration);
+        final AtomicLong sequence = new AtomicLong();
+        final long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + streams);
+        for (int i = 0; i < streams; i++) {
+            executor.execute(() -> stream(end));
+        }
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                for (;;) {
+                    long n = sequence.getAndIncrement();
+                    long intended = System.nanoTime();
+                    if (intervalNanos > 0) {
+                        intended = start + n * intervalNanos;
+                        long wait = intended - System.nanoTime();
+                        if (wait > 0) {
+                            sleepNanos(wait);
+                        }
+                    }
+                    if (intended >= end) {
+                        return;
+                    }
+                    String uri = mix != null ? mix.get((int) (n % mix.size())) : generated();
+                    request(uri, intended);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(duration + 60, TimeUnit.SECONDS);
+        executor.shutdownNow();
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private void request(String uri, long intendedNanos) {
+        String path = uri.indexOf('?') < 0 ? uri : uri.substring(0, uri.indexOf('?'));
+        try {
+            HttpURLConnection c = (HttpURLConnection) new URL(url + uri).openConnection();
+            c.setRequestProperty("Accept-Encoding", "identity");
+            int status = c.getResponseCode();
+            try (InputStream is = status < 400 ? c.getInputStream() : c.getErrorStream()) {
+                responseBytes.add(drain(is));
+            }
+            if (status >= 400) {
+                errors.increment();
+            }
+        } catch (IOException e) {
+            errors.increment();
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos);
+        latencies.computeIfAbsent(LatencyHistograms.route(path), r -> new ConcurrentHistogram(TimeUnit.HOURS
+                .toMicros(1), 2)).recordValue(Math.min(micros, TimeUnit.HOURS.toMicros(1)));
+    }
+
+    /** Reads from /stream until the end of the run. */
+    private void stream(long endNanos) {
+        String uri = "/stream" + (streamQuery == null ? "" : "?" + streamQuery.replace(" ", "%20"));
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            HttpURLConnection c = (HttpURLConnection) new URL(url + uri).openConnection();
+            c.setReadTimeout(1000); // so we notice the end of the run when the stream is quiet
+            try (InputStream is = c.getInputStream()) {
+                while (System.nanoTime() < endNanos) {
+                    int n;
+                    try {
+                        n = is.read(buffer);
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    if (n < 0) {
+                        break;
+                    }
+                    streamBytes.add(n);
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            streamLines.increment();
+                        }
+                    }
+                }
+            } finally {
+                c.disconnect();
+            }
+        } catch (IOException e) {
+            LOG.warn("Stream client failed: " + e.getMessage());
+            errors.increment();
+        }
+    }
+
+    /** Returns a vessel_list or vessel_clusters request for a random part of the area of the simulated fleet. */
+    private static String generated() {
+        Random r = ThreadLocalRandom.current();
+        BoundingBox a = SyntheticFleet.DEFAULT_AREA;
+        double height = (a.getMaxLat() - a.getMinLat()) * (0.05 + r.nextDouble() * 0.95);
+        double width = (a.getMaxLon() - a.getMinLon()) * (0.05 + r.nextDouble() * 0.95);
+        double top = a.getMaxLat() - r.nextDouble() * (a.getMaxLat() - a.getMinLat() - height);
+        double left = a.getMinLon() + r.nextDouble() * (a.getMaxLon() - a.getMinLon() - width);
+        String box = String.format(Locale.US, "topLat=%.4f&topLon=%.4f&botLat=%.4f&botLon=%.4f", top, left, top
+                - height, left + width);
+        return r.nextInt(10) < 7 ? "/vessel_list?" + box : "/vessel_clusters?" + box + "&clusterLimit=10&clusterSize=4";
+    }
+
+    /** Reads request URIs, one per line, or the URIs of GET requests if the lines are from the access log. */
+    static List<String> readMix(Path file) throws IOException {
+        List<String> mix = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            int get = line.indexOf("\"GET ");
+            if (get >= 0) {
+                int end = line.indexOf('"', get + 5);
+                if (end > 0) {
+                    mix.add(line.substring(get + 5, end));
+                }
+            } else if (line.startsWith("/")) {
+                mix.add(line);
+            }
+        }
+        return mix;
+    }
+
+    private void report(double seconds) {
+        long total = 0;
+        StringBuilder sb = new StringBuilder(String.format(Locale.US, "%n%-32s %9s %9s %9s %9s %9s %9s%n", "route",
+                "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(latencies).entrySet()) {
+            Histogram h = e.getValue();
+            total += h.getTotalCount();
+            sb.append(String.format(Locale.US, "%-32s %9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", e.getKey(), h
+                    .getTotalCount(), h.getTotalCount() / seconds, h.getValueAtPercentile(50) / 1000.0, h
+                    .getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getMaxValue() / 1000.0));
+        }
+        sb.append(String.format(Locale.US, "%d requests in %.1f s, %.1f req/s, %d errors, %.1f MB received%n", total,
+                seconds, total / seconds, errors.sum(), responseBytes.sum() / 1e6));
+        if (streams > 0) {
+            sb.append(String.format(Locale.US, "%d stream clients received %.0f packets/s and %.2f MB/s each%n",
+                    streams, streamLines.sum() / seconds / streams, streamBytes.sum() / 1e6 / seconds / streams));
+        }
+        System.out.print(sb);
+    }
+
+    private static long drain(InputStream is) throws IOException {
+        if (is == null) {
+            return 0;
+        }
+        byte[] buffer = new byte[16 * 1024];
+        long total = 0;
+        for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadDriver().execute(args);
+    }
+}
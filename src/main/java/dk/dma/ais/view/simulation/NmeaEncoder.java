@@ -0,0 +1,218 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes AIS messages as NMEA sentences. Only the fields read by AisView are given meaningful values, radio status
+ * and similar fields are left zero.
+ */
+public final class NmeaEncoder {
+
+    /** The maximum number of payload characters in a single sentence. */
+    private static final int MAX_PAYLOAD = 60;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private NmeaEncoder() {}
+
+    /**
+     * Encodes a class A position report.
+     *
+     * @param type
+     *            the message type, 1, 2 or 3
+     * @param lat
+     *            the latitude in degrees
+     * @param lon
+     *            the longitude in degrees
+     * @param sog
+     *            speed over ground in knots
+     * @param cog
+     *            course over ground in degrees
+     * @param second
+     *            the UTC second of the report
+     */
+    public static Payload positionReport(int type, int mmsi, int navStatus, double lat, double lon, double sog,
+            double cog, int heading, int second) {
+        if (type < 1 || type > 3) {
+            throw new IllegalArgumentException("A class A position report must be of type 1, 2 or 3, was " + type);
+        }
+        Bits b = new Bits(168);
+        b.add(type, 6).add(0, 2).add(mmsi, 30).add(navStatus, 4).add(-128, 8);
+        b.add(knots(sog), 10).add(1, 1).add(minutes(lon), 28).add(minutes(lat), 27);
+        b.add(degrees(cog), 12).add(heading, 9).add(second, 6).add(0, 2).add(0, 3).add(0, 1).add(0, 19);
+        return b.toPayload();
+    }
+
+    /** Encodes class A static and voyage related data (message 5). */
+    public static Payload staticReport(int mmsi, int imo, String callsign, String name, int shipType, int length,
+            int width, double draught, String destination) {
+        Bits b = new Bits(424);
+        b.add(5, 6).add(0, 2).add(mmsi, 30).add(0, 2).add(imo, 30);
+        b.addText(callsign, 7).addText(name, 20).add(shipType, 8);
+        b.add(length / 2, 9).add(length - length / 2, 9).add(width / 2, 6).add(width - width / 2, 6).add(1, 4);
+        b.add(0, 4).add(0, 5).add(24, 5).add(60, 6).add((int) Math.round(draught * 10), 8);
+        b.addText(destination, 20).add(0, 1).add(0, 1);
+        return b.toPayload();
+    }
+
+    /** Encodes a class B position report (message 18). */
+    public static Payload classBPositionReport(int mmsi, double lat, double lon, double sog, double cog, int heading,
+            int second) {
+        Bits b = new Bits(168);
+        b.add(18, 6).add(0, 2).add(mmsi, 30).add(0, 8);
+        b.add(knots(sog), 10).add(0, 1).add(minutes(lon), 28).add(minutes(lat), 27);
+        b.add(degrees(cog), 12).add(heading, 9).add(second, 6).add(0, 2);
+        b.add(1, 1).add(0, 1).add(0, 1).add(1, 1).add(0, 1).add(0, 1).add(0, 1).add(0, 20);
+        return b.toPayload();
+    }
+
+    /** Encodes part A of a class B static data report (message 24), holding the name. */
+    public static Payload classBStaticReportA(int mmsi, String name) {
+        Bits b = new Bits(168);
+        b.add(24, 6).add(0, 2).add(mmsi, 30).add(0, 2).addText(name, 20).add(0, 8);
+        return b.toPayload();
+    }
+
+    /** Encodes part B of a class B static data report (message 24). */
+    public static Payload classBStaticReportB(int mmsi, int shipType, String callsign, int length, int width) {
+        Bits b = new Bits(168);
+        b.add(24, 6).add(0, 2).add(mmsi, 30).add(1, 2).add(shipType, 8).addText("SIM", 7).addText(callsign, 7);
+        b.add(length / 2, 9).add(length - length / 2, 9).add(width / 2, 6).add(width - width / 2, 6).add(0, 6);
+        return b.toPayload();
+    }
+
+    /**
+     * Returns the contents of a tag block with the tags AisView uses to identify the source of a packet.
+     *
+     * @param timestamp
+     *            the time the packet was received, in milliseconds since the epoch
+     * @param sourceId
+     *            the id of the source, or null
+     * @param region
+     *            the region of the source, or null
+     * @param satellite
+     *            whether the packet was received by satellite rather than a terrestrial station
+     */
+    public static String tags(long timestamp, String sourceId, String region, boolean satellite) {
+        StringBuilder sb = new StringBuilder(48).append("c:").append(timestamp / 1000);
+        if (sourceId != null) {
+            sb.append(",si:").append(sourceId);
+        }
+        if (region != null) {
+            sb.append(",sr:").append(region);
+        }
+        return sb.append(",st:").append(satellite ? "SAT" : "LIVE").toString();
+    }
+
+    /**
+     * Wraps a payload in one or more !AIVDM sentences separated by CRLF. The first sentence is prefixed with a tag
+     * block holding the specified tags, if any.
+     *
+     * @param sequenceId
+     *            the sequential message id used to tie the sentences of a multi-sentence message together
+     */
+    public static String sentences(Payload p, String tags, int sequenceId) {
+        int count = (p.text.length() + MAX_PAYLOAD - 1) / MAX_PAYLOAD;
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String part = p.text.substring(i * MAX_PAYLOAD, Math.min(p.text.length(), (i + 1) * MAX_PAYLOAD));
+            String body = "AIVDM," + count + "," + (i + 1) + "," + (count > 1 ? Integer.toString(sequenceId % 10) : "")
+                    + ",A," + part + "," + (i == count - 1 ? p.fill : 0);
+            lines.add("!" + body + "*" + checksum(body));
+        }
+        if (tags != null) {
+            lines.set(0, "\\" + tags + "*" + checksum(tags) + "\\" + lines.get(0));
+        }
+        return String.join("\r\n", lines);
+    }
+
+    private static int knots(double sog) {
+        return Math.min(1022, (int) Math.round(sog * 10));
+    }
+
+    private static int degrees(double cog) {
+        return (int) Math.round(cog * 10) % 3600;
+    }
+
+    /** Converts degrees to the 1/10000 minutes positions are reported in. */
+    private static int minutes(double degrees) {
+        return (int) Math.round(degrees * 600000);
+    }
+
+    private static String checksum(String s) {
+        int c = 0;
+        for (int i = 0; i < s.length(); i++) {
+            c ^= s.charAt(i);
+        }
+        return new String(new char[] { HEX[c >> 4 & 0xF], HEX[c & 0xF] });
+    }
+
+    /** A big-endian bit buffer armored as 6-bit ASCII. */
+    private static final class Bits {
+
+        private final boolean[] bits;
+
+        private int size;
+
+        Bits(int capacity) {
+            bits = new boolean[capacity];
+        }
+
+        Bits add(int value, int width) {
+            for (int i = width - 1; i >= 0; i--) {
+                bits[size++] = ((value >>> i) & 1) == 1;
+            }
+            return this;
+        }
+
+        /** Adds text in 6-bit ASCII, padded with @ or truncated to the specified number of characters. */
+        Bits addText(String text, int chars) {
+            String s = text == null ? "" : text.toUpperCase();
+            for (int i = 0; i < chars; i++) {
+                char c = i < s.length() ? s.charAt(i) : '@';
+                add(c >= 64 ? c - 64 : c, 6);
+            }
+            return this;
+        }
+
+        Payload toPayload() {
+            StringBuilder sb = new StringBuilder((size + 5) / 6);
+            for (int i = 0; i < size; i += 6) {
+                int v = 0;
+                for (int j = i; j < i + 6; j++) {
+                    v = (v << 1) | (j < size && bits[j] ? 1 : 0);
+                }
+                sb.append((char) (v < 40 ? v + 48 : v + 56));
+            }
+            return new Payload(sb.toString(), sb.length() * 6 - size);
+        }
+    }
+
+    /** An armored payload and the number of fill bits in its last character. */
+    public static final class Payload {
+
+        final String text;
+
+        final int fill;
+
+        Payload(String text, int fill) {
+            this.text = text;
+            this.fill = fill;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+import dk.dma.ais.packet.AisPacket;
+
+/**
+ * Replays recorded NMEA files, paced by the timestamps of the packets. Files may be gzipped, and lines may carry tag
+ * blocks, proprietary headers such as $PGHP, or a text prefix such as a receive time, which is skipped.
+ * <p>
+ * With a speed of 0 packets are replayed as fast as the sink takes them, without decoding them here, which makes the
+ * replay suitable for measuring ingest throughput. Otherwise the delay between two packets is the difference between
+ * their timestamps divided by the speed. Uncompressed files can be memory mapped instead of read through a stream.
+ */
+public class NmeaFileReplay extends AbstractExecutionThreadService {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(NmeaFileReplay.class);
+
+    /** How many packets are written between flushes when replaying as fast as possible. */
+    private static final int FLUSH_PACKETS = 1024;
+
+    private final List<Path> files;
+
+    private final double speed;
+
+    private final boolean mapped;
+
+    private final Consumer<String> sink;
+
+    private volatile long packets;
+
+    /**
+     * @param files
+     *            the files to replay, in order
+     * @param speed
+     *            how much faster than recorded the files are replayed, or 0 to replay as fast as possible
+     * @param mapped
+     *            whether to memory map uncompressed files
+     * @param sink
+     *            receives the lines of each packet separated by CRLF, if it is {@link Flushable} it is flushed when
+     *            the replay waits for the next packet
+     */
+    public NmeaFileReplay(List<Path> files, double speed, boolean mapped, Consumer<String> sink) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("The speed must not be negative, was " + speed);
+        }
+        this.files = new ArrayList<>(files);
+        this.speed = speed;
+        this.mapped = mapped;
+        this.sink = requireNonNull(sink);
+    }
+
+    /** Returns the number of packets replayed so far. */
+    public long getPackets() {
+        return packets;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void run() throws Exception {
+        if (sink instanceof NmeaServer) {
+            while (isRunning() && !((NmeaServer) sink).awaitClient(1, TimeUnit.SECONDS)) {
+                LOG.debug("Waiting for a client to connect to the NMEA server");
+            }
+        }
+        long start = System.nanoTime();
+        Pacer pacer = new Pacer();
+        for (Path file : files) {
+            if (!isRunning()) {
+                break;
+            }
+            LOG.info("Replaying " + file);
+            try (LineSource in = open(file)) {
+                PacketAssembler assembler = new PacketAssembler();
+                for (String line = in.readLine(); line != null && isRunning(); line = in.readLine()) {
+                    String packet = assembler.add(line);
+                    if (packet != null) {
+                        pacer.await(packet);
+                        sink.accept(packet);
+                        packets++;
+                    }
+                }
+            }
+        }
+        flush();
+        long nanos = Math.max(1, System.nanoTime() - start);
+        LOG.info("Replayed " + packets + " packets in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, "
+                + packets * 1000000000L / nanos + " packets/s");
+    }
+
+    private LineSource open(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(".gz")) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                    Files.newInputStream(file), 64 * 1024), StandardCharsets.US_ASCII), 64 * 1024);
+            return new ReaderLineSource(r);
+        } else if (mapped) {
+            return new MappedLineSource(file);
+        }
+        return new ReaderLineSource(Files.newBufferedReader(file, StandardCharsets.US_ASCII));
+    }
+
+    private void flush() throws IOException {
+        if (sink instanceof Flushable) {
+            ((Flushable) sink).flush();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String serviceName() {
+        return "NmeaFileReplay";
+    }
+
+    /** Delays packets according to their timestamps. */
+    private final class Pacer {
+
+        private long firstTimestamp = -1;
+
+        private long firstNanos;
+
+        private int unflushed;
+
+        void await(String packet) throws IOException, InterruptedException {
+            if (speed == 0) {
+                if (++unflushed == FLUSH_PACKETS) {
+                    flush();
+                    unflushed = 0;
+                }
+                return;
+            }
+            long timestamp = AisPacket.readFromString(packet).getBestTimestamp();
+            if (timestamp <= 0) {
+                return; // no timestamp, send it along with the previous packet
+            }
+            if (firstTimestamp < 0) {
+                firstTimestamp = timestamp;
+                firstNanos = System.nanoTime();
+                return;
+            }
+            long due = firstNanos + (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - firstTimestamp) / speed);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                flush();
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * Groups lines into packets. A packet is any header lines followed by the sentences of one message, it is complete
+     * once the last fragment of the message has been read.
+     */
+    static final class PacketAssembler {
+
+        private final StringBuilder pending = new StringBuilder(256);
+
+        private boolean hasSentence;
+
+        /** Adds a line, returning the packet it completed or null. */
+        String add(String line) {
+            int start = sentenceStart(line);
+            if (start < 0) {
+                return null; // not NMEA
+            }
+            int vdm = line.indexOf('!', start);
+            if (vdm < 0) {
+                // a tag block or proprietary sentence preceding the message
+                append(line, start);
+                return null;
+            }
+            int[] fragment = fragment(line, vdm);
+            if (fragment == null) {
+                return null;
+            }
+            if (fragment[1] == 1 && hasSentence) {
+                // The previous message never got its last fragment
+                pending.setLength(0);
+            }
+            append(line, start);
+            hasSentence = true;
+            if (fragment[1] < fragment[0]) {
+                return null;
+            }
+            String packet = pending.toString();
+            pending.setLength(0);
+            hasSentence = false;
+            return packet;
+        }
+
+        private void append(String line, int start) {
+            if (pending.length() > 0) {
+                pending.append("\r\n");
+            }
+            pending.append(line, start, line.length());
+        }
+
+        /** Returns where the NMEA part of a line starts, skipping any prefix, or -1 if there is none. */
+        private static int sentenceStart(String line) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '!' || c == '$' || c == '\\') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the fragment count and number of a !xxVDM or !xxVDO sentence, or null if it is malformed. */
+        private static int[] fragment(String line, int start) {
+            int c1 = line.indexOf(',', start);
+            int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+            int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+            if (c3 < 0) {
+                return null;
+            }
+            try {
+                return new int[] { Integer.parseInt(line.substring(c1 + 1, c2)),
+                        Integer.parseInt(line.substring(c2 + 1, c3)) };
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /** A source of lines, without line terminators. */
+    interface LineSource extends Closeable {
+        String readLine() throws IOException;
+    }
+
+    static final class ReaderLineSource implements LineSource {
+
+        private final BufferedReader reader;
+
+        ReaderLineSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String readLine() throws IOException {
+            return reader.readLine();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads lines of ASCII from a memory mapped file. The file is mapped in chunks, so files larger than 2 GB can be
+     * read, a line spanning two chunks is joined.
+     */
+    static final class MappedLineSource implements LineSource {
+
+        private static final long CHUNK_SIZE = 256 * 1024 * 1024;
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private final StringBuilder line = new StringBuilder(256);
+
+        private long position;
+
+        private MappedByteBuffer buffer;
+
+        MappedLineSource(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String readLine() throws IOException {
+            line.setLength(0);
+            for (;;) {
+                if (buffer == null || !buffer.hasRemaining()) {
+                    if (position >= size) {
+                        return line.length() > 0 ? line.toString() : null;
+                    }
+                    long length = Math.min(CHUNK_SIZE, size - position);
+                    buffer = channel.map(MapMode.READ_ONLY, position, length);
+                    position += length;
+                }
+                byte b = buffer.get();
+                if (b == '\n') {
+                    int last = line.length() - 1;
+                    if (last >= 0 && line.charAt(last) == '\r') {
+                        line.setLength(last);
+                    }
+                    return line.toString();
+                }
+                line.append((char) (b & 0xFF));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            buffer = null;
+            channel.close();
+        }
+    }
+}
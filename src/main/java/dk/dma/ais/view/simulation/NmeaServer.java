@@ -0,0 +1,162 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import java.io.BufferedOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+/**
+ * A TCP server sending NMEA sentences to every connected client, so simulated traffic can be read like any other AIS
+ * source. Sentences are written by the thread invoking {@link #accept(String)}, a client that cannot keep up slows
+ * down that thread rather than losing data.
+ */
+public class NmeaServer extends AbstractExecutionThreadService implements Consumer<String>, Flushable {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(NmeaServer.class);
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final ServerSocket serverSocket;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    /**
+     * Binds the server to the loopback interface.
+     *
+     * @param port
+     *            the port to listen on, or 0 to pick a free port
+     */
+    public NmeaServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /** Returns the port the server listens on. */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /** Waits until the first client has connected, returns false if none connected within the timeout. */
+    public boolean awaitClient(long timeout, TimeUnit unit) throws InterruptedException {
+        return connected.await(timeout, unit);
+    }
+
+    /** Writes the specified sentences to every client, followed by CRLF. */
+    @Override
+    public void accept(String sentences) {
+        byte[] bytes = sentences.getBytes(StandardCharsets.US_ASCII);
+        for (Client c : clients) {
+            try {
+                c.os.write(bytes);
+                c.os.write(CRLF);
+            } catch (IOException e) {
+                disconnect(c, e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        for (Client c : clients) {
+            try {
+                c.os.flush();
+            } catch (IOException e) {
+                disconnect(c, e);
+            }
+        }
+    }
+
+    private void disconnect(Client c, IOException cause) {
+        if (clients.remove(c)) {
+            LOG.info("NMEA client " + c.socket.getRemoteSocketAddress() + " disconnected: " + cause.getMessage());
+            try {
+                c.socket.close();
+            } catch (IOException ignore) {}
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void run() throws Exception {
+        LOG.info("Serving simulated NMEA on " + serverSocket.getLocalSocketAddress());
+        while (isRunning()) {
+            try {
+                Socket s = serverSocket.accept();
+                clients.add(new Client(s));
+                connected.countDown();
+                LOG.info("NMEA client " + s.getRemoteSocketAddress() + " connected");
+            } catch (IOException e) {
+                if (isRunning()) {
+                    LOG.warn("Could not accept NMEA client", e);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void triggerShutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignore) {}
+        for (Client c : clients) {
+            try {
+                c.socket.close();
+            } catch (IOException ignore) {}
+        }
+        clients.clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String serviceName() {
+        return "NmeaServer";
+    }
+
+    private static final class Client {
+
+        final Socket socket;
+
+        final OutputStream os;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.os = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+    }
+}
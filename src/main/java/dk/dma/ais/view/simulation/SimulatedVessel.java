@@ -0,0 +1,220 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * A single vessel of a {@link SyntheticFleet}. Moving vessels sail great-circle routes between random points in the
+ * area of the fleet, and report at the rates of ITU-R M.1371 for their class and speed.
+ */
+final class SimulatedVessel {
+
+    /** The mean radius of the earth in meters. */
+    private static final double EARTH_RADIUS = 6371000;
+
+    private static final double METERS_PER_SECOND_PER_KNOT = 1852.0 / 3600;
+
+    /** How often static data is reported, in milliseconds. */
+    private static final long STATIC_INTERVAL = 6 * 60 * 1000;
+
+    private static final int NAV_STATUS_UNDERWAY = 0;
+
+    private static final int NAV_STATUS_AT_ANCHOR = 1;
+
+    private static final int NAV_STATUS_MOORED = 5;
+
+    final int mmsi;
+
+    final boolean classB;
+
+    private final String name;
+
+    private final String callsign;
+
+    private final int shipType;
+
+    private final int length;
+
+    private final int width;
+
+    private final double draught;
+
+    private final int navStatus;
+
+    /** Speed in knots, zero for vessels at anchor or moored. */
+    private final double sog;
+
+    private double fromLat;
+
+    private double fromLon;
+
+    private double toLat;
+
+    private double toLon;
+
+    /** The length of the current route in meters. */
+    private double routeLength;
+
+    /** When the vessel left the start of the current route. */
+    private long departed;
+
+    /** When the next position report is due. */
+    long nextPosition;
+
+    /** When the next static report is due. */
+    long nextStatic;
+
+    private int reports;
+
+    SimulatedVessel(int mmsi, Random r, SyntheticFleet fleet, long now) {
+        this.mmsi = mmsi;
+        this.classB = r.nextDouble() < fleet.getClassBShare();
+        this.name = SyntheticFleet.NAMES[r.nextInt(SyntheticFleet.NAMES.length)] + " "
+                + SyntheticFleet.NAMES[r.nextInt(SyntheticFleet.NAMES.length)] + " " + mmsi % 1000;
+        this.callsign = "OX" + Integer.toString(mmsi % 1679616, 36).toUpperCase();
+        this.shipType = classB ? 37 : 60 + r.nextInt(30);
+        this.length = classB ? 6 + r.nextInt(20) : 30 + r.nextInt(300);
+        this.width = Math.max(2, length / 6);
+        this.draught = classB ? 1.5 : 3 + r.nextDouble() * 12;
+        double stationary = r.nextDouble();
+        this.navStatus = stationary < 0.1 ? NAV_STATUS_MOORED : stationary < 0.15 ? NAV_STATUS_AT_ANCHOR
+                : NAV_STATUS_UNDERWAY;
+        this.sog = navStatus != NAV_STATUS_UNDERWAY ? 0 : classB ? 3 + r.nextDouble() * 25 : 6 + r.nextDouble() * 18;
+        this.fromLat = fleet.randomLatitude(r);
+        this.fromLon = fleet.randomLongitude(r);
+        this.toLat = sog == 0 ? fromLat : fleet.randomLatitude(r);
+        this.toLon = sog == 0 ? fromLon : fleet.randomLongitude(r);
+        this.routeLength = Math.max(1, distance(fromLat, fromLon, toLat, toLon));
+        this.departed = now;
+        // Spread the first reports out so the fleet does not report in lockstep
+        this.nextPosition = now + (long) (r.nextDouble() * positionInterval());
+        this.nextStatic = now + (long) (r.nextDouble() * STATIC_INTERVAL);
+    }
+
+    /** Returns when the next report of any kind is due. */
+    long nextReport() {
+        return Math.min(nextPosition, nextStatic);
+    }
+
+    /**
+     * Writes the reports due at the specified time, and schedules the following ones.
+     *
+     * @return the number of messages written
+     */
+    int report(SyntheticFleet fleet, Random r, long time, Consumer<String> out) {
+        int count = 0;
+        if (time >= nextPosition) {
+            double[] p = positionAt(fleet, r, time);
+            double cog = sog == 0 ? 0 : bearing(p[0], p[1], toLat, toLon);
+            int heading = sog == 0 ? 511 : (int) Math.round(cog) % 360;
+            int second = (int) (time / 1000 % 60);
+            NmeaEncoder.Payload payload;
+            if (classB) {
+                payload = NmeaEncoder.classBPositionReport(mmsi, p[0], p[1], sog, cog, heading, second);
+            } else {
+                int type = navStatus != NAV_STATUS_UNDERWAY ? 3 : reports % 5 == 4 ? 2 : 1;
+                payload = NmeaEncoder.positionReport(type, mmsi, navStatus, p[0], p[1], sog, cog, heading, second);
+            }
+            out.accept(fleet.sentences(payload, r, time, p[1]));
+            reports++;
+            count++;
+            nextPosition = time + positionInterval();
+        }
+        if (time >= nextStatic) {
+            double lon = fromLon;
+            if (classB) {
+                out.accept(fleet.sentences(NmeaEncoder.classBStaticReportA(mmsi, name), r, time, lon));
+                out.accept(fleet.sentences(NmeaEncoder.classBStaticReportB(mmsi, shipType, callsign, length, width), r,
+                        time, lon));
+                count += 2;
+            } else {
+                out.accept(fleet.sentences(NmeaEncoder.staticReport(mmsi, 9000000 + mmsi % 1000000, callsign, name,
+                        shipType, length, width, draught, "SIMULATED"), r, time, lon));
+                count++;
+            }
+            nextStatic = time + STATIC_INTERVAL;
+        }
+        return count;
+    }
+
+    /** Returns the reporting interval in milliseconds for the class and speed of the vessel. */
+    private long positionInterval() {
+        if (classB) {
+            return sog > 2 ? 30000 : 180000;
+        } else if (navStatus != NAV_STATUS_UNDERWAY) {
+            return 180000;
+        }
+        return sog > 23 ? 2000 : sog > 14 ? 6000 : 10000;
+    }
+
+    /** Returns the latitude and longitude of the vessel at the specified time, starting a new route when needed. */
+    private double[] positionAt(SyntheticFleet fleet, Random r, long time) {
+        if (sog == 0) {
+            return new double[] { fromLat, fromLon };
+        }
+        double travelled = (time - departed) / 1000.0 * sog * METERS_PER_SECOND_PER_KNOT;
+        if (travelled >= routeLength) {
+            // Arrived, head for a new destination
+            fromLat = toLat;
+            fromLon = toLon;
+            toLat = fleet.randomLatitude(r);
+            toLon = fleet.randomLongitude(r);
+            routeLength = Math.max(1, distance(fromLat, fromLon, toLat, toLon));
+            departed = time;
+            return new double[] { fromLat, fromLon };
+        }
+        return interpolate(fromLat, fromLon, toLat, toLon, travelled / routeLength);
+    }
+
+    /** The great-circle distance in meters. */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /** The initial great-circle bearing in degrees. */
+    static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double y = Math.sin(dLon) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLon);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+
+    /** The point at the specified fraction of the great circle between two points. */
+    static double[] interpolate(double lat1, double lon1, double lat2, double lon2, double f) {
+        double phi1 = Math.toRadians(lat1);
+        double lambda1 = Math.toRadians(lon1);
+        double phi2 = Math.toRadians(lat2);
+        double lambda2 = Math.toRadians(lon2);
+        double delta = distance(lat1, lon1, lat2, lon2) / EARTH_RADIUS;
+        if (delta < 1e-12) {
+            return new double[] { lat1, lon1 };
+        }
+        double a = Math.sin((1 - f) * delta) / Math.sin(delta);
+        double b = Math.sin(f * delta) / Math.sin(delta);
+        double x = a * Math.cos(phi1) * Math.cos(lambda1) + b * Math.cos(phi2) * Math.cos(lambda2);
+        double y = a * Math.cos(phi1) * Math.sin(lambda1) + b * Math.cos(phi2) * Math.sin(lambda2);
+        double z = a * Math.sin(phi1) + b * Math.sin(phi2);
+        return new double[] { Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y))),
+                Math.toDegrees(Math.atan2(y, x)) };
+    }
+}
@@ -0,0 +1,206 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.simulation;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.CoordinateSystem;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * A fleet of simulated vessels producing NMEA traffic. Class A vessels send message 1, 2 or 3 and message 5, class B
+ * vessels send message 18 and both parts of message 24, at the reporting rates of real equipment.
+ * <p>
+ * Every message carries a tag block with its timestamp and source. The area is divided into equally wide bands of
+ * longitude, one for each region, and a message is attributed to a terrestrial station of the region the vessel is in.
+ * A configurable share of the messages is tagged as received by satellite instead.
+ * <p>
+ * A fleet is not thread safe, it is meant to be driven by a single thread such as a {@link FleetSimulator}.
+ */
+public class SyntheticFleet {
+
+    /** The area vessels sail in by default, the North Sea and the Baltic. */
+    public static final BoundingBox DEFAULT_AREA = BoundingBox.create(Position.create(60.0, 3.0),
+            Position.create(53.5, 25.0), CoordinateSystem.CARTESIAN);
+
+    /** The regions the default area is split into, from west to east. */
+    public static final List<String> DEFAULT_REGIONS = Collections.unmodifiableList(Arrays.asList("NO", "DK", "SE",
+            "FI"));
+
+    /** The first MMSI of the fleet. Vessels are numbered consecutively from here. */
+    public static final int FIRST_MMSI = 219000000;
+
+    static final String[] NAMES = { "NORDIC", "BALTIC", "STAR", "SPIRIT", "MAERSK", "ARROW", "PRINCESS", "AURORA",
+            "CARRIER", "EXPLORER", "QUEEN", "FALCON" };
+
+    private final BoundingBox area;
+
+    private final Random random;
+
+    private final PriorityQueue<SimulatedVessel> queue;
+
+    private List<String> regions = DEFAULT_REGIONS;
+
+    private int stationsPerRegion = 10;
+
+    private double satelliteShare = 0.05;
+
+    private final double classBShare;
+
+    private int sequence;
+
+    private long emitted;
+
+    /**
+     * @param vessels
+     *            the number of vessels
+     * @param area
+     *            the area the vessels sail in
+     * @param classBShare
+     *            the share of vessels with class B equipment, between 0 and 1
+     * @param seed
+     *            the seed of the random generator, the same seed produces the same fleet
+     * @param now
+     *            the time the simulation starts at, in milliseconds since the epoch
+     */
+    public SyntheticFleet(int vessels, BoundingBox area, double classBShare, long seed, long now) {
+        if (vessels < 1) {
+            throw new IllegalArgumentException("A fleet must have at least one vessel, was " + vessels);
+        }
+        this.area = requireNonNull(area);
+        this.classBShare = share(classBShare);
+        this.random = new Random(seed);
+        this.queue = new PriorityQueue<>(vessels, Comparator.comparingLong(SimulatedVessel::nextReport));
+        for (int i = 0; i < vessels; i++) {
+            queue.add(new SimulatedVessel(FIRST_MMSI + i, random, this, now));
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /** Returns the total number of messages emitted. */
+    public long getEmitted() {
+        return emitted;
+    }
+
+    public double getClassBShare() {
+        return classBShare;
+    }
+
+    public double getSatelliteShare() {
+        return satelliteShare;
+    }
+
+    public void setSatelliteShare(double satelliteShare) {
+        this.satelliteShare = share(satelliteShare);
+    }
+
+    public List<String> getRegions() {
+        return regions;
+    }
+
+    /** Sets the regions the area is divided into, from west to east. */
+    public void setRegions(List<String> regions) {
+        if (regions.isEmpty()) {
+            throw new IllegalArgumentException("At least one region is required");
+        }
+        this.regions = Collections.unmodifiableList(new ArrayList<>(regions));
+    }
+
+    public void setStationsPerRegion(int stationsPerRegion) {
+        if (stationsPerRegion < 1) {
+            throw new IllegalArgumentException("At least one station per region is required, was "
+                    + stationsPerRegion);
+        }
+        this.stationsPerRegion = stationsPerRegion;
+    }
+
+    /**
+     * Emits a position report and static data for every vessel, so a tracker knows the whole fleet at once instead of
+     * after the first 6 minutes.
+     *
+     * @return the number of messages emitted
+     */
+    public int announce(long now, Consumer<String> out) {
+        List<SimulatedVessel> all = new ArrayList<>(queue);
+        queue.clear();
+        int count = 0;
+        for (SimulatedVessel v : all) {
+            v.nextPosition = now;
+            v.nextStatic = now;
+            count += v.report(this, random, now, out);
+            queue.add(v);
+        }
+        emitted += count;
+        return count;
+    }
+
+    /**
+     * Emits all reports due up to and including the specified time, in the order they are due.
+     *
+     * @return the number of messages emitted
+     */
+    public int advance(long now, Consumer<String> out) {
+        int count = 0;
+        for (SimulatedVessel v = queue.peek(); v != null && v.nextReport() <= now; v = queue.peek()) {
+            queue.poll();
+            count += v.report(this, random, v.nextReport(), out);
+            queue.add(v);
+        }
+        emitted += count;
+        return count;
+    }
+
+    double randomLatitude(Random r) {
+        return area.getMinLat() + r.nextDouble() * (area.getMaxLat() - area.getMinLat());
+    }
+
+    double randomLongitude(Random r) {
+        return area.getMinLon() + r.nextDouble() * (area.getMaxLon() - area.getMinLon());
+    }
+
+    /** Encodes a message with the tags of a source that could have received it at the specified longitude. */
+    String sentences(NmeaEncoder.Payload payload, Random r, long time, double lon) {
+        String tags;
+        if (r.nextDouble() < satelliteShare) {
+            tags = NmeaEncoder.tags(time, "SAT" + r.nextInt(3), null, true);
+        } else {
+            double width = (area.getMaxLon() - area.getMinLon()) / regions.size();
+            int index = (int) ((lon - area.getMinLon()) / width);
+            String region = regions.get(Math.max(0, Math.min(regions.size() - 1, index)));
+            tags = NmeaEncoder.tags(time, region + r.nextInt(stationsPerRegion), region, false);
+        }
+        return NmeaEncoder.sentences(payload, tags, sequence++);
+    }
+
+    private static double share(double share) {
+        if (share < 0 || share > 1) {
+            throw new IllegalArgumentException("A share must be between 0 and 1, was " + share);
+        }
+        return share;
+    }
+}
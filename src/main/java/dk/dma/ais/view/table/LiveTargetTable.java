@@ -0,0 +1,573 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketSource;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.ingest.IngestPipeline;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * The latest state of every target in the tracker, stored column by column in primitive arrays. Scans over the whole
+ * fleet, such as counting the targets within an area, run as loops over a few arrays instead of visiting a
+ * {@link TargetInfo} per target.
+ * <p>
+ * A row is updated from the tracker every time a packet for the target has been applied, and all rows are refreshed
+ * once a minute, which also picks up restored targets and drops evicted ones. Rows are stored in chunks, each guarded
+ * by a {@link StampedLock}. Scans read a chunk optimistically and only take the read lock if it was written meanwhile.
+ * <p>
+ * The table also records which sources each target has been received from, and indexes the rows by the attributes of
+ * these sources in a {@link RowBitmap} per attribute value. A scan filtering on sources intersects the bitmaps of the
+ * requested values chunk by chunk, and skips chunks without any match.
+ */
+public class LiveTargetTable extends AbstractScheduledService implements Consumer<AisPacket> {
+
+    /** Set for rows in use. */
+    static final byte OCCUPIED = 1;
+
+    /** Set for rows with a valid position. */
+    static final byte HAS_POSITION = 2;
+
+    /** Set for rows with static information. */
+    static final byte HAS_STATIC = 4;
+
+    static final int CHUNK_SHIFT = 12;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /** The mask of a scan without source conditions. */
+    private static final long[] ALL = new long[CHUNK_SIZE / 64];
+
+    static {
+        Arrays.fill(ALL, -1);
+    }
+
+    private final TargetTracker tracker;
+
+    /** The row of each MMSI. */
+    private final Map<Integer, Integer> rows = new ConcurrentHashMap<>();
+
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    /** Rows freed by removed targets, guarded by this. */
+    private int[] free = new int[16];
+
+    /** Guarded by this. */
+    private int freeCount;
+
+    /** The number of rows handed out, guarded by this. */
+    private int allocated;
+
+    /** The id of every source seen. */
+    private final Map<AisPacketSource, Integer> sourceIds = new ConcurrentHashMap<>();
+
+    /** The sources by id, guarded by this for writes. */
+    private volatile AisPacketSource[] sources = new AisPacketSource[16];
+
+    /** The rows of the targets received from a source with a specific attribute value. */
+    private final EnumMap<SourceAttribute, Map<Object, RowBitmap>> index = new EnumMap<>(SourceAttribute.class);
+
+    public LiveTargetTable(TargetTracker tracker) {
+        this.tracker = requireNonNull(tracker);
+        for (SourceAttribute a : SourceAttribute.values()) {
+            index.put(a, new ConcurrentHashMap<>());
+        }
+    }
+
+    /** Updates the row of the target a packet is about. Must be invoked after the tracker has been updated. */
+    @Override
+    public void accept(AisPacket packet) {
+        int mmsi = IngestPipeline.mmsi(packet.getStringMessage());
+        if (mmsi > 0) {
+            update(mmsi, sourceId(AisPacketSource.create(packet)), false);
+        }
+    }
+
+    /** Copies the current state of the specified target from the tracker, removing the row if the tracker has none. */
+    public void update(int mmsi) {
+        update(mmsi, -1, false);
+    }
+
+    /**
+     * Updates the row of the specified target.
+     *
+     * @param source
+     *            the id of a source the target has just been received from, or -1
+     * @param prune
+     *            whether to drop the sources of the target no longer held by the tracker
+     */
+    private void update(int mmsi, int source, boolean prune) {
+        for (;;) {
+            Integer row = rows.get(mmsi);
+            if (row == null) {
+                TargetInfo ti = tracker.get(mmsi);
+                if (ti == null) {
+                    return;
+                }
+                row = rows.computeIfAbsent(mmsi, k -> allocateRow());
+            }
+            Chunk c = chunks[row >> CHUNK_SHIFT];
+            int i = row & CHUNK_SIZE - 1;
+            boolean removed = false;
+            long stamp = c.lock.writeLock();
+            try {
+                if (!row.equals(rows.get(mmsi))) {
+                    continue; // removed concurrently, and the row possibly reused
+                }
+                // Read the target while holding the lock, so the last writer of a row has also read the latest state
+                TargetInfo ti = tracker.get(mmsi);
+                if (ti == null) {
+                    rows.remove(mmsi);
+                    int[] s = c.sources[i];
+                    c.sources[i] = null;
+                    removeSources(c, i, row, s);
+                    c.clear(i);
+                    removed = true;
+                } else {
+                    c.set(i, mmsi, ti);
+                    if (source >= 0) {
+                        addSource(c, i, row, source);
+                    }
+                    if (prune) {
+                        pruneSources(c, i, row, mmsi, ti);
+                    }
+                }
+            } finally {
+                c.lock.unlockWrite(stamp);
+            }
+            if (removed) {
+                release(row);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Adds a source to a row, unless already present. Guarded by the write lock of the chunk.
+     */
+    private void addSource(Chunk c, int i, int row, int source) {
+        int[] s = c.sources[i];
+        if (s == null) {
+            s = new int[] { source };
+        } else {
+            for (int id : s) {
+                if (id == source) {
+                    return;
+                }
+            }
+            s = Arrays.copyOf(s, s.length + 1);
+            s[s.length - 1] = source;
+        }
+        c.sources[i] = s;
+        AisPacketSource added = sources[source];
+        for (SourceAttribute a : SourceAttribute.values()) {
+            Object value = a.valueOf(added);
+            if (value != null) {
+                index.get(a).computeIfAbsent(value, k -> new RowBitmap()).add(row);
+            }
+        }
+    }
+
+    /**
+     * Drops the sources the tracker no longer holds for a target, and adds the source of the latest report if missing,
+     * for example for targets restored from a backup. Guarded by the write lock of the chunk.
+     */
+    private void pruneSources(Chunk c, int i, int row, int mmsi, TargetInfo ti) {
+        int[] s = c.sources[i];
+        if (s != null) {
+            int n = 0;
+            int[] gone = new int[s.length];
+            for (int id : s) {
+                AisPacketSource source = sources[id];
+                if (tracker.get(mmsi, source::equals) == null) {
+                    gone[n++] = id;
+                }
+            }
+            if (n > 0) {
+                int[] kept = Arrays.stream(s).filter(id -> !contains(gone, id)).toArray();
+                c.sources[i] = kept.length == 0 ? null : kept;
+                removeSources(c, i, row, Arrays.copyOf(gone, n));
+            }
+        }
+        if (ti.getPacketSource() != null) {
+            addSource(c, i, row, sourceId(ti.getPacketSource()));
+        }
+    }
+
+    /**
+     * Removes a row from the bitmaps of the specified sources, except for attribute values shared with the sources
+     * the row still has. Guarded by the write lock of the chunk.
+     */
+    private void removeSources(Chunk c, int i, int row, int[] removed) {
+        if (removed == null) {
+            return;
+        }
+        int[] remaining = c.sources[i];
+        for (SourceAttribute a : SourceAttribute.values()) {
+            Set<Object> kept = new HashSet<>();
+            if (remaining != null) {
+                for (int id : remaining) {
+                    kept.add(a.valueOf(sources[id]));
+                }
+            }
+            for (int id : removed) {
+                Object value = a.valueOf(sources[id]);
+                if (value != null && !kept.contains(value)) {
+                    index.get(a).get(value).remove(row);
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int i : ids) {
+            if (i == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the id of the specified source, assigning one if it has not been seen before. */
+    private int sourceId(AisPacketSource source) {
+        Integer id = sourceIds.get(source);
+        return id != null ? id : newSourceId(source);
+    }
+
+    private synchronized int newSourceId(AisPacketSource source) {
+        Integer id = sourceIds.get(source);
+        if (id == null) {
+            id = sourceIds.size();
+            if (id == sources.length) {
+                sources = Arrays.copyOf(sources, id * 2);
+            }
+            sources[id] = source;
+            sourceIds.put(source, id); // published after the array, so readers of the id also see the source
+        }
+        return id;
+    }
+
+    /**
+     * Updates every row from the tracker, adding targets not seen yet and removing those evicted. Sources the tracker
+     * has dropped for a target are removed from the indexes.
+     */
+    public void refresh() {
+        for (Integer mmsi : rows.keySet()) {
+            update(mmsi, -1, true);
+        }
+        tracker.stream().forEach(ti -> {
+            if (!rows.containsKey(ti.getMmsi())) {
+                update(ti.getMmsi(), -1, true);
+            }
+        });
+    }
+
+    private synchronized int allocateRow() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        int row = allocated++;
+        if (row >> CHUNK_SHIFT == chunks.length) {
+            Chunk[] c = Arrays.copyOf(chunks, chunks.length + 1);
+            c[chunks.length] = new Chunk();
+            chunks = c;
+        }
+        return row;
+    }
+
+    private synchronized void release(int row) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = row;
+    }
+
+    /** Returns the number of targets in the table. */
+    public int size() {
+        return rows.size();
+    }
+
+    /** Returns the number of targets accepted by the specified filter. */
+    public int count(TableFilter filter) {
+        int count = 0;
+        int[] hits = new int[CHUNK_SIZE];
+        RowBitmap[][] bitmaps = bitmaps(filter);
+        long[] mask = new long[RowBitmap.WORDS];
+        Chunk[] chunks = this.chunks;
+        for (int k = 0; k < chunks.length; k++) {
+            Chunk c = chunks[k];
+            long stamp = c.lock.tryOptimisticRead();
+            int n = c.match(filter, mask(bitmaps, k, mask), hits);
+            if (!c.lock.validate(stamp)) {
+                stamp = c.lock.readLock();
+                try {
+                    n = c.match(filter, mask(bitmaps, k, mask), hits);
+                } finally {
+                    c.lock.unlockRead(stamp);
+                }
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Passes the MMSI and position of every target accepted by the specified filter to the specified visitor. The
+     * visitor is invoked without holding any lock.
+     */
+    public void forEach(TableFilter filter, RowVisitor visitor) {
+        int[] hits = new int[CHUNK_SIZE];
+        int[] mmsi = new int[CHUNK_SIZE];
+        int[] lat = new int[CHUNK_SIZE];
+        int[] lon = new int[CHUNK_SIZE];
+        RowBitmap[][] bitmaps = bitmaps(filter);
+        long[] mask = new long[RowBitmap.WORDS];
+        Chunk[] chunks = this.chunks;
+        for (int k = 0; k < chunks.length; k++) {
+            Chunk c = chunks[k];
+            long stamp = c.lock.tryOptimisticRead();
+            int n = c.gather(filter, mask(bitmaps, k, mask), hits, mmsi, lat, lon);
+            if (!c.lock.validate(stamp)) {
+                stamp = c.lock.readLock();
+                try {
+                    n = c.gather(filter, mask(bitmaps, k, mask), hits, mmsi, lat, lon);
+                } finally {
+                    c.lock.unlockRead(stamp);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                visitor.visit(mmsi[i], lat[i], lon[i]);
+            }
+        }
+    }
+
+    /** Returns every value of the specified attribute among the sources of the targets in the table. */
+    public Set<Object> values(SourceAttribute attribute) {
+        Set<Object> values = new HashSet<>();
+        index.get(attribute).forEach((value, bitmap) -> {
+            if (bitmap.cardinality() > 0) {
+                values.add(value);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Returns the bitmaps of the source conditions of a filter, an array of bitmaps per attribute of which a row must
+     * be in at least one. Returns null if the filter has no source conditions.
+     */
+    private RowBitmap[][] bitmaps(TableFilter filter) {
+        if (filter.sources == null) {
+            return null;
+        }
+        RowBitmap[][] bitmaps = new RowBitmap[filter.sources.size()][];
+        int j = 0;
+        for (Map.Entry<SourceAttribute, Set<Object>> e : filter.sources.entrySet()) {
+            Map<Object, RowBitmap> values = index.get(e.getKey());
+            bitmaps[j++] = e.getValue().stream().map(values::get).filter(b -> b != null).toArray(RowBitmap[]::new);
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Computes the rows of a chunk satisfying the source conditions of a scan. Returns {@link #ALL} if there are no
+     * source conditions, and null if no row in the chunk satisfies them.
+     */
+    private static long[] mask(RowBitmap[][] bitmaps, int chunk, long[] mask) {
+        if (bitmaps == null) {
+            return ALL;
+        }
+        long any = 0;
+        for (int w = 0; w < RowBitmap.WORDS; w++) {
+            long m = -1;
+            for (RowBitmap[] anyOf : bitmaps) {
+                long words = 0;
+                for (RowBitmap b : anyOf) {
+                    long[] container = b.container(chunk);
+                    if (container != null) {
+                        words |= container[w];
+                    }
+                }
+                m &= words;
+            }
+            mask[w] = m;
+            any |= m;
+        }
+        return any == 0 ? null : mask;
+    }
+
+    /** Exposes the size of the table in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("aisview_target_table_rows", "The number of targets in the live target table", () -> size());
+        registry.gauge("aisview_target_table_capacity", "The number of rows allocated by the live target table",
+                () -> chunks.length * CHUNK_SIZE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void runOneIteration() throws Exception {
+        refresh();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 1, TimeUnit.MINUTES);
+    }
+
+    /** Receives the rows visited by {@link LiveTargetTable#forEach(TableFilter, RowVisitor)}. */
+    public interface RowVisitor {
+
+        /** Visits a single row, the position is in 1/10,000,000 degrees. */
+        void visit(int mmsi, int latE7, int lonE7);
+    }
+
+    /** A block of rows, one array per column. */
+    static final class Chunk {
+
+        final StampedLock lock = new StampedLock();
+
+        final int[] mmsi = new int[CHUNK_SIZE];
+
+        final int[] latE7 = new int[CHUNK_SIZE];
+
+        final int[] lonE7 = new int[CHUNK_SIZE];
+
+        /** Course over ground in 1/10 degrees. */
+        final short[] cog = new short[CHUNK_SIZE];
+
+        /** Speed over ground in 1/10 knots. */
+        final short[] sog = new short[CHUNK_SIZE];
+
+        final byte[] shipType = new byte[CHUNK_SIZE];
+
+        final byte[] navStatus = new byte[CHUNK_SIZE];
+
+        /** The ordinal of the source type of the latest report, see {@link AisPacketSource#getSourceType()}. */
+        final byte[] sourceType = new byte[CHUNK_SIZE];
+
+        /** The time of the latest position or static report. */
+        final long[] lastSeen = new long[CHUNK_SIZE];
+
+        final byte[] flags = new byte[CHUNK_SIZE];
+
+        /** The ids of the sources the target has been received from, null if none are known. */
+        final int[][] sources = new int[CHUNK_SIZE][];
+
+        /** Guarded by the write lock. */
+        void set(int i, int mmsi, TargetInfo ti) {
+            byte f = OCCUPIED;
+            Position p = ti.hasPositionInfo() ? ti.getPosition() : null;
+            if (p != null && Position.isValid(p.getLatitude(), p.getLongitude())) {
+                latE7[i] = (int) Math.round(p.getLatitude() * 1e7);
+                lonE7[i] = (int) Math.round(p.getLongitude() * 1e7);
+                f |= HAS_POSITION;
+            } else {
+                latE7[i] = 0;
+                lonE7[i] = 0;
+            }
+            if (ti.hasStaticInfo()) {
+                f |= HAS_STATIC;
+            }
+            this.mmsi[i] = mmsi;
+            cog[i] = (short) ti.getCog();
+            sog[i] = (short) ti.getSog();
+            shipType[i] = (byte) ti.getStaticShipType();
+            navStatus[i] = ti.getNavStatus();
+            AisPacketSource source = ti.getPacketSource();
+            sourceType[i] = (byte) (source == null || source.getSourceType() == null ? 0 : source.getSourceType()
+                    .ordinal());
+            lastSeen[i] = Math.max(ti.getPositionTimestamp(), ti.getStaticTimestamp());
+            flags[i] = f;
+        }
+
+        /** Guarded by the write lock. */
+        void clear(int i) {
+            mmsi[i] = 0;
+            latE7[i] = 0;
+            lonE7[i] = 0;
+            cog[i] = 0;
+            sog[i] = 0;
+            shipType[i] = 0;
+            navStatus[i] = 0;
+            sourceType[i] = 0;
+            lastSeen[i] = 0;
+            flags[i] = 0;
+        }
+
+        /**
+         * Stores the index of every row accepted by the filter in hits, and returns their number. Only rows with a bit
+         * set in mask are considered, a null mask accepts none.
+         */
+        int match(TableFilter f, long[] mask, int[] hits) {
+            if (mask == null) {
+                return 0;
+            }
+            int required = f.flags | OCCUPIED;
+            int minLat = f.minLatE7;
+            int maxLat = f.maxLatE7;
+            int minLon = f.minLonE7;
+            int maxLon = f.maxLonE7;
+            long seenAfter = f.seenAfter;
+            int sourceTypes = f.sourceTypes;
+            byte[] flags = this.flags;
+            int[] latE7 = this.latE7;
+            int[] lonE7 = this.lonE7;
+            long[] lastSeen = this.lastSeen;
+            byte[] sourceType = this.sourceType;
+            int n = 0;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                int lat = latE7[i];
+                int lon = lonE7[i];
+                // no branches, so the JIT can keep the loop tight
+                boolean m = (flags[i] & required) == required & lat >= minLat & lat <= maxLat & lon >= minLon
+                        & lon <= maxLon & lastSeen[i] >= seenAfter & (sourceTypes >>> sourceType[i] & 1) != 0
+                        & (mask[i >>> 6] >>> i & 1) != 0;
+                hits[n] = i;
+                n += m ? 1 : 0;
+            }
+            return n;
+        }
+
+        /** Like {@link #match(TableFilter, long[], int[])}, also copying the MMSI and position of the accepted rows. */
+        int gather(TableFilter f, long[] mask, int[] hits, int[] mmsiOut, int[] latOut, int[] lonOut) {
+            int n = match(f, mask, hits);
+            for (int j = 0; j < n; j++) {
+                int i = hits[j];
+                mmsiOut[j] = mmsi[i];
+                latOut[j] = latE7[i];
+                lonOut[j] = lonE7[i];
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of rows of a {@link LiveTargetTable}, stored as one bit per row. Like a roaring bitmap the set is split in
+ * containers, here one per chunk of the table, and a container is only allocated once a row in its chunk is added.
+ * Sets for rare attribute values thereby take up little memory, and scans skip chunks without any members.
+ * <p>
+ * The rows of a chunk are only added and removed while holding the write lock of the chunk, and read under its lock,
+ * like the columns of the table.
+ */
+final class RowBitmap {
+
+    static final int WORDS = LiveTargetTable.CHUNK_SIZE / 64;
+
+    private volatile long[][] containers = new long[0][];
+
+    private final AtomicInteger cardinality = new AtomicInteger();
+
+    /** Adds the specified row. */
+    void add(int row) {
+        long[] words = container(row >> LiveTargetTable.CHUNK_SHIFT, true);
+        int i = row & LiveTargetTable.CHUNK_SIZE - 1;
+        long bit = 1L << i;
+        if ((words[i >>> 6] & bit) == 0) {
+            words[i >>> 6] |= bit;
+            cardinality.incrementAndGet();
+        }
+    }
+
+    /** Removes the specified row. */
+    void remove(int row) {
+        long[] words = container(row >> LiveTargetTable.CHUNK_SHIFT, false);
+        if (words != null) {
+            int i = row & LiveTargetTable.CHUNK_SIZE - 1;
+            long bit = 1L << i;
+            if ((words[i >>> 6] & bit) != 0) {
+                words[i >>> 6] &= ~bit;
+                cardinality.decrementAndGet();
+            }
+        }
+    }
+
+    /** Returns the words of the specified chunk, or null if no row in it has ever been added. */
+    long[] container(int chunk) {
+        long[][] c = containers;
+        return chunk < c.length ? c[chunk] : null;
+    }
+
+    private long[] container(int chunk, boolean create) {
+        long[] words = container(chunk);
+        if (words == null && create) {
+            synchronized (this) {
+                long[][] c = containers;
+                if (chunk >= c.length) {
+                    c = Arrays.copyOf(c, chunk + 1);
+                }
+                if (c[chunk] == null) {
+                    c[chunk] = new long[WORDS];
+                }
+                containers = c;
+                words = c[chunk];
+            }
+        }
+        return words;
+    }
+
+    /** Returns the number of rows in the set. */
+    int cardinality() {
+        return cardinality.get();
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import dk.dma.ais.packet.AisPacketSource;
+
+/**
+ * The attributes of an {@link AisPacketSource} the {@link LiveTargetTable} is indexed on.
+ */
+public enum SourceAttribute {
+
+    /** The id of the source system, a String. */
+    ID {
+        @Override
+        Object valueOf(AisPacketSource s) {
+            return s.getSourceId();
+        }
+    },
+
+    /** The region, a String. */
+    REGION {
+        @Override
+        Object valueOf(AisPacketSource s) {
+            return s.getSourceRegion();
+        }
+    },
+
+    /** The MMSI of the base station, an Integer. */
+    BASE_STATION {
+        @Override
+        Object valueOf(AisPacketSource s) {
+            return s.getSourceBaseStation() > 0 ? s.getSourceBaseStation() : null;
+        }
+    },
+
+    /** The source type, a SourceType. */
+    TYPE {
+        @Override
+        Object valueOf(AisPacketSource s) {
+            return s.getSourceType();
+        }
+    },
+
+    /** The country of the source, a Country. */
+    COUNTRY {
+        @Override
+        Object valueOf(AisPacketSource s) {
+            return s.getSourceCountry();
+        }
+    };
+
+    /** Returns the value of the attribute for the specified source, or null if the source does not have it. */
+    abstract Object valueOf(AisPacketSource s);
+}
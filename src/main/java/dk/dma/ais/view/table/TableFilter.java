@@ -0,0 +1,99 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import dk.dma.enav.model.geometry.BoundingBox;
+
+/**
+ * The conditions of a scan of a {@link LiveTargetTable}. A new filter accepts every target, each method narrows it.
+ */
+public final class TableFilter {
+
+    int flags;
+
+    int minLatE7 = Integer.MIN_VALUE;
+
+    int maxLatE7 = Integer.MAX_VALUE;
+
+    int minLonE7 = Integer.MIN_VALUE;
+
+    int maxLonE7 = Integer.MAX_VALUE;
+
+    long seenAfter = Long.MIN_VALUE;
+
+    /** A bit per accepted source type, by ordinal. */
+    int sourceTypes = -1;
+
+    /** The accepted values of each source attribute filtered on, null if there are none. */
+    EnumMap<SourceAttribute, Set<Object>> sources;
+
+    /** Only accepts targets with a valid position within the specified area. */
+    public TableFilter within(BoundingBox bbox) {
+        flags |= LiveTargetTable.HAS_POSITION;
+        minLatE7 = Math.max(minLatE7, (int) Math.floor(bbox.getMinLat() * 1e7));
+        maxLatE7 = Math.min(maxLatE7, (int) Math.ceil(bbox.getMaxLat() * 1e7));
+        minLonE7 = Math.max(minLonE7, (int) Math.floor(bbox.getMinLon() * 1e7));
+        maxLonE7 = Math.min(maxLonE7, (int) Math.ceil(bbox.getMaxLon() * 1e7));
+        return this;
+    }
+
+    /** Only accepts targets with a valid position. */
+    public TableFilter withPosition() {
+        flags |= LiveTargetTable.HAS_POSITION;
+        return this;
+    }
+
+    /** Only accepts targets with static information. */
+    public TableFilter withStatic() {
+        flags |= LiveTargetTable.HAS_STATIC;
+        return this;
+    }
+
+    /** Only accepts targets with a position or static report newer than the specified number of seconds. */
+    public TableFilter seenWithin(int seconds) {
+        seenAfter = Math.max(seenAfter, System.currentTimeMillis() - seconds * 1000L + 1);
+        return this;
+    }
+
+    /** Only accepts targets whose latest report is from the specified source type. */
+    public TableFilter sourceType(SourceType type) {
+        sourceTypes &= 1 << type.ordinal();
+        return this;
+    }
+
+    /**
+     * Only accepts targets received from at least one source with one of the specified values of an attribute. Each
+     * attribute is evaluated on its own, so filtering on two attributes accepts targets with a source matching the
+     * first and a, possibly different, source matching the second.
+     */
+    public TableFilter source(SourceAttribute attribute, Collection<?> values) {
+        if (sources == null) {
+            sources = new EnumMap<>(SourceAttribute.class);
+        }
+        Set<Object> accepted = sources.get(attribute);
+        if (accepted == null) {
+            sources.put(attribute, new HashSet<>(values));
+        } else {
+            accepted.retainAll(values);
+        }
+        return this;
+    }
+}
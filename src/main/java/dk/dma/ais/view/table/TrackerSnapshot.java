@@ -0,0 +1,82 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+
+/**
+ * The targets of the tracker at one point in time. A {@link TargetInfo} is immutable, so a snapshot is just an array
+ * of references taken in a single pass over the tracker. A request reading all of its targets and counts from one
+ * snapshot gets a consistent response, no matter how the tracker changes while the request is running.
+ */
+public final class TrackerSnapshot {
+
+    private final long epoch;
+
+    private final long created;
+
+    /** The MMSIs of the targets in ascending order. */
+    private final int[] mmsis;
+
+    /** The targets in the order of their MMSIs. */
+    private final TargetInfo[] targets;
+
+    TrackerSnapshot(long epoch, long created, TargetInfo[] targets) {
+        Arrays.sort(targets, Comparator.comparingInt(TargetInfo::getMmsi));
+        this.epoch = epoch;
+        this.created = created;
+        this.targets = targets;
+        this.mmsis = new int[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            mmsis[i] = targets[i].getMmsi();
+        }
+    }
+
+    /** Returns the number of the snapshot, increasing by one for every snapshot taken. */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** Returns the time the snapshot was taken. */
+    public long getCreated() {
+        return created;
+    }
+
+    /** Returns the target with the specified MMSI, or null if there was none. */
+    public TargetInfo get(int mmsi) {
+        int i = Arrays.binarySearch(mmsis, mmsi);
+        return i < 0 ? null : targets[i];
+    }
+
+    /** Returns the number of targets in the snapshot. */
+    public int size() {
+        return targets.length;
+    }
+
+    /** Returns the targets in ascending MMSI order. */
+    public Stream<TargetInfo> stream() {
+        return Arrays.stream(targets);
+    }
+
+    /** Returns the targets accepted by the specified predicate in ascending MMSI order. */
+    public Stream<TargetInfo> stream(Predicate<? super TargetInfo> filter) {
+        return stream().filter(filter);
+    }
+}
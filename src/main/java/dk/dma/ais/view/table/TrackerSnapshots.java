@@ -0,0 +1,112 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+
+/**
+ * Hands out {@link TrackerSnapshot}s to read endpoints. At most one snapshot is taken per tick, and it is shared by
+ * every request reading during that tick, so the cost of taking it does not grow with the number of concurrent
+ * requests. Snapshots are only taken while requests ask for them. After a tick without readers the snapshot is
+ * dropped, and the first reader after that takes a new one itself.
+ */
+public class TrackerSnapshots extends AbstractScheduledService {
+
+    private final TargetTracker tracker;
+
+    private final long tickMillis;
+
+    private volatile TrackerSnapshot snapshot;
+
+    /** Whether the snapshot has been read since the last tick. */
+    private volatile boolean read;
+
+    /** Guarded by this. */
+    private long epoch;
+
+    private final LongAdder taken = new LongAdder();
+
+    /**
+     * @param tracker
+     *            the tracker to take snapshots of
+     * @param tickMillis
+     *            how often a snapshot is taken while it is being read, a snapshot handed out is at most twice as old
+     */
+    public TrackerSnapshots(TargetTracker tracker, long tickMillis) {
+        this.tracker = requireNonNull(tracker);
+        this.tickMillis = tickMillis;
+    }
+
+    /** Returns a recent snapshot, taking a new one if there is none. */
+    public TrackerSnapshot current() {
+        read = true;
+        TrackerSnapshot s = snapshot;
+        return isRecent(s) ? s : take(false);
+    }
+
+    /**
+     * Takes a new snapshot. Unless forced, a snapshot taken by another thread while waiting for the lock is returned
+     * instead.
+     */
+    private synchronized TrackerSnapshot take(boolean force) {
+        TrackerSnapshot s = snapshot;
+        if (force || !isRecent(s)) {
+            s = new TrackerSnapshot(++epoch, System.currentTimeMillis(), tracker.stream().toArray(TargetInfo[]::new));
+            snapshot = s;
+            taken.increment();
+        }
+        return s;
+    }
+
+    private boolean isRecent(TrackerSnapshot s) {
+        return s != null && System.currentTimeMillis() - s.getCreated() < 2 * tickMillis;
+    }
+
+    /** Exposes the snapshots taken in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.collector("aisview_tracker_snapshots_total", "The number of snapshots taken of the tracker",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", taken.sum()));
+        registry.gauge("aisview_tracker_snapshot_targets", "The number of targets in the current snapshot", () -> {
+            TrackerSnapshot s = snapshot;
+            return s == null ? 0 : s.size();
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void runOneIteration() throws Exception {
+        if (read) {
+            read = false;
+            take(true);
+        } else {
+            snapshot = null; // nobody is reading, let go of targets evicted from the tracker
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedRateSchedule(tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,228 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.table;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.data.AisVesselTarget;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.tracker.targetTracker.TargetInfo;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+import dk.dma.ais.view.ingest.IngestPipeline;
+import dk.dma.ais.view.metrics.MetricsRegistry;
+import dk.dma.ais.view.rest.json.ViewTarget;
+
+/**
+ * The {@link ViewTarget} of every vessel in the tracker, together with its JSON form. A view target is built by
+ * replaying the packets of the vessel into an {@link AisTarget}, which is too expensive to do for the whole fleet on
+ * every request. Instead the MMSIs of incoming packets are collected, and once per tick only the view targets of those
+ * vessels are rebuilt. Once a minute vessels evicted from the tracker are removed, and vessels not yet seen, such as
+ * restored ones, are added.
+ * <p>
+ * Entries are immutable and replaced as a whole, so a reader always sees a view target matching its JSON.
+ */
+public class ViewTargetCache extends AbstractScheduledService implements Consumer<AisPacket> {
+
+    /** The logger */
+    static final Logger LOG = LoggerFactory.getLogger(ViewTargetCache.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final long SWEEP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final TargetTracker tracker;
+
+    private final long tickMillis;
+
+    /** MMSIs updated since the last tick. */
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder rebuilt = new LongAdder();
+
+    /** Only accessed by the thread of the service. */
+    private long lastSweep;
+
+    /**
+     * @param tracker
+     *            the tracker packets are applied to
+     * @param tickMillis
+     *            how often updated vessels are rebuilt
+     */
+    public ViewTargetCache(TargetTracker tracker, long tickMillis) {
+        this.tracker = requireNonNull(tracker);
+        this.tickMillis = tickMillis;
+    }
+
+    /** Marks the vessel a packet is about as updated. Must be invoked after the tracker has been updated. */
+    @Override
+    public void accept(AisPacket packet) {
+        int mmsi = IngestPipeline.mmsi(packet.getStringMessage());
+        if (mmsi > 0) {
+            dirty.add(mmsi);
+        }
+    }
+
+    /** Returns the entry of the specified vessel, or null if there is none. */
+    public Entry get(int mmsi) {
+        return entries.get(mmsi);
+    }
+
+    /** Returns a live view of all entries. */
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Rebuilds the entry of the specified vessel from the tracker, removing it if the tracker has none. */
+    void rebuild(int mmsi) {
+        TargetInfo ti = tracker.get(mmsi);
+        ViewTarget vt = ti == null ? null : create(ti.getPackets());
+        if (vt == null) {
+            entries.remove(mmsi);
+            return;
+        }
+        try {
+            entries.put(mmsi, new Entry(ti, vt, MAPPER.writeValueAsBytes(vt)));
+            rebuilt.increment();
+        } catch (JsonProcessingException e) {
+            LOG.warn("Could not serialize view target of " + mmsi, e);
+        }
+    }
+
+    /** Removes vessels the tracker no longer holds and adds those not seen yet. */
+    public void refresh() {
+        for (Integer mmsi : entries.keySet()) {
+            if (tracker.get(mmsi) == null) {
+                entries.remove(mmsi);
+            }
+        }
+        tracker.stream().forEach(ti -> {
+            if (!entries.containsKey(ti.getMmsi())) {
+                rebuild(ti.getMmsi());
+            }
+        });
+    }
+
+    /**
+     * Replays the packets of a vessel into an {@link AisTarget}, returning its view target or null if the packets do
+     * not describe a vessel.
+     */
+    public static ViewTarget create(AisPacket[] packets) {
+        AisTarget target = null;
+        for (AisPacket packet : packets) {
+            AisMessage message = packet.tryGetAisMessage();
+            if (message == null || !AisTarget.isTargetDataMessage(message)) {
+                continue;
+            }
+            if (target == null) {
+                target = AisTarget.createTarget(message);
+            }
+            try {
+                target.update(message);
+            } catch (IllegalArgumentException e) {
+                // Trying to update target with report of different type of target.
+                // Replace target with new target
+                target = AisTarget.createTarget(message);
+                target.update(message);
+            }
+        }
+        return target instanceof AisVesselTarget ? ViewTarget.create((AisVesselTarget) target) : null;
+    }
+
+    /** Exposes the size of the cache in the specified registry. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("aisview_view_targets", "The number of vessels with a view target", () -> size());
+        registry.gauge("aisview_view_pending", "The number of vessels whose view target is about to be rebuilt",
+                () -> dirty.size());
+        registry.collector("aisview_view_rebuilds_total", "The number of view targets built",
+                MetricsRegistry.Type.COUNTER, s -> s.sample("", rebuilt.sum()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void runOneIteration() throws Exception {
+        // Removing while iterating means an MMSI added concurrently is either rebuilt now or at the next tick
+        for (Iterator<Integer> iter = dirty.iterator(); iter.hasNext();) {
+            int mmsi = iter.next();
+            iter.remove();
+            rebuild(mmsi);
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSweep >= SWEEP_MILLIS) {
+            refresh();
+            lastSweep = now;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** The view target of a vessel, built from the tracker at some point. */
+    public static final class Entry {
+
+        private final TargetInfo target;
+
+        private final ViewTarget view;
+
+        private final byte[] json;
+
+        Entry(TargetInfo target, ViewTarget view, byte[] json) {
+            this.target = target;
+            this.view = view;
+            this.json = json;
+        }
+
+        /** Returns the state of the vessel in the tracker the entry was built from. */
+        public TargetInfo getTarget() {
+            return target;
+        }
+
+        public ViewTarget getView() {
+            return view;
+        }
+
+        /** Returns the view target serialized as a JSON object, must not be modified. */
+        public byte[] getJson() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.backup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dk.dma.ais.packet.AisPacket;
+
+/**
+ * Tests writing and replaying a {@link TrackerJournal}.
+ */
+public class TrackerJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Writes the specified packets to a new segment. */
+    TrackerJournal write(String... packets) {
+        TrackerJournal journal = new TrackerJournal(folder.getRoot().toPath(), 10, 1 << 20, 100);
+        journal.startAsync().awaitRunning();
+        for (String p : packets) {
+            journal.accept(AisPacket.readFromString(p));
+        }
+        journal.stopAsync().awaitTerminated();
+        return journal;
+    }
+
+    List<String> replay() throws IOException {
+        List<String> packets = new ArrayList<>();
+        new TrackerJournal(folder.getRoot().toPath(), 10, 1 << 20, 100).replay(p -> packets.add(p
+                .getStringMessage()));
+        return packets;
+    }
+
+    List<Path> segments() throws IOException {
+        try (Stream<Path> s = Files.list(folder.getRoot().toPath())) {
+            return s.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /** Appends the specified length and data to the first segment, as left behind by a torn write. */
+    void tear(int length, int bytes) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(segments().get(0),
+                StandardOpenOption.APPEND))) {
+            out.writeInt(length);
+            out.write(new byte[bytes]);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        write(TrackerSnapshotTest.PACKETS[0]);
+        write(TrackerSnapshotTest.PACKETS[1], TrackerSnapshotTest.PACKETS[2]);
+        assertEquals(2, segments().size());
+        assertEquals(Arrays.asList(TrackerSnapshotTest.PACKETS), replay());
+    }
+
+    @Test
+    public void recordCutShort() throws IOException {
+        write(TrackerSnapshotTest.PACKETS[0]);
+        tear(100, 10);
+        write(TrackerSnapshotTest.PACKETS[1], TrackerSnapshotTest.PACKETS[2]);
+        assertEquals(Arrays.asList(TrackerSnapshotTest.PACKETS), replay());
+    }
+
+    @Test
+    public void negativeLength() throws IOException {
+        write(TrackerSnapshotTest.PACKETS[0]);
+        tear(-5, 10);
+        write(TrackerSnapshotTest.PACKETS[1], TrackerSnapshotTest.PACKETS[2]);
+        assertEquals(Arrays.asList(TrackerSnapshotTest.PACKETS), replay());
+    }
+
+    @Test
+    public void lengthTooLarge() throws IOException {
+        write(TrackerSnapshotTest.PACKETS[0]);
+        tear(Integer.MAX_VALUE, 10);
+        write(TrackerSnapshotTest.PACKETS[1], TrackerSnapshotTest.PACKETS[2]);
+        assertEquals(Arrays.asList(TrackerSnapshotTest.PACKETS), replay());
+    }
+
+    @Test
+    public void lengthCutShort() throws IOException {
+        write(TrackerSnapshotTest.PACKETS[0]);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(segments().get(0),
+                StandardOpenOption.APPEND))) {
+            out.writeShort(0);
+        }
+        write(TrackerSnapshotTest.PACKETS[1], TrackerSnapshotTest.PACKETS[2]);
+        assertEquals(Arrays.asList(TrackerSnapshotTest.PACKETS), replay());
+    }
+
+    @Test
+    public void compact() throws IOException {
+        write(TrackerSnapshotTest.PACKETS[0]);
+        TrackerJournal journal = new TrackerJournal(folder.getRoot().toPath(), 10, 1 << 20, 100);
+        journal.startAsync().awaitRunning();
+        journal.compact(journal.roll());
+        journal.accept(AisPacket.readFromString(TrackerSnapshotTest.PACKETS[1]));
+        journal.stopAsync().awaitTerminated();
+        assertEquals(1, segments().size());
+        assertEquals(Arrays.asList(TrackerSnapshotTest.PACKETS[1]), replay());
+
+        // stopped, every packet is in the existing segments
+        journal.compact(journal.roll());
+        assertEquals(0, segments().size());
+    }
+}
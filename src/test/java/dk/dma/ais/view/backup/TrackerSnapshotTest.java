@@ -0,0 +1,144 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.backup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.tracker.targetTracker.TargetTracker;
+
+/**
+ * Tests writing and loading {@link TrackerSnapshot}s.
+ */
+public class TrackerSnapshotTest {
+
+    static final String[] PACKETS = {
+            "\\c:1388045460*58\\!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C",
+            "\\c:1388045470*59\\!AIVDM,1,1,,A,15RTgt0PAso;90TKcjM8h6g208CQ,0*4A",
+            "\\c:1388045480*56\\!AIVDM,2,1,1,A,55?MbV02;H;s<HtKR20EHE:0@T4@Dn2222222216L961O5Gf0NSQEp6ClRp8,0*1C\r\n"
+                    + "!AIVDM,2,2,1,A,88888888880,2*25" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path write() throws IOException {
+        TargetTracker tracker = new TargetTracker();
+        for (String p : PACKETS) {
+            tracker.update(AisPacket.readFromString(p));
+        }
+        Path file = folder.getRoot().toPath().resolve("tracker.snapshot");
+        assertEquals(PACKETS.length, TrackerSnapshot.write(tracker, file));
+        assertTrue(Files.notExists(file.resolveSibling("tracker.snapshot.tmp")));
+        return file;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Path file = write();
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        TargetTracker restored = new TargetTracker();
+        long packets = TrackerSnapshot.load(file, 2, p -> {
+            loaded.add(p.getStringMessage());
+            restored.update(p);
+        });
+        assertEquals(PACKETS.length, packets);
+        assertEquals(new HashSet<>(Arrays.asList(PACKETS)), loaded);
+        assertEquals(PACKETS.length, restored.size());
+        assertEquals(1388045460000L, restored.get(477553000).getPositionPacket().getBestTimestamp());
+    }
+
+    @Test
+    public void empty() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("tracker.snapshot");
+        assertEquals(0, TrackerSnapshot.write(new TargetTracker(), file));
+        assertEquals(0, TrackerSnapshot.load(file, 2, p -> fail()));
+    }
+
+    @Test
+    public void truncatedIndex() throws Exception {
+        Path file = write();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 4);
+        }
+        assertNotLoaded(file);
+    }
+
+    @Test
+    public void truncatedRecords() throws Exception {
+        Path file = write();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(TrackerSnapshot.HEADER_SIZE + 10);
+        }
+        assertNotLoaded(file);
+    }
+
+    @Test
+    public void truncatedHeader() throws Exception {
+        Path file = write();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(TrackerSnapshot.HEADER_SIZE / 2);
+        }
+        assertNotLoaded(file);
+    }
+
+    @Test
+    public void corruptIndex() throws Exception {
+        Path file = write();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(8).putLong(Long.MAX_VALUE / 2);
+            b.flip();
+            ch.write(b, ch.size() - 8);
+        }
+        assertNotLoaded(file);
+    }
+
+    /** Asserts that loading the specified snapshot fails without passing any packet on. */
+    static void assertNotLoaded(Path file) throws Exception {
+        try {
+            TrackerSnapshot.load(file, 2, p -> fail("Loaded " + p.getStringMessage()));
+            fail();
+        } catch (IOException expected) {}
+    }
+
+    @Test
+    public void withTimestamp() {
+        String sentence = "!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C";
+        assertEquals("\\c:1388045460*58\\" + sentence, TrackerSnapshot.withTimestamp(sentence, 1388045460123L));
+        assertEquals("\\c:1388045460,s:2573345*0C\\" + sentence,
+                TrackerSnapshot.withTimestamp("\\s:2573345*78\\" + sentence, 1388045460123L));
+        // an existing timestamp is kept
+        assertEquals("\\c:1388045470*59\\" + sentence,
+                TrackerSnapshot.withTimestamp("\\c:1388045470*59\\" + sentence, 1388045460123L));
+        // unknown time of reception
+        assertEquals(sentence, TrackerSnapshot.withTimestamp(sentence, -1));
+    }
+}
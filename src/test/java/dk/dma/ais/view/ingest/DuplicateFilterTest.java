@@ -0,0 +1,68 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link DuplicateFilter#hash(String)}.
+ */
+public class DuplicateFilterTest {
+
+    static final String SENTENCE = "!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C";
+
+    @Test
+    public void ignoresSourceSpecificFields() {
+        long h = DuplicateFilter.hash(SENTENCE);
+        assertNotEquals(0, h);
+        // tag block
+        assertEquals(h, DuplicateFilter.hash("\\s:2573345,c:1388045460*0C\\" + SENTENCE));
+        // talker, sequential message id, channel and checksum
+        assertEquals(h, DuplicateFilter.hash("!BSVDM,1,1,7,A,177KQJ5000G?tO`K>RA1wUbN0TKH,0*71"));
+        // line terminator
+        assertEquals(h, DuplicateFilter.hash(SENTENCE + "\r\n"));
+    }
+
+    @Test
+    public void differentMessages() {
+        long h = DuplicateFilter.hash(SENTENCE);
+        assertNotEquals(h, DuplicateFilter.hash("!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKI,0*5C"));
+        assertNotEquals(h, DuplicateFilter.hash("!AIVDM,1,1,,A,15RTgt0PAso;90TKcjM8h6g208CQ,0*4A"));
+        // fill bits
+        assertNotEquals(h, DuplicateFilter.hash("!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,2*5C"));
+    }
+
+    @Test
+    public void multiSentence() {
+        String first = "!AIVDM,2,1,1,A,55?MbV02;H;s<HtKR20EHE:0@T4@Dn2222222216L961O5Gf0NSQEp6ClRp8,0*1C";
+        String second = "!AIVDM,2,2,1,A,88888888880,2*25";
+        long h = DuplicateFilter.hash(first + "\r\n" + second);
+        assertEquals(h, DuplicateFilter.hash(first.replace(",1,A,", ",3,B,") + "\r\n"
+                + second.replace(",1,A,", ",3,B,")));
+        assertNotEquals(h, DuplicateFilter.hash(first));
+        assertNotEquals(h, DuplicateFilter.hash(second + "\r\n" + first));
+    }
+
+    @Test
+    public void noSentence() {
+        assertEquals(0, DuplicateFilter.hash(null));
+        assertEquals(0, DuplicateFilter.hash(""));
+        assertEquals(0, DuplicateFilter.hash("\\s:2573345,c:1388045460*0C\\"));
+        assertEquals(0, DuplicateFilter.hash("$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47"));
+    }
+}
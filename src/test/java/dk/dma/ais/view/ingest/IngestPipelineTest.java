@@ -0,0 +1,60 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.ingest;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link IngestPipeline#mmsi(String)} against sentences whose MMSI is known.
+ */
+public class IngestPipelineTest {
+
+    @Test
+    public void positionReport() {
+        assertEquals(477553000, IngestPipeline.mmsi("!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C"));
+        assertEquals(371798000, IngestPipeline.mmsi("!AIVDM,1,1,,A,15RTgt0PAso;90TKcjM8h6g208CQ,0*4A"));
+    }
+
+    @Test
+    public void ownVessel() {
+        assertEquals(477553000, IngestPipeline.mmsi("!AIVDO,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5E"));
+    }
+
+    @Test
+    public void tagBlock() {
+        assertEquals(477553000, IngestPipeline.mmsi("\\s:2573345,c:1388045460*0C\\"
+                + "!BSVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*45"));
+    }
+
+    @Test
+    public void multiSentence() {
+        assertEquals(351759000, IngestPipeline.mmsi(
+                "!AIVDM,2,1,1,A,55?MbV02;H;s<HtKR20EHE:0@T4@Dn2222222216L961O5Gf0NSQEp6ClRp8,0*1C\r\n"
+                        + "!AIVDM,2,2,1,A,88888888880,2*25"));
+    }
+
+    @Test
+    public void noMmsi() {
+        assertEquals(0, IngestPipeline.mmsi(null));
+        assertEquals(0, IngestPipeline.mmsi(""));
+        assertEquals(0, IngestPipeline.mmsi("$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47"));
+        // payload too short to hold an MMSI
+        assertEquals(0, IngestPipeline.mmsi("!AIVDM,1,1,,A,15RT,0*4A"));
+        // not a 6-bit character
+        assertEquals(0, IngestPipeline.mmsi("!AIVDM,1,1,,A,15RT x0PAso;90TKcjM8h6g208CQ,0*4A"));
+    }
+}
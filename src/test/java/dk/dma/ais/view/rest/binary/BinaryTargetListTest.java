@@ -0,0 +1,235 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.view.rest.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.dma.ais.view.rest.binary.BinaryTargetList.Vessel;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Tests that {@link BinaryTargetList} responses decode as documented.
+ */
+public class BinaryTargetListTest {
+
+    @Test
+    public void varint() {
+        long[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, 0xffffffffL, Long.MAX_VALUE };
+        BinaryTargetList.Buffer b = new BinaryTargetList.Buffer(0);
+        for (long v : values) {
+            b.varlong(v);
+        }
+        Reader r = new Reader(b);
+        for (long v : values) {
+            assertEquals(v, r.varint());
+        }
+        r.assertConsumed();
+
+        b = new BinaryTargetList.Buffer(0);
+        b.varint(300);
+        b.varint(-1); // written as unsigned
+        assertArrayEquals(new byte[] { (byte) 0xac, 0x02, -1, -1, -1, -1, 0x0f }, Arrays.copyOf(b.bytes, b.size));
+    }
+
+    @Test
+    public void zigzag() {
+        int[] values = { 0, -1, 1, -2, 2, -64, 64, 1234567, -1234567, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        BinaryTargetList.Buffer b = new BinaryTargetList.Buffer(0);
+        for (int v : values) {
+            b.zigzag(v);
+        }
+        Reader r = new Reader(b);
+        for (int v : values) {
+            assertEquals(v, r.zigzag());
+        }
+        r.assertConsumed();
+
+        b = new BinaryTargetList.Buffer(0);
+        b.zigzag(0);
+        b.zigzag(-1);
+        b.zigzag(1);
+        b.zigzag(-64);
+        assertArrayEquals(new byte[] { 0, 1, 2, 127 }, Arrays.copyOf(b.bytes, b.size));
+    }
+
+    @Test
+    public void vesselList() {
+        Vessel v1 = vessel(219000005, "ANNA", "OXAB");
+        v1.flags = BinaryTargetList.HAS_POSITION | BinaryTargetList.CLASS_B;
+        v1.lat = BinaryTargetList.e5(55.12345);
+        v1.lon = BinaryTargetList.e5(12.5);
+        v1.cog = 1234;
+        v1.color = 3;
+        Vessel v2 = vessel(219000002, null, "OXAB");
+        v2.flags = BinaryTargetList.MOORED;
+
+        BinaryTargetList list = new BinaryTargetList(BinaryTargetList.VESSEL_LIST, 7, 1000, null);
+        list.vessels(Arrays.asList(v1, v2));
+        Reader r = new Reader(list.toByteArray());
+        r.header(BinaryTargetList.VESSEL_LIST, 7, 1000);
+        assertEquals(Arrays.asList("OXAB", "ANNA"), r.dictionary());
+
+        // sorted by MMSI, the first delta relative to 0
+        assertEquals(2, r.varint());
+        assertEquals(219000002, r.varint());
+        assertEquals(BinaryTargetList.MOORED, r.b());
+        assertEquals(BinaryTargetList.NA, r.varint()); // cog
+        assertEquals(0, r.varint()); // ship type
+        assertEquals(0, r.varint()); // name
+        assertEquals(1, r.varint()); // call sign
+        assertEquals(0, r.b()); // color
+
+        assertEquals(3, r.varint());
+        assertEquals(BinaryTargetList.HAS_POSITION | BinaryTargetList.CLASS_B, r.b());
+        assertEquals(5512345, r.zigzag());
+        assertEquals(1250000, r.zigzag());
+        assertEquals(1234, r.varint());
+        assertEquals(0, r.varint());
+        assertEquals(2, r.varint());
+        assertEquals(1, r.varint());
+        assertEquals(3, r.b());
+        r.assertConsumed();
+    }
+
+    @Test
+    public void clusters() {
+        Vessel v = vessel(219000001, "ANNA", null);
+        v.flags = BinaryTargetList.HAS_POSITION;
+        v.lat = BinaryTargetList.e5(-10.5);
+        v.lon = BinaryTargetList.e5(-20.25);
+
+        BinaryTargetList list = new BinaryTargetList(BinaryTargetList.VESSEL_CLUSTERS, -1, 3, null);
+        list.cluster(Position.create(-11, -21), Position.create(-9, -19), 10, 0.25, Collections.singletonList(v));
+        list.cluster(Position.create(1, 2), Position.create(3, 4), 0, 0, Collections.emptyList());
+        Reader r = new Reader(list.toByteArray());
+        r.header(BinaryTargetList.VESSEL_CLUSTERS, -1, 3);
+        assertEquals(Arrays.asList("ANNA"), r.dictionary());
+        assertEquals(2, r.varint());
+
+        assertEquals(-1100000, r.zigzag());
+        assertEquals(-2100000, r.zigzag());
+        assertEquals(200000, r.varint());
+        assertEquals(200000, r.varint());
+        assertEquals(10, r.varint());
+        assertEquals(0.25f, Float.intBitsToFloat(r.int32()), 0);
+        assertEquals(1, r.varint());
+        assertEquals(219000001, r.varint());
+        assertEquals(BinaryTargetList.HAS_POSITION, r.b());
+        assertEquals(-1050000, r.zigzag());
+        assertEquals(-2025000, r.zigzag());
+        assertEquals(BinaryTargetList.NA, r.varint());
+        assertEquals(0, r.varint());
+        assertEquals(1, r.varint());
+        assertEquals(0, r.varint());
+        assertEquals(0, r.b());
+
+        assertEquals(100000, r.zigzag());
+        assertEquals(200000, r.zigzag());
+        assertEquals(200000, r.varint());
+        assertEquals(200000, r.varint());
+        assertEquals(0, r.varint());
+        assertEquals(0f, Float.intBitsToFloat(r.int32()), 0);
+        assertEquals(0, r.varint());
+        r.assertConsumed();
+    }
+
+    static Vessel vessel(int mmsi, String name, String callsign) {
+        Vessel v = new Vessel();
+        v.mmsi = mmsi;
+        v.name = name;
+        v.callsign = callsign;
+        return v;
+    }
+
+    /** Decodes the encodings of the format. */
+    static final class Reader {
+
+        final byte[] bytes;
+
+        final int size;
+
+        int position;
+
+        Reader(BinaryTargetList.Buffer b) {
+            this(Arrays.copyOf(b.bytes, b.size));
+        }
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+            this.size = bytes.length;
+        }
+
+        int b() {
+            return bytes[position++] & 0xff;
+        }
+
+        int int32() {
+            return b() << 24 | b() << 16 | b() << 8 | b();
+        }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = b();
+                v |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return v;
+                }
+            }
+        }
+
+        int zigzag() {
+            int v = (int) varint();
+            return v >>> 1 ^ -(v & 1);
+        }
+
+        void header(int kind, int requestId, int inWorld) {
+            assertEquals('A', b());
+            assertEquals('V', b());
+            assertEquals('B', b());
+            assertEquals(BinaryTargetList.VERSION, b());
+            assertEquals(kind, b());
+            assertEquals(requestId, zigzag());
+            assertEquals(inWorld, varint());
+            long currentTime = varint();
+            assertEquals(System.currentTimeMillis(), currentTime, 60000);
+            assertEquals(0, zigzag()); // origin
+            assertEquals(0, zigzag());
+        }
+
+        List<String> dictionary() {
+            List<String> strings = new ArrayList<>();
+            for (long n = varint(); n > 0; n--) {
+                int length = (int) varint();
+                strings.add(new String(bytes, position, length, StandardCharsets.UTF_8));
+                position += length;
+            }
+            return strings;
+        }
+
+        void assertConsumed() {
+            assertEquals(size, position);
+        }
+    }
+}